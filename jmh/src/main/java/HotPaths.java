@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.LongSupplier;
+
+// The operations the JMH benchmarks in package bench measure: Board moves and win checks,
+// board encoding for clients, client-side board parsing, waiting-queue operations and rating
+// lookups. Legacy versions of code paths that have since been optimized are kept as baselines.
+//
+// They live here, in the default package next to the server's classes, because JMH refuses
+// benchmark classes in the default package and a named package cannot refer to the server's
+// classes. Each operation performs its work once and returns a value for JMH to consume, so
+// the JIT cannot eliminate it; every JMH fork runs a single operation, so the call is inlined.
+public final class HotPaths {
+    // Moves of a full game that ends in a draw, so every check runs to the end
+    private static final int[] DRAW_GAME = {1, 2, 3, 5, 4, 6, 8, 7, 9};
+    private static final char[] DRAW_SYMBOLS = {'X', 'O', 'X', 'O', 'X', 'O', 'X', 'O', 'X'};
+
+    private HotPaths() {
+    }
+
+    // Returns the named operation, set up for size queued players where that applies.
+    public static LongSupplier operation(String name, int size) {
+        Map<String, LongSupplier> operations = new LinkedHashMap<>();
+        if (name.startsWith("board.")) {
+            addBoardOperations(operations);
+        } else if (name.startsWith("encode.")) {
+            addEncodingOperations(operations);
+        } else if (name.startsWith("parse.")) {
+            addParsingOperations(operations);
+        } else if (name.startsWith("queue.")) {
+            addQueueOperations(operations, size);
+        } else if (name.startsWith("rating.")) {
+            addRatingOperations(operations, size);
+        }
+        LongSupplier operation = operations.get(name);
+        if (operation == null) {
+            throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+        return operation;
+    }
+
+    private static void addBoardOperations(Map<String, LongSupplier> operations) {
+        Board board = new Board();
+        operations.put("board.playDrawGame", () -> {
+            board.clear();
+            long result = 0;
+            for (int i = 0; i < DRAW_GAME.length; i++) {
+                board.makeMove(DRAW_GAME[i], DRAW_SYMBOLS[i]);
+                result += board.checkWinAt(DRAW_GAME[i], DRAW_SYMBOLS[i]) ? 1 : 0;
+                result += board.isFull() ? 1 : 0;
+            }
+            return result;
+        });
+
+        Board full = new Board();
+        for (int i = 0; i < DRAW_GAME.length; i++) {
+            full.makeMove(DRAW_GAME[i], DRAW_SYMBOLS[i]);
+        }
+        operations.put("board.checkWin", () -> (full.checkWin('X') ? 1 : 0) + (full.checkWin('O') ? 2 : 0));
+        operations.put("board.isFull", () -> full.isFull() ? 1 : 0);
+
+        char[] legacyGrid = full.toString().toCharArray();
+        operations.put("board.checkWin.legacy", () -> (legacyCheckWin(legacyGrid, 'X') ? 1 : 0)
+                + (legacyCheckWin(legacyGrid, 'O') ? 2 : 0));
+
+        // A full 15x15 Gomoku board without five in a row: the per-move check only walks the
+        // lines through the last square, the full scan is the baseline it replaces
+        Board gomoku = new Board(new BoardSize(15, 15, 5));
+        for (int row = 0; row < 15; row++) {
+            for (int col = 0; col < 15; col++) {
+                gomoku.makeMove(row * 15 + col + 1, ((col / 2 + row) & 1) == 0 ? 'X' : 'O');
+            }
+        }
+        int center = 7 * 15 + 7 + 1;
+        char centerSymbol = gomoku.getSymbolAt(center);
+        operations.put("board.checkWinAt.15x15x5", () -> gomoku.checkWinAt(center, centerSymbol) ? 1 : 0);
+        operations.put("board.checkWin.15x15x5", () -> (gomoku.checkWin('X') ? 1 : 0) + (gomoku.checkWin('O') ? 2 : 0));
+    }
+
+    // The board message GameSession.updateClients sends, as text and as a binary frame.
+    private static void addEncodingOperations(Map<String, LongSupplier> operations) {
+        Board board = new Board();
+        board.makeMove(1, 'X');
+        board.makeMove(5, 'O');
+        board.makeMove(9, 'X');
+        operations.put("encode.textBoard", () -> TextProtocol.formatBoard(board).length());
+        operations.put("encode.textBoard.legacy", () -> legacyFormatBoard(board).length());
+        operations.put("encode.binaryBoard", () -> BinaryProtocol.encodeBoard(board, BinaryProtocol.FLAG_YOUR_TURN).length);
+
+        CountingConnection connection = new CountingConnection();
+        operations.put("encode.binaryMove", () -> {
+            BinaryProtocol.INSTANCE.sendMove(connection, board, 9, 'X', true);
+            return connection.bytes;
+        });
+    }
+
+    private static void addParsingOperations(Map<String, LongSupplier> operations) {
+        Board board = new Board();
+        board.makeMove(1, 'X');
+        board.makeMove(5, 'O');
+        board.makeMove(9, 'X');
+        String message = TextProtocol.formatBoard(board) + " 1";
+        operations.put("parse.textBoard", () -> Client.parseBoardMessage(message).length());
+
+        byte[] frame = BinaryProtocol.encodeBoard(board, BinaryProtocol.FLAG_YOUR_TURN);
+        char[] cells = new char[9];
+        int[] offset = new int[1];
+        operations.put("parse.binaryBoard", () -> {
+            try {
+                offset[0] = 0;
+                BinaryProtocol.readVarint(frame, offset); // length
+                offset[0] += 2; // type, flags
+                BinaryProtocol.readVarint(frame, offset); // width
+                BinaryProtocol.readVarint(frame, offset); // height
+                int packedStart = offset[0];
+                for (int i = 0; i < 9; i++) {
+                    int cell = (frame[packedStart + (i >> 2)] >> ((i & 3) * 2)) & 0x3;
+                    cells[i] = cell == BinaryProtocol.CELL_X ? 'X' : cell == BinaryProtocol.CELL_O ? 'O' : ' ';
+                }
+                return cells[4];
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void addQueueOperations(Map<String, LongSupplier> operations, int size) {
+        PlayerHandler[] players = newPlayers(size + 2);
+
+        MatchQueue queue = new MatchQueue();
+        for (int i = 0; i < size; i++) {
+            queue.offer(players[i]);
+        }
+        int[] next = {size};
+        // A matchmaking round trip: pair two players, requeue the winner at the front and the loser at the back
+        operations.put("queue.pairAndRequeue", () -> {
+            PlayerHandler first = queue.poll();
+            PlayerHandler second = queue.poll();
+            queue.offerFirst(first);
+            queue.offer(second);
+            return queue.size();
+        });
+        operations.put("queue.positionOf", () -> queue.positionOf(players[(next[0]++ * 31) % size]));
+
+        LinkedBlockingQueue<PlayerHandler> legacy = new LinkedBlockingQueue<>();
+        for (int i = 0; i < size; i++) {
+            legacy.offer(players[i]);
+        }
+        operations.put("queue.pairAndRequeue.legacy", () -> {
+            PlayerHandler first = legacy.poll();
+            PlayerHandler second = legacy.poll();
+            // Winner to the front, as GameSession.handleWin used to do it
+            synchronized (legacy) {
+                List<PlayerHandler> tempQueue = new ArrayList<>(legacy);
+                tempQueue.add(0, first);
+                legacy.clear();
+                legacy.addAll(tempQueue);
+            }
+            legacy.offer(second);
+            return legacy.size();
+        });
+    }
+
+    private static void addRatingOperations(Map<String, LongSupplier> operations, int size) {
+        PlayerHandler[] players = newPlayers(size);
+        RatingIndex index = new RatingIndex(25);
+        Random random = new Random(42);
+        for (PlayerHandler player : players) {
+            player.setRating(Rating.INITIAL + (int) (random.nextGaussian() * 300), 0);
+            index.add(player);
+        }
+        int[] next = {0};
+        // A newcomer looking for an opponent within the default window
+        operations.put("rating.nearest", () -> {
+            PlayerHandler player = players[(next[0]++ * 31) % size];
+            PlayerHandler opponent = index.nearest(player.getRating(), 100, player);
+            return opponent != null ? opponent.getRating() : 0;
+        });
+        // A match made and both players requeued after their game
+        operations.put("rating.matchAndRequeue", () -> {
+            PlayerHandler player = players[(next[0]++ * 31) % size];
+            PlayerHandler opponent = index.nearest(player.getRating(), 1000, player);
+            index.remove(player);
+            index.remove(opponent);
+            index.add(player);
+            index.add(opponent);
+            return index.size();
+        });
+
+        // A crowded bucket whose first-added players are out of reach: size players at 1624
+        // queued before one at 1600, all a few buckets above a 1500 looking within 100 points.
+        // Only the 1600 will do, so the search has to look past arrival order within the bucket
+        PlayerHandler[] crowd = newPlayers(size + 2);
+        RatingIndex crowded = new RatingIndex(25);
+        for (int i = 0; i < size; i++) {
+            crowd[i].setRating(1624, 0);
+            crowded.add(crowd[i]);
+        }
+        PlayerHandler reachable = crowd[size];
+        reachable.setRating(1600, 0);
+        crowded.add(reachable);
+        PlayerHandler searching = crowd[size + 1];
+        searching.setRating(1500, 0);
+        if (crowded.nearest(1500, 100, searching) != reachable) {
+            throw new IllegalStateException("nearest(1500, 100) missed the player rated 1600");
+        }
+        operations.put("rating.nearest.crowded", () -> {
+            PlayerHandler opponent = crowded.nearest(searching.getRating(), 100, searching);
+            return opponent != null ? opponent.getRating() : 0;
+        });
+
+        // A linear scan of the queue for the nearest rating, the straightforward alternative
+        MatchQueue queue = new MatchQueue();
+        for (PlayerHandler player : players) {
+            queue.offer(player);
+        }
+        operations.put("rating.nearest.scan", () -> {
+            PlayerHandler player = players[(next[0]++ * 31) % size];
+            PlayerHandler best = null;
+            int bestGap = 101;
+            for (PlayerHandler candidate : queue.snapshot()) {
+                int gap = Math.abs(candidate.getRating() - player.getRating());
+                if (candidate != player && gap < bestGap) {
+                    best = candidate;
+                    bestGap = gap;
+                }
+            }
+            return best != null ? best.getRating() : 0;
+        });
+    }
+
+    private static PlayerHandler[] newPlayers(int count) {
+        PlayerHandler[] players = new PlayerHandler[count];
+        for (int i = 0; i < count; i++) {
+            players[i] = new PlayerHandler(new CountingConnection(), TextProtocol.INSTANCE);
+        }
+        return players;
+    }
+
+    // The win check as it was before Board used bitmasks.
+    private static boolean legacyCheckWin(char[] grid, char symbol) {
+        int[][] winPatterns = {
+            {0, 1, 2}, {3, 4, 5}, {6, 7, 8},
+            {0, 3, 6}, {1, 4, 7}, {2, 5, 8},
+            {0, 4, 8}, {2, 4, 6}
+        };
+        for (int[] pattern : winPatterns) {
+            if (grid[pattern[0]] == symbol && grid[pattern[1]] == symbol && grid[pattern[2]] == symbol) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The board message as GameSession.updateClients used to build it.
+    private static String legacyFormatBoard(Board board) {
+        StringBuilder state = new StringBuilder();
+        char[] boardArray = board.toString().toCharArray();
+        for (int i = 0; i < 9; i++) {
+            state.append("square ").append(i + 1).append(": ").append(boardArray[i]).append(" ");
+        }
+        return state.toString().trim();
+    }
+
+    // Connection that discards output and only counts bytes.
+    private static final class CountingConnection implements PlayerConnection {
+        long bytes;
+
+        @Override
+        public String readLine() {
+            return null;
+        }
+
+        @Override
+        public void writeLine(String line) {
+            bytes += line.length() + 1;
+        }
+
+        @Override
+        public void write(byte[] data) {
+            bytes += data.length;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Board moves, the per-move win check and the full win scan it replaced.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    private LongSupplier playDrawGame;
+    private LongSupplier checkWin;
+    private LongSupplier checkWinLegacy;
+    private LongSupplier isFull;
+    private LongSupplier checkWinAtGomoku;
+    private LongSupplier checkWinGomoku;
+
+    @Setup
+    public void setUp() {
+        playDrawGame = HotPath.load("board.playDrawGame");
+        checkWin = HotPath.load("board.checkWin");
+        checkWinLegacy = HotPath.load("board.checkWin.legacy");
+        isFull = HotPath.load("board.isFull");
+        checkWinAtGomoku = HotPath.load("board.checkWinAt.15x15x5");
+        checkWinGomoku = HotPath.load("board.checkWin.15x15x5");
+    }
+
+    // A whole drawn game: nine moves, each followed by a win check and a full-board check
+    @Benchmark
+    public long playDrawGame() {
+        return playDrawGame.getAsLong();
+    }
+
+    @Benchmark
+    public long checkWin() {
+        return checkWin.getAsLong();
+    }
+
+    @Benchmark
+    public long checkWinLegacy() {
+        return checkWinLegacy.getAsLong();
+    }
+
+    @Benchmark
+    public long isFull() {
+        return isFull.getAsLong();
+    }
+
+    @Benchmark
+    public long checkWinAtGomoku() {
+        return checkWinAtGomoku.getAsLong();
+    }
+
+    @Benchmark
+    public long checkWinGomoku() {
+        return checkWinGomoku.getAsLong();
+    }
+}
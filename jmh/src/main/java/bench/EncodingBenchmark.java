@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The board update GameSession.updateClients sends: the text board string (and the string
+// building it replaced), the binary board frame and a binary move delta.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    private LongSupplier textBoard;
+    private LongSupplier textBoardLegacy;
+    private LongSupplier binaryBoard;
+    private LongSupplier binaryMove;
+
+    @Setup
+    public void setUp() {
+        textBoard = HotPath.load("encode.textBoard");
+        textBoardLegacy = HotPath.load("encode.textBoard.legacy");
+        binaryBoard = HotPath.load("encode.binaryBoard");
+        binaryMove = HotPath.load("encode.binaryMove");
+    }
+
+    @Benchmark
+    public long textBoard() {
+        return textBoard.getAsLong();
+    }
+
+    @Benchmark
+    public long textBoardLegacy() {
+        return textBoardLegacy.getAsLong();
+    }
+
+    @Benchmark
+    public long binaryBoard() {
+        return binaryBoard.getAsLong();
+    }
+
+    @Benchmark
+    public long binaryMove() {
+        return binaryMove.getAsLong();
+    }
+}
@@ -0,0 +1,27 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.LongSupplier;
+
+// Looks up an operation of the default-package HotPaths class, which this package cannot
+// refer to by name. Done once per trial, so the reflection is not measured.
+final class HotPath {
+    private HotPath() {
+    }
+
+    static LongSupplier load(String name) {
+        return load(name, 0);
+    }
+
+    // Returns the named operation, set up for size queued players where that applies.
+    static LongSupplier load(String name, int size) {
+        try {
+            return (LongSupplier) Class.forName("HotPaths").getMethod("operation", String.class, int.class)
+                    .invoke(null, name, size);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Cannot set up " + name, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("HotPaths is not on the class path", e);
+        }
+    }
+}
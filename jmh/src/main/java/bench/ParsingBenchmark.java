@@ -0,0 +1,42 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The client reading a board update: Client.parseBoardMessage for text, frame decoding for binary.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+    private LongSupplier textBoard;
+    private LongSupplier binaryBoard;
+
+    @Setup
+    public void setUp() {
+        textBoard = HotPath.load("parse.textBoard");
+        binaryBoard = HotPath.load("parse.binaryBoard");
+    }
+
+    @Benchmark
+    public long textBoard() {
+        return textBoard.getAsLong();
+    }
+
+    @Benchmark
+    public long binaryBoard() {
+        return binaryBoard.getAsLong();
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The waiting queue: a pairing round trip (two players out, winner back in front, loser at the
+// back), the same on the LinkedBlockingQueue it replaced, and queue position lookups.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+    @Param({"100", "10000"})
+    public int queued;
+
+    private LongSupplier pairAndRequeue;
+    private LongSupplier pairAndRequeueLegacy;
+    private LongSupplier positionOf;
+
+    @Setup
+    public void setUp() {
+        pairAndRequeue = HotPath.load("queue.pairAndRequeue", queued);
+        pairAndRequeueLegacy = HotPath.load("queue.pairAndRequeue.legacy", queued);
+        positionOf = HotPath.load("queue.positionOf", queued);
+    }
+
+    @Benchmark
+    public long pairAndRequeue() {
+        return pairAndRequeue.getAsLong();
+    }
+
+    @Benchmark
+    public long pairAndRequeueLegacy() {
+        return pairAndRequeueLegacy.getAsLong();
+    }
+
+    @Benchmark
+    public long positionOf() {
+        return positionOf.getAsLong();
+    }
+}
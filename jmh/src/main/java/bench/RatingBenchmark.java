@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Rating matchmaking: finding the nearest-rated opponent in the RatingIndex, also behind a
+// crowded bucket of players out of reach, a match with both players requeued, and the linear
+// queue scan the index avoids.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RatingBenchmark {
+    @Param({"100", "10000"})
+    public int queued;
+
+    private LongSupplier nearest;
+    private LongSupplier nearestCrowded;
+    private LongSupplier matchAndRequeue;
+    private LongSupplier nearestScan;
+
+    @Setup
+    public void setUp() {
+        nearest = HotPath.load("rating.nearest", queued);
+        nearestCrowded = HotPath.load("rating.nearest.crowded", queued);
+        matchAndRequeue = HotPath.load("rating.matchAndRequeue", queued);
+        nearestScan = HotPath.load("rating.nearest.scan", queued);
+    }
+
+    @Benchmark
+    public long nearest() {
+        return nearest.getAsLong();
+    }
+
+    @Benchmark
+    public long nearestCrowded() {
+        return nearestCrowded.getAsLong();
+    }
+
+    @Benchmark
+    public long matchAndRequeue() {
+        return matchAndRequeue.getAsLong();
+    }
+
+    @Benchmark
+    public long nearestScan() {
+        return nearestScan.getAsLong();
+    }
+}
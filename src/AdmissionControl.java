@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Decides on the accept thread whether the server takes on a new connection, so that a flood
+// of connections is shed before it costs a handshake, a player or a place in the queue.
+//
+// Connections are admitted at a sustained rate with bursts of up to burst connections (a token
+// bucket), and each address may hold at most maxPerAddress open connections at once; loopback
+// addresses are exempt from that cap, as local load tests open thousands. Once the queue is
+// maxQueueDepth deep, new players are turned away after their handshake instead.
+//
+// A connection turned away gets a single "busy <milliseconds>" line telling it when to try
+// again; clients add jitter to that so they do not all come back at once. Every limit is off
+// when set to 0.
+public class AdmissionControl {
+    // How long a rejected socket stays half open so the client can read its busy line; closing
+    // it with the client's hello still unread would reset the connection and lose the line
+    private static final long REJECT_LINGER_MS = 1000;
+
+    private final double ratePerMs;
+    private final double burst;
+    private final int maxPerAddress;
+    private final int maxQueueDepth;
+    private final long retryAfterMs;
+    private final TimingWheel timers;
+
+    private final ReentrantLock lock = new ReentrantLock(); // Guards the bucket
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    // Open connections per address; counts change only inside compute calls, which lock the entry,
+    // so an address's entry is dropped exactly when its last connection is released
+    private final ConcurrentHashMap<InetAddress, Integer> openByAddress = new ConcurrentHashMap<>();
+
+    // Creates the limits: connectRate connections a second with bursts of burst, maxPerAddress
+    // connections per address and maxQueueDepth waiting players. Rejected sockets are closed on timers.
+    public AdmissionControl(int connectRate, int burst, int maxPerAddress, int maxQueueDepth, long retryAfterMs,
+                            TimingWheel timers) {
+        this.ratePerMs = connectRate / 1000.0;
+        this.burst = Math.max(1, burst);
+        this.maxPerAddress = maxPerAddress;
+        this.maxQueueDepth = maxQueueDepth;
+        this.retryAfterMs = retryAfterMs;
+        this.timers = timers;
+        this.tokens = this.burst;
+    }
+
+    // Admits a connection from the given address, or returns why it is turned away. An admitted
+    // connection counts against its address until release is called for it.
+    public ServerMetrics.RejectCause admit(InetAddress address) {
+        if (maxPerAddress > 0 && !address.isLoopbackAddress()) {
+            int open = openByAddress.compute(address, (a, count) -> count == null ? 1 : count + 1);
+            if (open > maxPerAddress) {
+                release(address);
+                return ServerMetrics.RejectCause.PER_IP_LIMIT;
+            }
+        }
+        if (!takeToken()) {
+            release(address);
+            return ServerMetrics.RejectCause.CONNECT_RATE;
+        }
+        return null;
+    }
+
+    // Gives back the place an admitted connection held for its address once it has closed.
+    public void release(InetAddress address) {
+        if (maxPerAddress <= 0 || address.isLoopbackAddress()) {
+            return;
+        }
+        openByAddress.computeIfPresent(address, (a, count) -> count > 1 ? count - 1 : null);
+    }
+
+    // Checks if a queue of the given depth has room for no one else.
+    public boolean isQueueFull(int depth) {
+        return maxQueueDepth > 0 && depth >= maxQueueDepth;
+    }
+
+    // Returns how long a rejected client is told to wait before connecting again.
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    // Turns a connection away before its handshake: writes the busy line, ends the output and
+    // closes the socket a little later. The socket must still be in blocking mode.
+    public void reject(Socket socket, ServerMetrics.RejectCause cause) {
+        ServerMetrics.rejected(cause);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write((TextProtocol.busyLine(retryAfterMs) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return;
+        }
+        timers.schedule(() -> closeQuietly(socket), REJECT_LINGER_MS);
+    }
+
+    // Takes a token from the bucket after refilling it for the time since the last refill.
+    private boolean takeToken() {
+        if (ratePerMs <= 0) {
+            return true;
+        }
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + ratePerMs * (now - refilledAt) / TimeUnit.MILLISECONDS.toNanos(1));
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Versioned, length-prefixed binary protocol for server-to-client messages.
+//
+// A client asks for it by sending the hello line "BINARY <version>" as soon as it connects.
+// If the server supports that version it answers with the same line and then switches to
+// binary frames; otherwise it keeps talking text and the client falls back as well.
+// Client-to-server messages stay newline-terminated text: moves are already one or two bytes.
+//
+// Frame:    varint length | type byte | payload (length counts the type byte and payload)
+// Integers: unsigned LEB128 varints, so streaks and queue positions are not capped.
+// Board:    a full snapshot (width, height, two bits per cell) is sent when the game starts;
+//           after that every move is a small delta (cell index, flags) instead of the whole board.
+public class BinaryProtocol implements Protocol {
+    public static final int VERSION = 1;
+    public static final String HELLO = Hello.format(Hello.BINARY, VERSION, null);
+
+    // Message types
+    public static final byte SYMBOL = 0x01;          // payload: symbol byte ('X' or 'O')
+    public static final byte WAITING = 0x02;         // no payload
+    public static final byte BOARD = 0x03;           // payload: flags, varint width, varint height, packed cells
+    public static final byte MOVE = 0x04;            // payload: varint cell index, flags
+    public static final byte WIN = 0x05;             // payload: varint win streak
+    public static final byte LOSS = 0x06;            // no payload
+    public static final byte TIE = 0x07;             // no payload
+    public static final byte INVALID_MOVE = 0x08;    // no payload
+    public static final byte QUEUE_POSITION = 0x09;  // payload: varint position
+    public static final byte OPPONENT_LEFT = 0x0A;   // no payload
+    public static final byte REPLAY_PROMPT = 0x0B;   // no payload
+    public static final byte SESSION_TOKEN = 0x0C;   // payload: UTF-8 token to send as "token=" in a later hello
+    public static final byte SPECTATE = 0x0D;        // payload: status, varint width, varint height, packed cells
+    public static final byte REDIRECT = 0x0E;        // payload: varint port, varint host length, host, ticket (UTF-8)
+    public static final byte BUSY = 0x0F;            // payload: varint milliseconds to wait before connecting again
+
+    // Flag bits used by BOARD and MOVE
+    public static final int FLAG_YOUR_TURN = 0x01;
+    public static final int FLAG_SYMBOL_O = 0x02;    // MOVE only: the move was made by O
+
+    // Cell codes in a packed board, two bits per cell
+    public static final int CELL_EMPTY = 0;
+    public static final int CELL_X = 1;
+    public static final int CELL_O = 2;
+
+    public static final BinaryProtocol INSTANCE = new BinaryProtocol();
+
+    private BinaryProtocol() {
+    }
+
+    // Checks if a client hello asks for a version this server speaks.
+    public static boolean isSupportedHello(Hello hello) {
+        return hello.getProtocol().equals(Hello.BINARY) && hello.getVersion() == VERSION;
+    }
+
+    @Override
+    public void start(PlayerConnection out) {
+        out.writeLine(HELLO); // Last text line; everything after it is binary
+    }
+
+    @Override
+    public void sendSymbol(PlayerConnection out, char symbol) {
+        out.write(new byte[] {2, SYMBOL, (byte) symbol});
+    }
+
+    @Override
+    public void sendWaiting(PlayerConnection out) {
+        out.write(empty(WAITING));
+    }
+
+    @Override
+    public void sendBoard(PlayerConnection out, Board board, boolean yourTurn) {
+        out.write(encodeBoard(board, yourTurn ? FLAG_YOUR_TURN : 0));
+    }
+
+    @Override
+    public void sendMove(PlayerConnection out, Board board, int position, char symbol, boolean yourTurn) {
+        int flags = (yourTurn ? FLAG_YOUR_TURN : 0) | (symbol == 'O' ? FLAG_SYMBOL_O : 0);
+        int index = position - 1;
+        if (index < 0x80) {
+            out.write(new byte[] {3, MOVE, (byte) index, (byte) flags}); // One-byte varint
+            return;
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(4);
+        writeVarint(payload, index);
+        payload.write(flags);
+        out.write(frame(MOVE, payload.toByteArray()));
+    }
+
+    @Override
+    public void sendWin(PlayerConnection out, int winStreak) {
+        out.write(withVarint(WIN, winStreak));
+    }
+
+    @Override
+    public void sendLoss(PlayerConnection out) {
+        out.write(empty(LOSS));
+    }
+
+    @Override
+    public void sendTie(PlayerConnection out) {
+        out.write(empty(TIE));
+    }
+
+    @Override
+    public void sendInvalidMove(PlayerConnection out) {
+        out.write(empty(INVALID_MOVE));
+    }
+
+    @Override
+    public void sendQueuePosition(PlayerConnection out, int position) {
+        out.write(withVarint(QUEUE_POSITION, position));
+    }
+
+    @Override
+    public void sendOpponentLeft(PlayerConnection out) {
+        out.write(empty(OPPONENT_LEFT));
+    }
+
+    @Override
+    public void sendReplayPrompt(PlayerConnection out) {
+        out.write(empty(REPLAY_PROMPT));
+    }
+
+    @Override
+    public void sendSessionToken(PlayerConnection out, String token) {
+        out.write(frame(SESSION_TOKEN, token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void sendRedirect(PlayerConnection out, String host, int port, String ticket) {
+        byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+        byte[] ticketBytes = ticket.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(hostBytes.length + ticketBytes.length + 6);
+        writeVarint(payload, port);
+        writeVarint(payload, hostBytes.length);
+        payload.write(hostBytes, 0, hostBytes.length);
+        payload.write(ticketBytes, 0, ticketBytes.length);
+        out.write(frame(REDIRECT, payload.toByteArray()));
+    }
+
+    @Override
+    public void sendBusy(PlayerConnection out, long retryAfterMs) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(5);
+        writeVarint(payload, (int) Math.min(retryAfterMs, Integer.MAX_VALUE));
+        out.write(frame(BUSY, payload.toByteArray()));
+    }
+
+    // A SYMBOL frame followed by a BOARD frame, sent in a single write.
+    @Override
+    public void sendResync(PlayerConnection out, Board board, char symbol, boolean yourTurn) {
+        byte[] boardFrame = encodeBoard(board, yourTurn ? FLAG_YOUR_TURN : 0);
+        byte[] resync = new byte[3 + boardFrame.length];
+        resync[0] = 2;
+        resync[1] = SYMBOL;
+        resync[2] = (byte) symbol;
+        System.arraycopy(boardFrame, 0, resync, 3, boardFrame.length);
+        out.write(resync);
+    }
+
+    @Override
+    public byte[] encodeSpectate(Board board, int status) {
+        return encodeBoard(SPECTATE, board, status);
+    }
+
+    // Encodes a full board snapshot frame.
+    public static byte[] encodeBoard(Board board, int flags) {
+        return encodeBoard(BOARD, board, flags);
+    }
+
+    // Encodes a frame of the given type holding a leading byte and a packed board.
+    private static byte[] encodeBoard(byte type, Board board, int leadingByte) {
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int cells = board.getCellCount();
+        byte[] packed = new byte[(cells + 3) / 4];
+        for (int i = 0; i < cells; i++) {
+            char symbol = board.getSymbolAt(i + 1);
+            int code = symbol == 'X' ? CELL_X : symbol == 'O' ? CELL_O : CELL_EMPTY;
+            packed[i >> 2] |= code << ((i & 3) * 2);
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(packed.length + 4);
+        payload.write(leadingByte);
+        writeVarint(payload, width);
+        writeVarint(payload, height);
+        payload.write(packed, 0, packed.length);
+        return frame(type, payload.toByteArray());
+    }
+
+    // Reads the cell code at an index from a packed board.
+    public static int cellAt(byte[] packed, int index) {
+        return (packed[index >> 2] >> ((index & 3) * 2)) & 0x3;
+    }
+
+    // Wraps a payload into a frame with its length prefix.
+    public static byte[] frame(byte type, byte[] payload) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 6);
+        writeVarint(frame, payload.length + 1);
+        frame.write(type);
+        frame.write(payload, 0, payload.length);
+        return frame.toByteArray();
+    }
+
+    // Writes an unsigned LEB128 varint.
+    public static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Reads an unsigned LEB128 varint from a stream.
+    public static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // Reads an unsigned LEB128 varint from a byte array, starting at offset[0].
+    // Advances offset[0] past the varint.
+    public static int readVarint(byte[] data, int[] offset) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (offset[0] >= data.length) {
+                throw new IOException("Truncated varint");
+            }
+            int b = data[offset[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static byte[] empty(byte type) {
+        return new byte[] {1, type};
+    }
+
+    private static byte[] withVarint(byte type, int value) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(5);
+        writeVarint(payload, value);
+        return frame(type, payload.toByteArray());
+    }
+}
@@ -1,55 +1,258 @@
+import java.util.Arrays;
+
 // Represents the Tic-Tac-Toe game board.
 // Manages the board state, move validation, and win condition checks.
+// Boards are m x n grids won by k in a row (see BoardSize); squares are numbered 1 to
+// width * height, row by row. Each side is stored as a bitset packed into longs (bit i =
+// square i + 1), so the whole board takes two bits per cell and a move never allocates.
+//
+// A win can only be completed by the move just made, so checkWinAt walks the four lines
+// through that square and stops after k cells in each direction: O(k) per move on any size.
+// The classic 3x3 board keeps its precomputed line masks, which are faster still.
 public class Board {
-    private char[] grid = new char[9]; // 1D array representing a 3x3 Tic-Tac-Toe board
+    private static final int FULL_MASK = 0x1FF; // All nine squares of a classic board occupied
 
-    // Initializes an empty board with spaces.
-    public Board() {
+    // All possible winning combinations (rows, columns, diagonals) of the classic board as masks
+    private static final int[] WIN_LINES = {
+        0b000_000_111, 0b000_111_000, 0b111_000_000, // Rows
+        0b001_001_001, 0b010_010_010, 0b100_100_100, // Columns
+        0b100_010_001, 0b001_010_100                 // Diagonals
+    };
+
+    // WINNING[mask] is true if the mask contains at least one complete line
+    private static final boolean[] WINNING = new boolean[1 << 9];
+
+    // LINES_THROUGH[i] holds the winning lines that pass through square i
+    private static final int[][] LINES_THROUGH = new int[9][];
+
+    // Line directions as row and column steps: horizontal, vertical, diagonal, anti-diagonal
+    private static final int[] ROW_STEPS = {0, 1, 1, 1};
+    private static final int[] COL_STEPS = {1, 0, 1, -1};
+
+    static {
+        for (int mask = 0; mask <= FULL_MASK; mask++) {
+            for (int line : WIN_LINES) {
+                if ((mask & line) == line) {
+                    WINNING[mask] = true;
+                    break;
+                }
+            }
+        }
         for (int i = 0; i < 9; i++) {
-            grid[i] = ' ';
+            int count = 0;
+            for (int line : WIN_LINES) {
+                if ((line & (1 << i)) != 0) count++;
+            }
+            LINES_THROUGH[i] = new int[count];
+            count = 0;
+            for (int line : WIN_LINES) {
+                if ((line & (1 << i)) != 0) LINES_THROUGH[i][count++] = line;
+            }
         }
     }
 
+    private final BoardSize size;
+    private final int width;
+    private final int height;
+    private final int winLength;
+    private final int cellCount;
+    private final boolean classic;
+    private final long[] xBits;
+    private final long[] oBits;
+    private int moveCount = 0;
+    private String cachedString; // Rebuilt lazily after the board changes
+
+    // Initializes an empty classic 3x3 board.
+    public Board() {
+        this(BoardSize.CLASSIC);
+    }
+
+    // Initializes an empty board of the given size.
+    public Board(BoardSize size) {
+        this.size = size;
+        this.width = size.getWidth();
+        this.height = size.getHeight();
+        this.winLength = size.getWinLength();
+        this.cellCount = size.getCellCount();
+        this.classic = size.isClassic();
+        this.xBits = new long[(cellCount + 63) >>> 6];
+        this.oBits = new long[xBits.length];
+    }
+
+    // Creates a copy of another board, e.g. an immutable snapshot for spectators.
+    public Board(Board other) {
+        this.size = other.size;
+        this.width = other.width;
+        this.height = other.height;
+        this.winLength = other.winLength;
+        this.cellCount = other.cellCount;
+        this.classic = other.classic;
+        this.xBits = other.xBits.clone();
+        this.oBits = other.oBits.clone();
+        this.moveCount = other.moveCount;
+        this.cachedString = other.cachedString;
+    }
+
     // Places a move on the board if the position is valid and empty.
     public boolean makeMove(int position, char symbol) {
-        int index = position - 1; // Convert 1-based input to 0-based array index
-        if (index < 0 || index > 8 || grid[index] != ' ') {
-            return false; // Invalid move if out of range or position is already occupied
+        int index = position - 1; // Convert 1-based input to 0-based bit index
+        if (index < 0 || index >= cellCount) {
+            return false; // Invalid move if out of range
+        }
+        int word = index >>> 6;
+        long bit = 1L << index; // Shifts use the low six bits of index
+        if (((xBits[word] | oBits[word]) & bit) != 0) {
+            return false; // Position is already occupied
         }
-        grid[index] = symbol;
+        bitsOf(symbol)[word] |= bit;
+        moveCount++;
+        cachedString = null;
         return true;
     }
 
-    // Checks if the given player has won the game.
+    // Checks if the given player has won the game, scanning the whole board.
+    // During a game, checkWinAt on the last move is all that is needed.
     public boolean checkWin(char symbol) {
-        // All possible winning combinations (rows, columns, diagonals)
-        int[][] winPatterns = {
-            {0, 1, 2}, {3, 4, 5}, {6, 7, 8},  // Rows
-            {0, 3, 6}, {1, 4, 7}, {2, 5, 8},  // Columns
-            {0, 4, 8}, {2, 4, 6}              // Diagonals
-        };
-
-        // Check if any winning pattern is completed by the given symbol
-        for (int[] pattern : winPatterns) {
-            if (grid[pattern[0]] == symbol && grid[pattern[1]] == symbol && grid[pattern[2]] == symbol) {
-                return true; // Winning condition met
+        long[] bits = bitsOf(symbol);
+        if (classic) {
+            return WINNING[(int) bits[0]];
+        }
+        for (int index = 0; index < cellCount; index++) {
+            if (isSet(bits, index) && completesLine(bits, index)) {
+                return true;
             }
         }
         return false;
     }
 
+    // Checks if the move just made at the given position completed a line for the player.
+    // Only the lines through that square are examined.
+    public boolean checkWinAt(int position, char symbol) {
+        long[] bits = bitsOf(symbol);
+        if (classic) {
+            int mask = (int) bits[0];
+            for (int line : LINES_THROUGH[position - 1]) {
+                if ((mask & line) == line) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return completesLine(bits, position - 1);
+    }
+
     // Checks if the board is full, indicating a tie.
     public boolean isFull() {
-        for (char cell : grid) {
-            if (cell == ' ') {
-                return false; // Empty space found, board is not full
-            }
+        return moveCount == cellCount;
+    }
+
+    // Returns the number of occupied squares.
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    // Returns the symbol at a 1-based position, or a space if it is empty.
+    public char getSymbolAt(int position) {
+        int index = position - 1;
+        if (isSet(xBits, index)) return 'X';
+        if (isSet(oBits, index)) return 'O';
+        return ' ';
+    }
+
+    // Returns the mask of squares occupied by the given player (bit i = square i + 1).
+    // Only boards of up to 32 squares, such as the classic board, fit in a mask.
+    public int getMask(char symbol) {
+        if (cellCount > 32) {
+            throw new IllegalStateException("Board too large for a mask: " + size);
         }
-        return true; // No empty spaces, game is a tie
+        return (int) bitsOf(symbol)[0];
+    }
+
+    public BoardSize getSize() {
+        return size;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWinLength() {
+        return winLength;
+    }
+
+    // Returns the number of squares on the board.
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    // Empties the board so it can be reused for another game.
+    public void clear() {
+        Arrays.fill(xBits, 0);
+        Arrays.fill(oBits, 0);
+        moveCount = 0;
+        cachedString = null;
+    }
+
+    // Checks if a 9-bit mask contains a complete line of the classic board.
+    public static boolean isWinningMask(int mask) {
+        return WINNING[mask & FULL_MASK];
     }
 
-    // Returns a string representation of the board.
+    // Returns a string representation of the board, one character per square.
+    // The string is cached until the next move.
     public String toString() {
-        return new String(grid);
+        String result = cachedString;
+        if (result == null) {
+            char[] grid = new char[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                grid[i] = getSymbolAt(i + 1);
+            }
+            result = new String(grid);
+            cachedString = result;
+        }
+        return result;
+    }
+
+    // Checks if the player's square at index is part of winLength in a row. Each of the four
+    // directions is walked both ways from the square, at most winLength - 1 steps each.
+    private boolean completesLine(long[] bits, int index) {
+        int row = index / width;
+        int col = index % width;
+        for (int d = 0; d < 4; d++) {
+            int run = 1 + countRun(bits, row, col, ROW_STEPS[d], COL_STEPS[d])
+                    + countRun(bits, row, col, -ROW_STEPS[d], -COL_STEPS[d]);
+            if (run >= winLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Counts the player's consecutive squares next to (row, col) in one direction.
+    private int countRun(long[] bits, int row, int col, int rowStep, int colStep) {
+        int count = 0;
+        int r = row + rowStep;
+        int c = col + colStep;
+        while (count < winLength - 1 && r >= 0 && r < height && c >= 0 && c < width
+                && isSet(bits, r * width + c)) {
+            count++;
+            r += rowStep;
+            c += colStep;
+        }
+        return count;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private long[] bitsOf(char symbol) {
+        if (symbol == 'X') return xBits;
+        if (symbol == 'O') return oBits;
+        throw new IllegalArgumentException("Unknown symbol: " + symbol);
     }
-}    
\ No newline at end of file
+}
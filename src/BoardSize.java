@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// The shape of a game: a width x height grid won by winLength in a row (an m,n,k game).
+// Written as "<width>x<height>x<winLength>", e.g. "3x3x3" for classic Tic-Tac-Toe or
+// "15x15x5" for Gomoku. Clients ask for one with "board=" in their hello; the server
+// only pairs players who asked for the same size.
+public final class BoardSize {
+    public static final int MAX_SIDE = 64;
+    public static final BoardSize CLASSIC = new BoardSize(3, 3, 3);
+
+    private final int width;
+    private final int height;
+    private final int winLength;
+
+    public BoardSize(int width, int height, int winLength) {
+        if (width < 1 || height < 1 || width > MAX_SIDE || height > MAX_SIDE) {
+            throw new IllegalArgumentException("Board sides must be between 1 and " + MAX_SIDE);
+        }
+        if (winLength < 1 || winLength > Math.max(width, height)) {
+            throw new IllegalArgumentException("Win length must fit on the board: " + winLength);
+        }
+        this.width = width;
+        this.height = height;
+        this.winLength = winLength;
+    }
+
+    // Parses "<width>x<height>x<winLength>". Returns null if the text is not a valid size.
+    public static BoardSize parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] parts = text.trim().toLowerCase().split("x");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new BoardSize(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException e) {
+            return null; // Also covers NumberFormatException
+        }
+    }
+
+    // Parses a comma-separated list of sizes, skipping invalid entries.
+    public static List<BoardSize> parseList(String text) {
+        List<BoardSize> sizes = new ArrayList<>();
+        for (String part : text.split(",")) {
+            BoardSize size = parse(part);
+            if (size != null && !sizes.contains(size)) {
+                sizes.add(size);
+            }
+        }
+        return sizes;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWinLength() {
+        return winLength;
+    }
+
+    public int getCellCount() {
+        return width * height;
+    }
+
+    public boolean isClassic() {
+        return equals(CLASSIC);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof BoardSize)) {
+            return false;
+        }
+        BoardSize size = (BoardSize) other;
+        return width == size.width && height == size.height && winLength == size.winLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return (width * 31 + height) * 31 + winLength;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "x" + winLength;
+    }
+}
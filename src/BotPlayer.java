@@ -0,0 +1,237 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Built-in computer opponent that takes a player's seat in a GameSession.
+// It is both the connection and the protocol of its PlayerHandler: instead of encoding
+// messages it looks at the board it is sent and, when it is its turn, answers with a move
+// from the PerfectPlayTable, so a move is a table lookup rather than a search.
+// Difficulty is the chance of playing a random legal move instead of an optimal one.
+//
+// A bot plays a single game: it declines the replay prompt and closes itself once the game
+// is decided, so it is never requeued.
+public class BotPlayer implements PlayerConnection, Protocol {
+    // Chances of a random move per difficulty level
+    public enum Difficulty {
+        EASY(0.6), MEDIUM(0.25), HARD(0);
+
+        final double mistakeRate;
+
+        Difficulty(double mistakeRate) {
+            this.mistakeRate = mistakeRate;
+        }
+    }
+
+    // Delivers moves to event-driven sessions off the session's own call stack, so a bot's
+    // answer is handled after the message that prompted it has been sent to both players
+    private static final ExecutorService MOVE_DELIVERY = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "bot-moves");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PerfectPlayTable table;
+    private final Difficulty difficulty;
+    private final boolean eventDriven;
+    private final LinkedBlockingDeque<String> moves = new LinkedBlockingDeque<>();
+    private volatile Runnable inputListener;
+    private volatile boolean closed = false;
+
+    // Creates a bot that answers like a blocking client, or like an event-driven one
+    // to match the transport of the player it is paired with.
+    public BotPlayer(PerfectPlayTable table, Difficulty difficulty, boolean eventDriven) {
+        this.table = table;
+        this.difficulty = difficulty;
+        this.eventDriven = eventDriven;
+    }
+
+    // Creates a player seat driven by a new bot.
+    public static PlayerHandler newPlayer(PerfectPlayTable table, Difficulty difficulty, boolean eventDriven) {
+        BotPlayer bot = new BotPlayer(table, difficulty, eventDriven);
+        return new PlayerHandler(bot, bot);
+    }
+
+    // Picks a move for the side to move: a random optimal one, or with the difficulty's
+    // mistake rate a random legal one. Returns a 1-based square, or 0 if the board is full.
+    public int chooseMove(int xMask, int oMask) {
+        int free = ~(xMask | oMask) & 0x1FF;
+        int candidates = free;
+        if (ThreadLocalRandom.current().nextDouble() >= difficulty.mistakeRate) {
+            int best = table.bestMoves(xMask, oMask);
+            if (best != 0) {
+                candidates = best;
+            }
+        }
+        return candidates == 0 ? 0 : randomBit(candidates) + 1;
+    }
+
+    private static int randomBit(int mask) {
+        int pick = ThreadLocalRandom.current().nextInt(Integer.bitCount(mask));
+        for (int i = 0; ; i++) {
+            if ((mask & (1 << i)) != 0 && pick-- == 0) {
+                return i;
+            }
+        }
+    }
+
+    private void answer(String line) {
+        moves.offerLast(line);
+        if (eventDriven) {
+            MOVE_DELIVERY.execute(this::notifyInput);
+        }
+    }
+
+    private void playIfMyTurn(Board board, boolean yourTurn) {
+        if (yourTurn && !closed) {
+            int move = chooseMove(board.getMask('X'), board.getMask('O'));
+            if (move > 0) {
+                answer(Integer.toString(move));
+            }
+        }
+    }
+
+    private void notifyInput() {
+        Runnable listener = inputListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    // --- PlayerConnection: the bot's input is the moves it decided on; output is ignored ---
+
+    @Override
+    public String readLine() {
+        if (closed && moves.isEmpty()) {
+            return null;
+        }
+        try {
+            return moves.takeFirst();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public void writeLine(String line) {
+    }
+
+    @Override
+    public void write(byte[] data) {
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isEventDriven() {
+        return eventDriven;
+    }
+
+    @Override
+    public String pollLine() {
+        return moves.pollFirst();
+    }
+
+    @Override
+    public boolean isInputExhausted() {
+        return closed && moves.isEmpty();
+    }
+
+    @Override
+    public void setInputListener(Runnable listener) {
+        this.inputListener = listener;
+    }
+
+    // --- Protocol: react to the game instead of encoding it ---
+
+    @Override
+    public void start(PlayerConnection out) {
+    }
+
+    @Override
+    public void sendSymbol(PlayerConnection out, char symbol) {
+    }
+
+    @Override
+    public void sendWaiting(PlayerConnection out) {
+    }
+
+    @Override
+    public void sendBoard(PlayerConnection out, Board board, boolean yourTurn) {
+        playIfMyTurn(board, yourTurn);
+    }
+
+    @Override
+    public void sendMove(PlayerConnection out, Board board, int position, char symbol, boolean yourTurn) {
+        playIfMyTurn(board, yourTurn);
+    }
+
+    @Override
+    public void sendWin(PlayerConnection out, int winStreak) {
+        // Wait for the replay prompt, which the bot declines
+    }
+
+    @Override
+    public void sendLoss(PlayerConnection out) {
+        close();
+    }
+
+    @Override
+    public void sendTie(PlayerConnection out) {
+        close();
+    }
+
+    @Override
+    public void sendInvalidMove(PlayerConnection out) {
+        // Cannot happen with moves from the table; give up the game rather than loop
+        answer("Q");
+    }
+
+    @Override
+    public void sendQueuePosition(PlayerConnection out, int position) {
+    }
+
+    @Override
+    public void sendOpponentLeft(PlayerConnection out) {
+        close();
+    }
+
+    @Override
+    public void sendReplayPrompt(PlayerConnection out) {
+        answer("N");
+        close();
+    }
+
+    @Override
+    public void sendSessionToken(PlayerConnection out, String token) {
+    }
+
+    @Override
+    public void sendBusy(PlayerConnection out, long retryAfterMs) {
+        close();
+    }
+
+    @Override
+    public void sendRedirect(PlayerConnection out, String host, int port, String ticket) {
+        close(); // Bots only play in the process that created them
+    }
+
+    @Override
+    public void sendResync(PlayerConnection out, Board board, char symbol, boolean yourTurn) {
+        playIfMyTurn(board, yourTurn);
+    }
+
+    @Override
+    public byte[] encodeSpectate(Board board, int status) {
+        return new byte[0]; // Bots never watch games
+    }
+}
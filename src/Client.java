@@ -1,134 +1,662 @@
 import java.io.*;
 import java.net.*;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 // Client program for the Tic-Tac-Toe game.
 // Handles communication with the server, processes game messages, and manages user input.
+//
+// The client keeps a mirror of the game's Board: built from the server's full board at the start
+// of a game and kept current by applying each move. Moves to taken squares, or made out of turn,
+// are rejected locally instead of costing a round trip, and a sent move is shown right away.
+// The board is only redrawn when it shows something new. A move that does not fit the mirror
+// means the two have diverged; the client then asks the server for the full board again.
 public class Client {
     private static final String SERVER_ADDRESS = "localhost"; // Change if running on another machine
     private static final int SERVER_PORT = 9876;
-    private Socket socket;
+    // Set -Dttt.protocol=text to skip the binary hello and talk to the server in plain text
+    private static final boolean USE_BINARY = !"text".equals(System.getProperty("ttt.protocol"));
+    // Set -Dttt.name=<name> to have the server keep your stats and streak between connections
+    private static final String PLAYER_NAME = System.getProperty("ttt.name");
+    // Set -Dttt.watch=any (or a game id) to watch games instead of playing
+    private static final String WATCH = System.getProperty("ttt.watch");
+    // Set -Dttt.board=<width>x<height>x<k> (e.g. 15x15x5) to play on a bigger board, if the server offers it
+    private static final String BOARD_SIZE = System.getProperty("ttt.board");
+    // Set -Dttt.reconnectAttempts=<n> to change how often the client tries to get back into its game
+    private static final int RECONNECT_ATTEMPTS = Integer.getInteger("ttt.reconnectAttempts", 8);
+    private volatile String serverHost = SERVER_ADDRESS; // Changed by redirects between lobby and game nodes
+    private volatile int serverPort = SERVER_PORT;
+    private volatile String ticket; // Sent in the hello after a redirect
+    private volatile boolean redirected = false;
+    private volatile long retryAfterMs = 0; // Set when the server turned the client away as busy
+    private volatile Socket socket;
+    private InputStream rawInput;
     private BufferedReader input;
-    private PrintWriter output;
+    private volatile PrintWriter output; // Replaced when the client reconnects
     private Scanner scanner;
     private char playerSymbol;
     private boolean waitingForReplay = false;
+    private int boardWidth = 3; // Size of the current game's board
+    private int boardHeight = 3;
+    // The mirror and the turn state are shared by the listener and the input thread
+    private final ReentrantLock mirrorLock = new ReentrantLock();
+    private Board mirror;          // The game's board as the server last confirmed it; null outside a game
+    private boolean myTurn = false;
+    private int pendingMove = 0;   // Square sent to the server and not yet confirmed, 0 if none
+    private boolean resyncPending = false; // Asked the server for the full board after the mirror diverged
+    private String name;
+    private volatile String sessionToken; // Lets the client resume its game after a dropped connection
+    private volatile boolean quitting = false;
 
     // Initializes the client, connects to the server, and starts listening for messages.
     public Client() {
+        scanner = new Scanner(System.in);
+        if (PLAYER_NAME != null && !Hello.isValidName(PLAYER_NAME)) {
+            System.out.println("Ignoring invalid name; use up to 32 letters, digits, '_', '-' or '.'.");
+        }
+        name = Hello.isValidName(PLAYER_NAME) ? PLAYER_NAME : null;
         try {
-            socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-            input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            output = new PrintWriter(socket.getOutputStream(), true);
-            scanner = new Scanner(System.in);
-
-            // Start listening to the server in a separate thread
-            new Thread(this::listenToServer).start();
-
-            // Handle user input
-            handleUserInput();
+            connect();
         } catch (IOException e) {
             System.out.println("Unable to connect to server.");
+            return;
         }
+
+        // Start listening to the server in a separate thread
+        new Thread(this::listenToServer).start();
+
+        // Handle user input
+        handleUserInput();
     }
 
-    // Listens for messages from the server and processes them.
+    // Opens a connection and sends the hello, with the session token when reconnecting and the
+    // ticket after a redirect. Asks for the binary protocol; the server answers with its own
+    // hello if it agrees. Text clients only need a hello to announce a name, a token or a ticket.
+    private void connect() throws IOException {
+        Socket newSocket = new Socket(serverHost, serverPort);
+        rawInput = new BufferedInputStream(newSocket.getInputStream());
+        PrintWriter newOutput = new PrintWriter(newSocket.getOutputStream(), true);
+        String token = sessionToken;
+        if (USE_BINARY) {
+            newOutput.println(withOptions(Hello.format(Hello.BINARY, BinaryProtocol.VERSION, name, token)));
+        } else if (name != null || token != null || ticket != null || WATCH != null || BOARD_SIZE != null) {
+            newOutput.println(withOptions(Hello.format(Hello.TEXT, 1, name, token)));
+        }
+        socket = newSocket;
+        output = newOutput;
+        ticket = null;
+    }
+
+    private String withOptions(String hello) {
+        String line = Hello.withParam(Hello.withParam(hello, "watch", WATCH), "board", BOARD_SIZE);
+        return Hello.withParam(line, "ticket", ticket);
+    }
+
+    // Listens for messages from the server, reconnecting into the game if the connection drops
+    // and following redirects between the lobby and the game nodes.
     private void listenToServer() {
-        try {
-            while (true) {
-                String message = input.readLine();
-                if (message == null) {
-                    System.out.println("Server closed connection.");
-                    break;
+        while (true) {
+            try {
+                readServerMessages();
+            } catch (IOException e) {
+                if (!redirected && retryAfterMs == 0) {
+                    System.out.println("Connection closed unexpectedly.");
                 }
-    
-                processMessage(message); // Let processMessage handle everything
             }
+            if (quitting) {
+                return;
+            }
+            if (retryAfterMs > 0) {
+                long wait = retryAfterMs;
+                retryAfterMs = 0;
+                if (retryWhenNotBusy(wait)) {
+                    continue;
+                }
+                return;
+            }
+            if (redirected) {
+                redirected = false;
+                if (followRedirect()) {
+                    continue;
+                }
+                return;
+            }
+            if (sessionToken == null || !reconnect()) {
+                return;
+            }
+        }
+    }
+
+    // Connects to the server a redirect named, right away and then with the usual backoff.
+    private boolean followRedirect() {
+        try {
+            connect();
+            return true;
         } catch (IOException e) {
-            System.out.println("Connection closed unexpectedly.");
+            return reconnect();
         }
     }
-    
 
-    // Processes messages received from the server.
-    private void processMessage(String message) {
-        if (message == null || message.isEmpty()) {
+    // Connects again once the wait a busy server asked for is over. The random jitter on top
+    // keeps the clients it turned away at the same time from all coming back at once.
+    private boolean retryWhenNotBusy(long wait) {
+        long delay = wait + ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+        System.out.println("Server is busy; trying again in " + (delay + 999) / 1000 + " seconds...");
+        try {
+            Thread.sleep(delay);
+            connect();
+            return true;
+        } catch (IOException e) {
+            return reconnect();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Remembers where the server sent the client; it closes the connection next.
+    // A token from the old server means nothing to the new one, which issues its own.
+    private void handleRedirect(String host, int port, String newTicket) {
+        serverHost = host;
+        serverPort = port;
+        ticket = newTicket;
+        sessionToken = null;
+        redirected = true;
+    }
+
+    // Tries to get back into the game, backing off between attempts. The random jitter keeps
+    // clients that all lost their connection at once from reconnecting in lockstep.
+    private boolean reconnect() {
+        long delay = 250;
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !quitting; attempt++) {
+            try {
+                Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay));
+                System.out.println("Reconnecting (attempt " + attempt + " of " + RECONNECT_ATTEMPTS + ")...");
+                connect();
+                return true;
+            } catch (IOException e) {
+                delay = Math.min(delay * 2, 4000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        System.out.println("Could not reconnect to the server.");
+        return false;
+    }
+
+    // Processes messages until the server closes the connection.
+    // The first line tells whether the server switched to the binary protocol.
+    private void readServerMessages() throws IOException {
+        String firstLine = readRawLine();
+        if (firstLine == null) {
+            reportClosed();
             return;
         }
-    
-        // Handle board updates
-        if (message.startsWith("square 1")) {  
-            String[] parts = message.split("square [1-9]: "); 
-            if (parts.length < 10) { 
-                System.out.println("ERROR: Malformed board message received. Data: " + message);
-                return;
+        if (firstLine.equals(BinaryProtocol.HELLO)) {
+            listenToServerBinary(new DataInputStream(rawInput));
+            return;
+        }
+
+        input = new BufferedReader(new InputStreamReader(rawInput));
+        processMessage(firstLine);
+        while (true) {
+            String message = input.readLine();
+            if (message == null) {
+                reportClosed();
+                break;
             }
-    
-            StringBuilder boardState = new StringBuilder();
-            for (int i = 1; i <= 8; i++) {  
-                String squareData = parts[i].trim();
-                boardState.append(squareData.isEmpty() ? " " : squareData.charAt(0));
+
+            processMessage(message); // Let processMessage handle everything
+        }
+    }
+
+    // Reads one newline-terminated line from the raw stream without buffering past it.
+    private String readRawLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = rawInput.read()) != '\n') {
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toString();
             }
-    
-            String lastPart = parts[9].trim();
-            if (lastPart.length() < 1) {  
-                System.out.println("ERROR: Missing turn indicator. Data: " + message);
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString();
+    }
+
+    // Reads binary protocol frames until the server closes the connection.
+    private void listenToServerBinary(DataInputStream in) throws IOException {
+        while (true) {
+            int length;
+            try {
+                length = BinaryProtocol.readVarint(in);
+            } catch (EOFException e) {
+                reportClosed();
                 return;
             }
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            processFrame(frame);
+        }
+    }
+
+    // Processes a binary frame (type byte followed by its payload).
+    private void processFrame(byte[] frame) throws IOException {
+        if (frame.length == 0) {
+            return;
+        }
+        int[] offset = {1};
+        switch (frame[0]) {
+            case BinaryProtocol.SYMBOL:
+                handleSymbol((char) frame[1]);
+                break;
+            case BinaryProtocol.WAITING:
+                handleWaiting();
+                break;
+            case BinaryProtocol.BOARD: {
+                int flags = frame[offset[0]++];
+                int width = BinaryProtocol.readVarint(frame, offset);
+                int height = BinaryProtocol.readVarint(frame, offset);
+                setBoardSize(width, height);
+                byte[] packed = Arrays.copyOfRange(frame, offset[0], frame.length);
+                char[] cells = new char[width * height];
+                for (int i = 0; i < cells.length; i++) {
+                    int cell = BinaryProtocol.cellAt(packed, i);
+                    cells[i] = cell == BinaryProtocol.CELL_X ? 'X' : cell == BinaryProtocol.CELL_O ? 'O' : ' ';
+                }
+                handleSnapshot(cells, (flags & BinaryProtocol.FLAG_YOUR_TURN) != 0);
+                break;
+            }
+            case BinaryProtocol.MOVE: {
+                int index = BinaryProtocol.readVarint(frame, offset);
+                int flags = frame[offset[0]];
+                char symbol = (flags & BinaryProtocol.FLAG_SYMBOL_O) != 0 ? 'O' : 'X';
+                handleMove(index + 1, symbol, (flags & BinaryProtocol.FLAG_YOUR_TURN) != 0);
+                break;
+            }
+            case BinaryProtocol.WIN:
+                handleWin(BinaryProtocol.readVarint(frame, offset));
+                break;
+            case BinaryProtocol.LOSS:
+                endGame();
+                System.out.println("You lost.");
+                break;
+            case BinaryProtocol.TIE:
+                endGame();
+                System.out.println("Game tied!");
+                break;
+            case BinaryProtocol.INVALID_MOVE:
+                handleInvalidMove();
+                break;
+            case BinaryProtocol.QUEUE_POSITION:
+                System.out.println("You are in the queue. Position: " + BinaryProtocol.readVarint(frame, offset));
+                break;
+            case BinaryProtocol.OPPONENT_LEFT:
+                endGame();
+                System.out.println("Opponent has left the game. You win by default.");
+                break;
+            case BinaryProtocol.REPLAY_PROMPT:
+                handleReplayPrompt();
+                break;
+            case BinaryProtocol.SPECTATE: {
+                int status = frame[offset[0]++];
+                int width = BinaryProtocol.readVarint(frame, offset);
+                int height = BinaryProtocol.readVarint(frame, offset);
+                setBoardSize(width, height);
+                byte[] packed = Arrays.copyOfRange(frame, offset[0], frame.length);
+                char[] cells = new char[width * height];
+                for (int i = 0; i < cells.length; i++) {
+                    int cell = BinaryProtocol.cellAt(packed, i);
+                    cells[i] = cell == BinaryProtocol.CELL_X ? 'X' : cell == BinaryProtocol.CELL_O ? 'O' : ' ';
+                }
+                handleSpectate(new String(cells), TextProtocol.SPECTATE_STATUS[status]);
+                break;
+            }
+            case BinaryProtocol.SESSION_TOKEN:
+                sessionToken = new String(frame, 1, frame.length - 1, "UTF-8");
+                break;
+            case BinaryProtocol.BUSY:
+                retryAfterMs = Math.max(1, BinaryProtocol.readVarint(frame, offset));
+                break;
+            case BinaryProtocol.REDIRECT: {
+                int port = BinaryProtocol.readVarint(frame, offset);
+                int hostLength = BinaryProtocol.readVarint(frame, offset);
+                String host = new String(frame, offset[0], hostLength, "UTF-8");
+                int ticketStart = offset[0] + hostLength;
+                handleRedirect(host, port, new String(frame, ticketStart, frame.length - ticketStart, "UTF-8"));
+                break;
+            }
+            default:
+                break; // Unknown message types from newer servers are ignored
+        }
+    }
+
+    // Processes text messages received from the server.
+    private void processMessage(String message) {
+        if (message == null || message.isEmpty()) {
+            return;
+        }
     
-            char turnIndicator = lastPart.charAt(lastPart.length() - 1);
-            String square9Value = lastPart.length() > 1 ? lastPart.substring(0, lastPart.length() - 1).trim() : " ";
-    
-            boardState.append(square9Value.isEmpty() ? " " : square9Value.charAt(0));
-    
-            displayBoard(boardState.toString());
-    
-            if (turnIndicator == '1') {
-                System.out.println("Your turn! Enter a move (1-9): ");
-            } else {
-                System.out.println("Opponent's turn. Please wait...");
+        // Handle board updates
+        if (message.startsWith("square 1")) {  
+            String parsed = parseBoardMessage(message);
+            if (parsed != null) {
+                int cells = parsed.length() - 1;
+                handleSnapshot(parsed.substring(0, cells).toCharArray(), parsed.charAt(cells) == '1'); // Text boards are always whole
             }
         } 
         else if (message.equals("x") || message.equals("o")) { // Only process once
-            if (playerSymbol == '\0') {
-                playerSymbol = message.charAt(0);
-                System.out.println("Game starting! You are " + playerSymbol);
-            }
+            setBoardSize(3, 3); // A "size" line follows for any other board
+            handleSymbol(message.charAt(0));
         } 
+        else if (message.startsWith("size ")) {
+            BoardSize size = BoardSize.parse(message.substring("size ".length()));
+            if (size != null) {
+                setBoardSize(size.getWidth(), size.getHeight());
+            }
+        }
         else if (message.equals("w")) {
-            System.out.println("Waiting for another player...");
+            handleWaiting();
         } 
         else if (message.startsWith("W")) {  
-            int streak = message.length() > 1 ? message.charAt(1) & 0xFF : 0;
-            System.out.println("You won! Current streak: " + streak);
-    
-            if (!waitingForReplay) {
-                waitingForReplay = true;
-                System.out.println("Do you want to play again? (Y/N)");
-            }
+            handleWin(message.length() > 1 ? message.charAt(1) & 0xFF : 0);
         } 
         else if (message.equals("L")) {
+            endGame();
             System.out.println("You lost.");
         } 
         else if (message.equals("T")) {
+            endGame();
             System.out.println("Game tied!");
         } 
         else if (message.equals("I")) {
-            System.out.println("Invalid move. Try again.");
+            handleInvalidMove();
         } 
         else if (message.startsWith("Q")) {  
             int queueSize = message.charAt(1) & 0xFF;
             System.out.println("You are in the queue. Position: " + queueSize);
         } 
         else if (message.equals("Opponent has left the game. You win by default.")) {
+            endGame();
             System.out.println(message);
         } 
         else if (message.equals("Do you want to play again? (Y/N)")) {
-            if (!waitingForReplay) {  
-                waitingForReplay = true;
-                System.out.println(message);
-                handleReplayInput();
+            handleReplayPrompt();
+        }
+        else if (message.startsWith("spectate ")) {
+            // spectate <status> <size> square 1: ...
+            String[] header = message.split(" ", 4);
+            BoardSize size = header.length == 4 ? BoardSize.parse(header[2]) : null;
+            String parsed = size != null ? parseBoardMessage(header[3] + " 0") : null;
+            if (parsed != null) {
+                setBoardSize(size.getWidth(), size.getHeight());
+                handleSpectate(parsed.substring(0, parsed.length() - 1), header[1]);
+            }
+        }
+        else if (message.startsWith("token ")) {
+            sessionToken = message.substring("token ".length());
+        }
+        else if (TextProtocol.parseBusy(message) >= 0) {
+            // busy <milliseconds>, also sent in place of the binary hello
+            retryAfterMs = Math.max(1, TextProtocol.parseBusy(message));
+        }
+        else if (message.startsWith("redirect ")) {
+            // redirect <host>:<port> <ticket>
+            String[] parts = message.split(" ");
+            int colon = parts.length == 3 ? parts[1].lastIndexOf(':') : -1;
+            if (colon > 0) {
+                try {
+                    handleRedirect(parts[1].substring(0, colon), Integer.parseInt(parts[1].substring(colon + 1)), parts[2]);
+                } catch (NumberFormatException e) {
+                    System.out.println("ERROR: Malformed redirect received. Data: " + message);
+                }
+            }
+        }
+    }
+
+    // Parses a text board message into its squares followed by the turn indicator.
+    // Prints an error and returns null if the message is malformed.
+    static String parseBoardMessage(String message) {
+        String[] parts = message.split("square [0-9]+: "); 
+        if (parts.length < 3) { 
+            System.out.println("ERROR: Malformed board message received. Data: " + message);
+            return null;
+        }
+
+        int squares = parts.length - 1;
+        StringBuilder boardState = new StringBuilder(squares + 1);
+        for (int i = 1; i < squares; i++) {  
+            String squareData = parts[i].trim();
+            boardState.append(squareData.isEmpty() ? " " : squareData.charAt(0));
+        }
+
+        String lastPart = parts[squares].trim();
+        if (lastPart.length() < 1) {  
+            System.out.println("ERROR: Missing turn indicator. Data: " + message);
+            return null;
+        }
+
+        char turnIndicator = lastPart.charAt(lastPart.length() - 1);
+        String square9Value = lastPart.length() > 1 ? lastPart.substring(0, lastPart.length() - 1).trim() : " ";
+
+        boardState.append(square9Value.isEmpty() ? " " : square9Value.charAt(0));
+        boardState.append(turnIndicator);
+        return boardState.toString();
+    }
+
+    // Redirects and busy replies close the connection on purpose, so they are not reported.
+    private void reportClosed() {
+        if (!redirected && retryAfterMs == 0) {
+            System.out.println("Server closed connection.");
+        }
+    }
+
+    // Takes a whole board from the server: the first board of a game, a resync, or with the text
+    // protocol every update. A board that only adds the next move is applied to the mirror like
+    // a move; anything else replaces the mirror.
+    private void handleSnapshot(char[] cells, boolean yourTurn) {
+        mirrorLock.lock();
+        try {
+            if (cells.length != boardWidth * boardHeight) {
+                System.out.println("ERROR: Invalid board format received. Data: " + new String(cells));
+                return;
+            }
+            boolean replace = mirror == null || mirror.getWidth() != boardWidth || mirror.getHeight() != boardHeight
+                    || resyncPending;
+            int added = 0;
+            int addedAt = 0;
+            for (int i = 0; i < cells.length && !replace; i++) {
+                char current = mirror.getSymbolAt(i + 1);
+                if (current != cells[i]) {
+                    replace = current != ' '; // A square changed hands or was cleared: not the same game
+                    added++;
+                    addedAt = i + 1;
+                }
+            }
+            if (!replace && added == 1 && cells[addedAt - 1] == nextSymbol()) {
+                handleMove(addedAt, cells[addedAt - 1], yourTurn);
+            } else if (!replace && added == 0 && pendingMove == 0) {
+                showTurn(yourTurn, false); // Nothing new on the board
+            } else {
+                mirror = new Board(new BoardSize(boardWidth, boardHeight, Math.max(boardWidth, boardHeight)));
+                for (int i = 0; i < cells.length; i++) {
+                    if (cells[i] == 'X' || cells[i] == 'O') {
+                        mirror.makeMove(i + 1, cells[i]); // Win length is not needed; the server decides games
+                    }
+                }
+                pendingMove = 0;
+                resyncPending = false;
+                redraw();
+                showTurn(yourTurn, true);
             }
+        } finally {
+            mirrorLock.unlock();
+        }
+    }
+
+    // Applies a move the server confirmed. The echo of the client's own move was already shown
+    // when it was sent, so only the opponent's moves are drawn. A move that does not fit the
+    // mirror (a taken square, the wrong side to move) means it has diverged from the server's board.
+    private void handleMove(int position, char symbol, boolean yourTurn) {
+        mirrorLock.lock();
+        try {
+            if (resyncPending) {
+                return; // The full board is on its way
+            }
+            if (mirror == null || position < 1 || position > mirror.getCellCount()
+                    || mirror.getSymbolAt(position) != ' ' || symbol != nextSymbol()) {
+                requestResync();
+                return;
+            }
+            mirror.makeMove(position, symbol);
+            boolean echo = position == pendingMove && symbol == playerSymbol;
+            pendingMove = 0;
+            if (!echo) {
+                redraw();
+            }
+            showTurn(yourTurn, !echo);
+        } finally {
+            mirrorLock.unlock();
+        }
+    }
+
+    // Drops the mirror and asks the server for the whole board. Called with mirrorLock held.
+    private void requestResync() {
+        resyncPending = true;
+        myTurn = false;
+        pendingMove = 0;
+        System.out.println("Board out of sync; fetching it from the server...");
+        output.println(Protocol.RESYNC_REQUEST);
+    }
+
+    // Returns the symbol whose move is next on the mirror; X always moves first.
+    // Called with mirrorLock held.
+    private char nextSymbol() {
+        return mirror.getMoveCount() % 2 == 0 ? 'X' : 'O';
+    }
+
+    // Prints whose turn it is, if that changed or the board was just drawn.
+    // Called with mirrorLock held.
+    private void showTurn(boolean yourTurn, boolean redrawn) {
+        if (!redrawn && yourTurn == myTurn) {
+            return;
+        }
+        myTurn = yourTurn;
+        if (yourTurn) {
+            System.out.println("Your turn! Enter a move (1-" + mirror.getCellCount() + "): ");
+        } else {
+            System.out.println("Opponent's turn. Please wait...");
+        }
+    }
+
+    // The server rejected the move that was sent, so the client may move again.
+    private void handleInvalidMove() {
+        mirrorLock.lock();
+        try {
+            if (pendingMove != 0) {
+                pendingMove = 0;
+                myTurn = true;
+                redraw(); // Takes the rejected move off the board
+            }
+            System.out.println("Invalid move. Try again.");
+        } finally {
+            mirrorLock.unlock();
+        }
+    }
+
+    // Forgets the board once the game has been decided.
+    private void endGame() {
+        mirrorLock.lock();
+        try {
+            mirror = null;
+            myTurn = false;
+            pendingMove = 0;
+            resyncPending = false;
+        } finally {
+            mirrorLock.unlock();
+        }
+    }
+
+    // Checks a move against the mirror and sends it if it is legal. Returns why it is not
+    // otherwise, or null once it has been sent and drawn.
+    private String tryMove(int move) {
+        mirrorLock.lock();
+        try {
+            if (mirror == null || resyncPending) {
+                return "No game in progress yet. Please wait...";
+            }
+            if (move < 1 || move > mirror.getCellCount()) {
+                return "Invalid input. Enter a number between 1 and " + mirror.getCellCount() + ".";
+            }
+            if (!myTurn) {
+                return "It's not your turn. Please wait...";
+            }
+            if (mirror.getSymbolAt(move) != ' ') {
+                return "Square " + move + " is taken. Try again.";
+            }
+            output.println(move);
+            pendingMove = move;
+            myTurn = false;
+            redraw();
+            System.out.println("Opponent's turn. Please wait...");
+            return null;
+        } finally {
+            mirrorLock.unlock();
+        }
+    }
+
+    // Draws the mirror, with the move waiting for the server's confirmation already on it.
+    // Called with mirrorLock held.
+    private void redraw() {
+        char[] cells = mirror.toString().toCharArray();
+        if (pendingMove != 0) {
+            cells[pendingMove - 1] = playerSymbol;
+        }
+        displayBoard(new String(cells), boardWidth);
+    }
+
+    // Shows a game being watched and its status (X/O to move, XW/OW won, T tie).
+    private void handleSpectate(String boardState, String status) {
+        displayBoard(boardState, boardWidth);
+        switch (status) {
+            case "XW": System.out.println("X won. Waiting for the next game..."); break;
+            case "OW": System.out.println("O won. Waiting for the next game..."); break;
+            case "T": System.out.println("Game tied. Waiting for the next game..."); break;
+            default: System.out.println(status + " to move."); break;
+        }
+    }
+
+    private void handleSymbol(char symbol) {
+        char previous = playerSymbol;
+        playerSymbol = Character.toUpperCase(symbol); // Text servers send x or o; kept current, announced once
+        if (previous == '\0') {
+            System.out.println("Game starting! You are " + playerSymbol);
+        }
+    }
+
+    private void handleWaiting() {
+        System.out.println("Waiting for another player...");
+    }
+
+    private void handleWin(int streak) {
+        endGame();
+        System.out.println("You won! Current streak: " + streak);
+
+        if (!waitingForReplay) {
+            waitingForReplay = true;
+            System.out.println("Do you want to play again? (Y/N)");
+        }
+    }
+
+    private void handleReplayPrompt() {
+        if (!waitingForReplay) {  
+            waitingForReplay = true;
+            System.out.println("Do you want to play again? (Y/N)");
+            handleReplayInput();
         }
     }
 
@@ -157,16 +685,23 @@ public class Client {
 
             // Handle quitting
             if (userInput.equalsIgnoreCase("Q")) {
+                quitting = true;
                 output.println("Q");
                 break;
             }
 
+            if (WATCH != null) {
+                System.out.println("You are watching. Enter Q to quit.");
+                continue;
+            }
+
             // If waiting for replay, only allow "Y" or "N"
             if (waitingForReplay) {
                 if (userInput.equalsIgnoreCase("Y") || userInput.equalsIgnoreCase("N")) {
                     output.println(userInput);
                     waitingForReplay = false; // Reset after responding
                     if (userInput.equalsIgnoreCase("N")) {
+                        quitting = true;
                         break; // Exit client if user declines to play again
                     }
                 } else {
@@ -175,25 +710,29 @@ public class Client {
                 continue;
             }
 
-            // Normal move input (only when the game is active)
+            // Normal move input, checked against the local board before it is sent
             try {
-                int move = Integer.parseInt(userInput);
-                if (move < 1 || move > 9) {
-                    System.out.println("Invalid input. Enter a number between 1 and 9.");
-                    continue;
+                String problem = tryMove(Integer.parseInt(userInput.trim()));
+                if (problem != null) {
+                    System.out.println(problem);
                 }
-                output.println(userInput);
             } catch (NumberFormatException e) {
-                System.out.println("Invalid input. Enter a number between 1 and 9.");
+                System.out.println("Invalid input. Enter a number between 1 and " + boardWidth * boardHeight + ".");
             }
         }
         closeConnection();
     }
 
-    // Displays the current game board.
-    private void displayBoard(String boardState) {
+    // Sets the size of the boards the server sends next.
+    private void setBoardSize(int width, int height) {
+        boardWidth = width;
+        boardHeight = height;
+    }
+
+    // Displays a board given one character per square, in rows of the given width.
+    private void displayBoard(String boardState, int width) {
         if (boardState.length() != 9) {
-            System.out.println("ERROR: Invalid board format received. Data: " + boardState);
+            displayLargeBoard(boardState, width);
             return;
         }
     
@@ -205,11 +744,29 @@ public class Client {
         System.out.println(" " + boardState.charAt(6) + " | " + boardState.charAt(7) + " | " + boardState.charAt(8));
     }
 
+    // Displays a board other than 3x3, one row per line with the number of the row's first square.
+    private void displayLargeBoard(String boardState, int width) {
+        int numberWidth = Integer.toString(boardState.length()).length();
+        StringBuilder rows = new StringBuilder("\nCurrent Board:\n");
+        for (int start = 0; start < boardState.length(); start += width) {
+            rows.append(String.format("%" + numberWidth + "d |", start + 1));
+            for (int i = start; i < start + width; i++) {
+                char cell = boardState.charAt(i);
+                rows.append(' ').append(cell == ' ' ? '.' : cell);
+            }
+            rows.append('\n');
+        }
+        System.out.print(rows);
+    }
+
     // Closes the client connection and cleans up resources.
     private void closeConnection() {
+        quitting = true;
         try {
             socket.close();
-            input.close();
+            if (input != null) {
+                input.close();
+            }
             output.close();
             scanner.close();
         } catch (IOException e) {
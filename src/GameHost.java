@@ -0,0 +1,12 @@
+// Where the matchmaker starts the games it pairs: in this process (SessionManager) or, on a
+// lobby, on one of the game nodes behind it (NodeRouter).
+public interface GameHost {
+    // Checks whether another game can be started right now.
+    boolean hasCapacity();
+
+    // Starts a game between the two players. Players leaving the game are requeued through queue.
+    void startGame(PlayerHandler p1, PlayerHandler p2, PlayerQueue queue);
+
+    // Sets a callback run whenever capacity may have been freed, e.g. when a game finishes.
+    void setOnSessionFinished(Runnable onSessionFinished);
+}
@@ -1,23 +1,73 @@
 import java.io.IOException;
 import java.lang.Runnable;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 // Handles a single Tic-Tac-Toe game session between two players.
 // Manages game logic, player moves, win conditions, and reconnection logic.
+// The session is a state machine fed one message at a time: it can be driven by a thread
+// blocking on the current player's input (run) or by an event-driven transport (pump).
+//
+// When the player whose move it is drops, the game is held for a grace period instead of
+// being forfeited; a client that reconnects with its session token in that time takes its
+// seat again and gets the board resent (see resume).
+//
+// Every turn and the winner's replay prompt run against a clock on a shared TimingWheel. A
+// player who lets it run out is treated as having left: the game is forfeited (or, at the
+// replay prompt, the winner is not requeued) and their connection is closed, which also
+// releases a blocking session's thread from its read.
+//
+// After every change the session publishes an immutable Snapshot of itself, which the server's
+// periodic state snapshots (see StateSnapshot) read without ever taking the session's lock.
 public class GameSession implements Runnable {
+    // Phases of a session. Each phase waits on input from exactly one player.
+    private enum Phase { PLAYING, AWAITING_REPLAY, ENDED }
+
+    // The state of a game at one point in time. Never modified; the session replaces it whole.
+    public static final class Snapshot {
+        public final PlayerHandler playerX, playerO;
+        public final Board board; // A copy, shared with spectators; X is to move after an even number of moves
+        public final PlayerHandler winner, loser; // Set while the winner is at the replay prompt
+
+        Snapshot(PlayerHandler playerX, PlayerHandler playerO, Board board, PlayerHandler winner, PlayerHandler loser) {
+            this.playerX = playerX;
+            this.playerO = playerO;
+            this.board = board;
+            this.winner = winner;
+            this.loser = loser;
+        }
+    }
+
     private PlayerHandler playerX, playerO;
     private Board board;
-    private boolean running = true;
-    private BlockingQueue<PlayerHandler> waitingPlayers;
+    private Phase phase = Phase.PLAYING;
+    private PlayerHandler winner, loser; // Set when the game is won, for the replay prompt
+    private PlayerQueue matchmaker; // Where players go after the game
+    private Runnable onEnd;
+    private PlayerStatsStore statsStore; // Null when stats are not persisted
+    private MoveJournal journal; // Null when games are not journaled
+    private long gameId;
+    private final SpectatorGroup spectators = new SpectatorGroup();
+    private boolean ended = false;
+    private long reconnectGraceMs = 0; // 0 forfeits as soon as a player drops
+    private PlayerHandler held; // Player the game is being held for, if any
+    private TimingWheel.Timeout holdExpiry;
+    private TimingWheel timers;
+    private long turnTimeoutMs = 0;   // 0 lets a turn last forever
+    private long replayTimeoutMs = 0; // 0 waits forever for the replay answer
+    private TimingWheel.Timeout deadline; // Clock of the current turn or replay prompt
+    private int deadlineSeq = 0;          // Tells a clock that ran out apart from a cancelled one
+    // Serializes state changes: pump() calls from different event loops, the blocking driver
+    // and reconnects. A ReentrantLock rather than synchronized, so virtual threads waiting on
+    // it do not pin their carrier thread.
+    private final ReentrantLock pumpLock = new ReentrantLock();
+    private volatile Snapshot snapshot; // Null once the session has ended
 
-    // Initializes a new game session with two players.
-    public GameSession(PlayerHandler p1, PlayerHandler p2, BlockingQueue<PlayerHandler> waitingPlayers) {
+    // Initializes a new game session with two players, on the board size they were matched for.
+    public GameSession(PlayerHandler p1, PlayerHandler p2, PlayerQueue matchmaker) {
         this.playerX = p1;
         this.playerO = p2;
-        this.board = new Board();
-        this.waitingPlayers = waitingPlayers;
+        this.board = new Board(p1.getBoardSize());
+        this.matchmaker = matchmaker;
 
         // Assign player symbols
         playerX.setSymbol('X');
@@ -25,152 +75,527 @@ public class GameSession implements Runnable {
         playerX.setTurn(true);
         playerO.setTurn(false);
 
-        // Notify players of their symbols
-        if (!playerX.isDisconnected()) playerX.sendMessage("x");
-        if (!playerO.isDisconnected()) playerO.sendMessage("o");
+        // Notify players of their symbols, then send the full board once; later turns only
+        // send the move. Both messages go out in a single write.
+        beginBatch();
+        try {
+            if (!playerX.isDisconnected()) playerX.sendSymbol();
+            if (!playerO.isDisconnected()) playerO.sendSymbol();
+            playerX.sendBoard(board);
+            playerO.sendBoard(board);
+        } finally {
+            endBatch();
+        }
+        Board copy = new Board(board);
+        snapshot = new Snapshot(playerX, playerO, copy, null, null);
+        spectators.publish(copy, SpectatorGroup.X_TO_MOVE);
+    }
+
+    // Recreates a game restored from a server snapshot, on a board with its moves already made;
+    // X moves first, so the parity of the moves tells whose turn it is. Nothing is sent: both
+    // players are placeholders until their clients reconnect and are resynced (see resume).
+    public GameSession(PlayerHandler playerX, PlayerHandler playerO, PlayerQueue matchmaker, Board board) {
+        this.playerX = playerX;
+        this.playerO = playerO;
+        this.board = board;
+        this.matchmaker = matchmaker;
+        boolean xToMove = board.getMoveCount() % 2 == 0;
+        playerX.setSymbol('X');
+        playerO.setSymbol('O');
+        playerX.setTurn(xToMove);
+        playerO.setTurn(!xToMove);
+        Board copy = new Board(board);
+        snapshot = new Snapshot(playerX, playerO, copy, null, null);
+        spectators.publish(copy, xToMove ? SpectatorGroup.X_TO_MOVE : SpectatorGroup.O_TO_MOVE);
+    }
+
+    // Returns the game as of its last change, or null once it has ended. Safe from any thread.
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Returns the spectators watching this game.
+    public SpectatorGroup getSpectators() {
+        return spectators;
+    }
+
+    // Sets a callback that is run once when the session ends.
+    public void setOnEnd(Runnable onEnd) {
+        this.onEnd = onEnd;
+    }
+
+    // Sets the store that named players' results are recorded in.
+    public void setStatsStore(PlayerStatsStore statsStore) {
+        this.statsStore = statsStore;
+    }
+
+    // Sets the journal this game's moves and result are recorded in, under the given game id.
+    public void setJournal(MoveJournal journal, long gameId) {
+        this.journal = journal;
+        this.gameId = gameId;
+    }
+
+    // Sets how long a game is held for a player who dropped before it is forfeited.
+    public void setReconnectGraceMs(long reconnectGraceMs) {
+        this.reconnectGraceMs = reconnectGraceMs;
+    }
 
-        updateClients();
+    // Sets the wheel the session's clocks run on and the time allowed for each turn and for
+    // the replay answer (0 for no limit), and starts the first turn's clock.
+    // Must be called before the session starts.
+    public void setTimeouts(TimingWheel timers, long turnTimeoutMs, long replayTimeoutMs) {
+        this.timers = timers;
+        this.turnTimeoutMs = turnTimeoutMs;
+        this.replayTimeoutMs = replayTimeoutMs;
+        startClock();
     }
 
-    // Runs the game loop, handling turns until the game ends.
+    // Runs the game loop, blocking on the current player's input until the game ends.
     @Override
     public void run() {
-        while (running) {
-            try {
-                // Determine the current player and opponent
-                PlayerHandler currentPlayer = playerX.isTurn() ? playerX : playerO;
-                PlayerHandler opponent = playerX.isTurn() ? playerO : playerX;
-
-                // Read player move
-                String move = currentPlayer.readMessage();
-                if (move == null || move.equals("Q")) {
-                    handleDisconnection(currentPlayer, opponent);
-                    return;
+        try {
+            while (phase != Phase.ENDED) {
+                PlayerHandler reader = expectedPlayer();
+                String message = reader.readMessage();
+                if (message == null && phase == Phase.PLAYING) {
+                    journalDisconnect(reader);
+                }
+                if (message == null && phase == Phase.PLAYING && reconnectGraceMs > 0) {
+                    pumpLock.lock();
+                    try {
+                        stopClock(); // The grace period takes over; resume() restarts the turn
+                    } finally {
+                        pumpLock.unlock();
+                    }
+                    if (reader.awaitReconnect(reconnectGraceMs)) {
+                        continue; // Back on a new connection, which resume() has already resynced
+                    }
+                    ServerMetrics.RECONNECTS_EXPIRED.increment();
+                }
+                pumpLock.lock();
+                try {
+                    handleBatched(reader, message);
+                } finally {
+                    pumpLock.unlock();
                 }
+            }
+        } catch (IOException e) {
+            System.out.println("Error in game session: " + e.getMessage());
+            ServerMetrics.disconnected(ServerMetrics.DisconnectCause.IO_ERROR);
+        } finally {
+            end();
+        }
+    }
 
-                // Validate move input
-                int position;
+    // Processes every message already buffered for the player the session is waiting on.
+    // Called by event-driven transports whenever new input arrives; never blocks.
+    public void pump() {
+        pumpLock.lock();
+        try {
+            while (phase != Phase.ENDED) {
+                PlayerHandler reader = expectedPlayer();
+                String message = reader.pollMessage();
+                if (message == null && !reader.isInputExhausted()) {
+                    return; // Wait for more input
+                }
+                if (message == null && phase == Phase.PLAYING && held != reader) {
+                    journalDisconnect(reader);
+                }
+                if (message == null && holdForReconnect(reader)) {
+                    return; // Wait for the player to come back
+                }
                 try {
-                    position = Integer.parseInt(move);
-                } catch (NumberFormatException e) {
-                    currentPlayer.sendMessage("I"); 
-                    continue;
+                    handleBatched(reader, message);
+                } catch (IOException e) {
+                    System.out.println("Error in game session: " + e.getMessage());
+                    ServerMetrics.disconnected(ServerMetrics.DisconnectCause.IO_ERROR);
+                    end();
                 }
+            }
+        } finally {
+            pumpLock.unlock();
+        }
+    }
 
-                // Make move on the board
-                if (!board.makeMove(position, currentPlayer.getSymbol())) {
-                    currentPlayer.sendMessage("I"); 
-                    continue;
+    // Reattaches a player who reconnected with their session token, then resends the game state.
+    // Returns false if the game has already ended.
+    public boolean resume(PlayerHandler player, PlayerHandler fresh) {
+        pumpLock.lock();
+        try {
+            if (phase == Phase.ENDED) {
+                return false;
+            }
+            player.takeConnection(fresh);
+            if (held == player) {
+                held = null;
+                holdExpiry.cancel();
+            }
+            if (deadline == null) {
+                startClock(); // Stopped while the player was away; they get a fresh turn
+            }
+            if (journal != null) {
+                journal.reconnected(gameId, player.getSymbol());
+            }
+            player.beginBatch();
+            try {
+                player.sendResync(board);
+                if (phase == Phase.AWAITING_REPLAY && player == winner) {
+                    player.sendReplayPrompt();
                 }
+            } finally {
+                player.endBatch();
+            }
+            ServerMetrics.RECONNECTS.increment();
+            System.out.println("Player " + player.getSymbol() + " reconnected.");
+        } finally {
+            pumpLock.unlock();
+        }
+        if (player.isEventDriven()) {
+            pump(); // Moves may have arrived with the reconnect
+        }
+        return true;
+    }
 
-                // Check for win, draw, or continue game
-                if (board.checkWin(currentPlayer.getSymbol())) {
-                    handleWin(currentPlayer, opponent);
-                    return;
-                } else if (board.isFull()) {
-                    handleDraw();
-                    return;
+    // Starts holding the game for a player whose input ended, if reconnects are enabled.
+    // Returns true while the player still has time to come back. Called with pumpLock held.
+    private boolean holdForReconnect(PlayerHandler player) {
+        if (reconnectGraceMs <= 0 || phase != Phase.PLAYING) {
+            return false;
+        }
+        if (held != player) {
+            held = player;
+            stopClock();
+            holdExpiry = timers.schedule(() -> expireHold(player), reconnectGraceMs);
+        }
+        return true;
+    }
+
+    // Forfeits the game for a held player whose grace period ran out.
+    private void expireHold(PlayerHandler player) {
+        pumpLock.lock();
+        try {
+            if (held != player || phase == Phase.ENDED) {
+                return; // Reconnected in time
+            }
+            held = null;
+            ServerMetrics.RECONNECTS_EXPIRED.increment();
+            handleBatched(player, null);
+        } catch (IOException e) {
+            System.out.println("Error in game session: " + e.getMessage());
+            end();
+        } finally {
+            pumpLock.unlock();
+        }
+    }
+
+    // Starts the clock of the current turn or replay prompt, replacing any running one.
+    // Called with pumpLock held, or before the session starts.
+    private void startClock() {
+        stopClock();
+        long limit = phase == Phase.PLAYING ? turnTimeoutMs : phase == Phase.AWAITING_REPLAY ? replayTimeoutMs : 0;
+        if (limit > 0 && timers != null) {
+            int seq = deadlineSeq;
+            PlayerHandler player = expectedPlayer();
+            deadline = timers.schedule(() -> expireClock(player, seq), limit);
+        }
+    }
+
+    private void stopClock() {
+        deadlineSeq++;
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+    }
+
+    // Forfeits the turn or the replay of a player whose clock ran out, and disconnects them.
+    private void expireClock(PlayerHandler player, int seq) {
+        pumpLock.lock();
+        try {
+            if (seq != deadlineSeq || phase == Phase.ENDED) {
+                return; // Moved or answered just in time
+            }
+            deadline = null;
+            ServerMetrics.disconnected(ServerMetrics.DisconnectCause.TIMED_OUT);
+            System.out.println("Player " + player.getSymbol() + " timed out.");
+            beginBatch();
+            try {
+                if (phase == Phase.AWAITING_REPLAY) {
+                    ServerMetrics.REPLAY_TIMEOUTS.increment();
+                    handleReplayResponse(null);
                 } else {
-                    // Swap turns
-                    currentPlayer.setTurn(false);
-                    opponent.setTurn(true);
+                    ServerMetrics.TURN_TIMEOUTS.increment();
+                    journalDisconnect(player);
+                    handleDisconnection(player, player == playerX ? playerO : playerX);
                 }
+            } finally {
+                endBatch();
+            }
+            player.close();
+        } catch (IOException e) {
+            System.out.println("Error in game session: " + e.getMessage());
+            end();
+        } finally {
+            pumpLock.unlock();
+        }
+    }
 
-                updateClients();
-            } catch (IOException e) {
-                System.out.println("Error in game session: " + e.getMessage());
-                break;
+    // Returns the player whose input the session is currently waiting for.
+    private PlayerHandler expectedPlayer() {
+        if (phase == Phase.AWAITING_REPLAY) {
+            return winner;
+        }
+        return playerX.isTurn() ? playerX : playerO;
+    }
+
+    // Applies a message with both players' output batched, so that everything a turn sends
+    // each of them (the move, the result, the replay prompt) reaches them in one write.
+    private void handleBatched(PlayerHandler currentPlayer, String move) throws IOException {
+        beginBatch();
+        try {
+            handleMessage(currentPlayer, move);
+        } finally {
+            endBatch();
+        }
+    }
+
+    private void beginBatch() {
+        playerX.beginBatch();
+        playerO.beginBatch();
+    }
+
+    private void endBatch() {
+        playerX.endBatch();
+        playerO.endBatch();
+    }
+
+    // Applies a single message from a player. A null message means the player disconnected.
+    private void handleMessage(PlayerHandler currentPlayer, String move) throws IOException {
+        if (phase == Phase.ENDED) {
+            return; // E.g. the input that ended after a timeout closed the connection
+        }
+        if (Protocol.RESYNC_REQUEST.equals(move)) {
+            if (phase == Phase.PLAYING) {
+                ServerMetrics.RESYNCS_REQUESTED.increment();
+                currentPlayer.sendResync(board); // Still their turn
             }
+            return; // At the replay prompt the game is over; the answer is still to come
         }
-        System.out.println("Game session ended.");
+        if (phase == Phase.AWAITING_REPLAY) {
+            handleReplayResponse(move);
+            return;
+        }
+
+        PlayerHandler opponent = currentPlayer == playerX ? playerO : playerX;
+        if (move == null || move.equals("Q")) {
+            ServerMetrics.disconnected(move == null
+                    ? ServerMetrics.DisconnectCause.CLOSED_IN_GAME : ServerMetrics.DisconnectCause.QUIT);
+            handleDisconnection(currentPlayer, opponent);
+            return;
+        }
+
+        long startedAt = System.nanoTime();
+        try {
+            handleMove(currentPlayer, opponent, move);
+        } finally {
+            ServerMetrics.MOVE_PROCESSING.record(System.nanoTime() - startedAt);
+        }
+    }
+
+    // Validates and applies a move, then ends the game or passes the turn.
+    private void handleMove(PlayerHandler currentPlayer, PlayerHandler opponent, String move) {
+        // Validate move input
+        int position;
+        try {
+            position = Integer.parseInt(move);
+        } catch (NumberFormatException e) {
+            ServerMetrics.INVALID_MOVES.increment();
+            currentPlayer.sendInvalidMove();
+            return;
+        }
+
+        // Make move on the board
+        if (!board.makeMove(position, currentPlayer.getSymbol())) {
+            ServerMetrics.INVALID_MOVES.increment();
+            currentPlayer.sendInvalidMove();
+            return;
+        }
+        ServerMetrics.MOVES.increment();
+        if (journal != null) {
+            journal.move(gameId, position, currentPlayer.getSymbol());
+        }
+
+        // Check for win, draw, or continue game
+        if (board.checkWinAt(position, currentPlayer.getSymbol())) {
+            handleWin(currentPlayer, opponent);
+            return;
+        } else if (board.isFull()) {
+            handleDraw();
+            return;
+        } else {
+            // Swap turns
+            currentPlayer.setTurn(false);
+            opponent.setTurn(true);
+            startClock();
+        }
+
+        updateClients(position, currentPlayer.getSymbol());
     }
 
     // Handles a player disconnection mid-game.
     private void handleDisconnection(PlayerHandler disconnected, PlayerHandler opponent) throws IOException {
         System.out.println("Player " + disconnected.getSymbol() + " disconnected.");
-        opponent.sendMessage("Opponent has left the game. You win by default.");
+        ServerMetrics.GAMES_FORFEITED.increment();
+        publishResult(opponent.getSymbol() == 'X' ? SpectatorGroup.X_WON : SpectatorGroup.O_WON);
+        journalResult(disconnected.getSymbol() == 'X' ? MoveJournal.Outcome.X_LEFT : MoveJournal.Outcome.O_LEFT);
+        end();
+        opponent.sendOpponentLeft();
         opponent.incrementWinStreak();
-        opponent.sendMessage("W" + (char) opponent.getWinStreak());
+        opponent.sendWin();
+        rate(opponent, disconnected, 1);
+        recordResult(opponent, PlayerStatsStore.Event.WIN);
+        recordResult(disconnected, PlayerStatsStore.Event.LOSS);
     
-        waitingPlayers.offer(opponent);  // Requeue opponent
+        matchmaker.enqueue(opponent);  // Requeue opponent
         disconnected.close();
-        running = false;
     }
 
     // Handles the game ending with a winner.
-    private void handleWin(PlayerHandler winner, PlayerHandler loser) throws IOException {
+    private void handleWin(PlayerHandler winner, PlayerHandler loser) {
         System.out.println(winner.getSymbol() + " has won the game!");
+        ServerMetrics.GAMES_WON.increment();
+        publishResult(winner.getSymbol() == 'X' ? SpectatorGroup.X_WON : SpectatorGroup.O_WON);
+        journalResult(winner.getSymbol() == 'X' ? MoveJournal.Outcome.X_WON : MoveJournal.Outcome.O_WON);
         winner.incrementWinStreak();
         loser.resetWinStreak();
+        rate(winner, loser, 1);
+        recordResult(winner, PlayerStatsStore.Event.WIN);
+        recordResult(loser, PlayerStatsStore.Event.LOSS);
 
         // Notify players of results
-        winner.sendMessage("W" + (char) winner.getWinStreak());
-        loser.sendMessage("L");
+        winner.sendWin();
+        loser.sendLoss();
 
         // Ask winner if they want to play again
-        winner.sendMessage("Do you want to play again? (Y/N)");
-        String response = winner.readMessage();
+        this.winner = winner;
+        this.loser = loser;
+        phase = Phase.AWAITING_REPLAY;
+        snapshot = new Snapshot(playerX, playerO, snapshot.board, winner, loser);
+        startClock();
+        winner.sendReplayPrompt();
+    }
+
+    // Handles the winner's answer to the replay prompt.
+    private void handleReplayResponse(String response) throws IOException {
+        end();
 
         if (response != null && response.equalsIgnoreCase("Y")) {
             // WINNER GOES TO THE FRONT OF THE QUEUE
-            synchronized (waitingPlayers) {
-                List<PlayerHandler> tempQueue = new ArrayList<>(waitingPlayers);
-                tempQueue.add(0, winner); // Add winner to the front
-                waitingPlayers.clear();
-                waitingPlayers.addAll(tempQueue);
-            }
+            matchmaker.enqueueFront(winner);
             sendQueueUpdate(winner);
+        } else {
+            winner.close(); // Leaving; nothing would ever read or close the connection otherwise
         }
 
         if (!loser.isDisconnected()) {
-            waitingPlayers.offer(loser);
+            matchmaker.enqueue(loser);
             sendQueueUpdate(loser);
         }
-
-        running = false;
     }
     
     // Handles a draw game scenario.
     // Randomly decides which player is requeued first.
     private void handleDraw() {
         System.out.println("Game ended in a draw.");
-        playerX.sendMessage("T");
-        playerO.sendMessage("T");
+        ServerMetrics.GAMES_DRAWN.increment();
+        publishResult(SpectatorGroup.DRAW);
+        journalResult(MoveJournal.Outcome.DRAW);
+        end();
+        playerX.sendTie();
+        playerO.sendTie();
+        rate(playerX, playerO, 0.5);
+        recordResult(playerX, PlayerStatsStore.Event.DRAW);
+        recordResult(playerO, PlayerStatsStore.Event.DRAW);
     
         // Randomly decide order for requeueing
         if (Math.random() < 0.5) {
-            waitingPlayers.offer(playerX);
-            waitingPlayers.offer(playerO);
+            matchmaker.enqueue(playerX);
+            matchmaker.enqueue(playerO);
         } else {
-            waitingPlayers.offer(playerO);
-            waitingPlayers.offer(playerX);
+            matchmaker.enqueue(playerO);
+            matchmaker.enqueue(playerX);
         }
     
         // Send immediate queue updates to both players
         sendQueueUpdate(playerX);
         sendQueueUpdate(playerO);
-    
-        running = false;
+    }
+
+    // Ends the session before its players are requeued, so a new session can claim them.
+    private void end() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        phase = Phase.ENDED;
+        snapshot = null;
+        stopClock();
+        if (holdExpiry != null) {
+            holdExpiry.cancel();
+        }
+        playerX.detachSession(this);
+        playerO.detachSession(this);
+        System.out.println("Game session ended.");
+        if (onEnd != null) {
+            onEnd.run();
+        }
+    }
+
+    // Queues a result for a named player's persistent stats; anonymous players are not tracked.
+    // A player who left loses their streak along with the game.
+    private void recordResult(PlayerHandler player, PlayerStatsStore.Event event) {
+        if (statsStore != null && player.getName() != null) {
+            int streak = event == PlayerStatsStore.Event.LOSS ? 0 : player.getWinStreak();
+            statsStore.record(player.getName(), event, streak, player.getRating(), player.getRatedGames());
+        }
+    }
+
+    // Updates both players' ratings for the result; scoreA is a's score. Bot games are not rated.
+    private void rate(PlayerHandler a, PlayerHandler b, double scoreA) {
+        if (!a.isBot() && !b.isBot()) {
+            Rating.rate(a, b, scoreA);
+        }
+    }
+
+    // Records in the journal that a player's connection dropped mid-game.
+    private void journalDisconnect(PlayerHandler player) {
+        if (journal != null) {
+            journal.disconnected(gameId, player.getSymbol());
+        }
+    }
+
+    private void journalResult(MoveJournal.Outcome outcome) {
+        if (journal != null) {
+            journal.result(gameId, outcome);
+        }
     }
 
     // Helper method to send a queue position update
     private void sendQueueUpdate(PlayerHandler player) {
-        int position = Math.min(waitingPlayers.size(), 255);
-        player.sendMessage("Q" + (char) position);
+        matchmaker.sendQueuePosition(player);
     }
 
-    // Updates both players with the current board state and whose turn it is.
-    private void updateClients() {
-        StringBuilder state = new StringBuilder();
-        char[] boardArray = board.toString().toCharArray();
-    
-        for (int i = 0; i < 9; i++) {
-            state.append("square ").append(i + 1).append(": ").append(boardArray[i]).append(" ");
-        }
-    
-        String formattedBoard = state.toString().trim();
-        
-        playerX.sendMessage(formattedBoard + (playerX.isTurn() ? " 1" : " 0"));
-        playerO.sendMessage(formattedBoard + (playerO.isTurn() ? " 1" : " 0"));
+    // Sends both players the move that was just made and whose turn it is now.
+    private void updateClients(int position, char symbol) {
+        playerX.sendMove(board, position, symbol);
+        playerO.sendMove(board, position, symbol);
+        Board copy = new Board(board);
+        snapshot = new Snapshot(playerX, playerO, copy, null, null);
+        spectators.publish(copy, symbol == 'X' ? SpectatorGroup.O_TO_MOVE : SpectatorGroup.X_TO_MOVE);
+    }
+
+    // Sends spectators the final board and how the game ended.
+    private void publishResult(int status) {
+        spectators.publish(new Board(board), status);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// A client's optional first line, announcing the protocol it wants and who it is:
+//   BINARY 1 [name=<player>] [token=<token>] [watch=<game>] [board=<size>] [ticket=<ticket>]   binary server messages (see BinaryProtocol)
+//   TEXT 1 [name=<player>] [token=<token>] [watch=<game>] [board=<size>] [ticket=<ticket>]     legacy text; only needed to send a parameter
+// name asks for persistent stats; token resumes a game after a reconnect (see ReconnectRegistry);
+// watch makes the client a spectator of a game ("any" or a game id) instead of a player;
+// board asks for games of another size, e.g. board=15x15x5 (see BoardSize); ticket is the one
+// a redirect gave the client, claiming its seat on a game node or its place back in the lobby.
+// Clients that send no hello at all get the text protocol and play anonymously.
+public final class Hello {
+    public static final String BINARY = "BINARY";
+    public static final String TEXT = "TEXT";
+    private static final int MAX_NAME_LENGTH = 32;
+
+    private final String protocol;
+    private final int version;
+    private final Map<String, String> params;
+
+    private Hello(String protocol, int version, Map<String, String> params) {
+        this.protocol = protocol;
+        this.version = version;
+        this.params = params;
+    }
+
+    // Checks if a line looks like a hello of any protocol or version.
+    public static boolean isHello(String line) {
+        return line.startsWith(BINARY + " ") || line.startsWith(TEXT + " ");
+    }
+
+    // Parses a hello line. Returns null if the line is not a well-formed hello;
+    // parameters that are not key=value pairs are ignored.
+    public static Hello parse(String line) {
+        if (line == null || !isHello(line)) {
+            return null;
+        }
+        String[] parts = line.trim().split(" +");
+        if (parts.length < 2) {
+            return null;
+        }
+        int version;
+        try {
+            version = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Map<String, String> params = new HashMap<>();
+        for (int i = 2; i < parts.length; i++) {
+            int equals = parts[i].indexOf('=');
+            if (equals > 0) {
+                params.put(parts[i].substring(0, equals), parts[i].substring(equals + 1));
+            }
+        }
+        return new Hello(parts[0], version, params);
+    }
+
+    // Builds a hello line; the name may be null.
+    public static String format(String protocol, int version, String name) {
+        return format(protocol, version, name, null);
+    }
+
+    // Builds a hello line; the name and the resume token may be null.
+    public static String format(String protocol, int version, String name, String token) {
+        String line = protocol + " " + version;
+        if (name != null) {
+            line += " name=" + name;
+        }
+        if (token != null) {
+            line += " token=" + token;
+        }
+        return line;
+    }
+
+    // Appends a key=value parameter to a hello line, unless the value is null.
+    public static String withParam(String line, String key, String value) {
+        return value == null ? line : line + " " + key + "=" + value;
+    }
+
+    // Checks if a player name can be sent in a hello: 1-32 letters, digits, '_', '-' or '.'.
+    public static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    // Returns a parameter sent with the hello, or null if it was not sent.
+    public String get(String key) {
+        return params.get(key);
+    }
+
+    // Returns the board size the client asked for, or the classic size if none (or an invalid one) was sent.
+    public BoardSize getBoardSize() {
+        BoardSize size = BoardSize.parse(params.get("board"));
+        return size != null ? size : BoardSize.CLASSIC;
+    }
+
+    // Returns the player's name, or null if none (or an invalid one) was sent.
+    public String getName() {
+        String name = params.get("name");
+        return isValidName(name) ? name : null;
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Offline tool that streams a MoveJournal and either rebuilds one game move by move or
+// analyses the whole journal. Only games still in progress at a given point are kept in
+// memory, so journals of any length can be read.
+//
+//   java JournalReplay games.journal          summary: results per board size, game lengths,
+//                                              peak games per second, disconnects, and every
+//                                              game whose entries do not replay cleanly
+//   java JournalReplay games.journal <id>     prints game <id> with the board after each move
+//
+// Every game is replayed on a Board: moves must be legal and alternate X and O, and a
+// recorded win or draw must match the final board.
+public class JournalReplay {
+    // A game being replayed.
+    private static final class Game {
+        final Board board;
+        final long startedAt;
+        char toMove = 'X';
+        boolean consistent = true;
+
+        Game(BoardSize size, long startedAt) {
+            this.board = new Board(size);
+            this.startedAt = startedAt;
+        }
+    }
+
+    // Totals for one board size.
+    private static final class SizeTotals {
+        long games;
+        long moves;
+        long durationMillis;
+        final long[] outcomes = new long[MoveJournal.Outcome.values().length];
+    }
+
+    private final Map<Long, Game> inProgress = new HashMap<>();
+    private final Map<String, SizeTotals> totals = new TreeMap<>();
+    // Results arrive in about time order, so the peak is tracked one second at a time
+    private long currentSecond = -1;
+    private int finishedThisSecond;
+    private int peakPerSecond;
+    private long entries;
+    private long disconnects;
+    private long reconnects;
+    private long inconsistent;
+    private long orphanEntries; // Entries of games whose start is missing
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: java JournalReplay <journal file> [game id]");
+            return;
+        }
+        try (MoveJournal.Reader reader = new MoveJournal.Reader(Files.newInputStream(Paths.get(args[0])))) {
+            if (args.length == 2) {
+                replayGame(reader, Long.parseLong(args[1]));
+            } else {
+                new JournalReplay().summarize(reader);
+            }
+            if (reader.isTorn()) {
+                System.out.println("Journal ends with a torn record after byte " + reader.getValidBytes()
+                        + "; it is cut off the next time the server opens the journal.");
+            }
+        }
+    }
+
+    // Prints every entry of one game, with the board after each move.
+    private static void replayGame(MoveJournal.Reader reader, long gameId) throws IOException {
+        Game game = null;
+        MoveJournal.Entry entry;
+        while ((entry = reader.next()) != null) {
+            if (entry.gameId != gameId) {
+                continue;
+            }
+            if (entry.type == MoveJournal.Type.START) {
+                game = new Game(entry.size, entry.timeMillis);
+                System.out.printf("Game %d on %s: X=%s, O=%s%n", gameId, entry.size,
+                        entry.nameX != null ? entry.nameX : "anonymous", entry.nameO != null ? entry.nameO : "anonymous");
+                continue;
+            }
+            if (game == null) {
+                System.out.println("Journal has entries for game " + gameId + " but not its start.");
+                return;
+            }
+            String at = String.format("[+%.3fs]", (entry.timeMillis - game.startedAt) / 1000.0);
+            switch (entry.type) {
+                case MOVE:
+                    boolean legal = game.board.makeMove(entry.position, entry.symbol);
+                    System.out.println(at + " " + entry.symbol + " plays " + entry.position + (legal ? "" : " (illegal!)"));
+                    printBoard(game.board);
+                    break;
+                case DISCONNECT:
+                    System.out.println(at + " " + entry.symbol + " lost their connection");
+                    break;
+                case RECONNECT:
+                    System.out.println(at + " " + entry.symbol + " reconnected");
+                    break;
+                case RESULT:
+                    System.out.println(at + " Result: " + describe(entry.outcome));
+                    return;
+                default:
+                    break;
+            }
+        }
+        System.out.println(game == null ? "No game " + gameId + " in the journal." : "Game " + gameId + " never finished.");
+    }
+
+    // Replays every game in the journal and prints the totals.
+    private void summarize(MoveJournal.Reader reader) throws IOException {
+        long start = System.nanoTime();
+        long firstTime = 0;
+        long lastTime = 0;
+        MoveJournal.Entry entry;
+        while ((entry = reader.next()) != null) {
+            entries++;
+            if (firstTime == 0) {
+                firstTime = entry.timeMillis;
+            }
+            lastTime = entry.timeMillis;
+            apply(entry);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long games = 0;
+        for (SizeTotals size : totals.values()) {
+            games += size.games;
+        }
+        System.out.printf("%d entries, %d finished games, %d unfinished, over %.1f s of play; read in %.2f s%n",
+                entries, games, inProgress.size(), (lastTime - firstTime) / 1000.0, seconds);
+        System.out.printf("Peak: %d games finished in one second%n", peakPerSecond);
+        for (Map.Entry<String, SizeTotals> size : totals.entrySet()) {
+            SizeTotals t = size.getValue();
+            long[] o = t.outcomes;
+            System.out.printf("%-9s %8d games, %.1f moves and %.0f ms on average; X won %d, O won %d, drawn %d, X left %d, O left %d%n",
+                    size.getKey(), t.games, (double) t.moves / t.games, (double) t.durationMillis / t.games,
+                    o[0], o[1], o[2], o[3], o[4]);
+        }
+        System.out.printf("Disconnects: %d, reconnects: %d%n", disconnects, reconnects);
+        System.out.printf("Inconsistent games: %d, entries without a game start: %d%n", inconsistent, orphanEntries);
+    }
+
+    // Applies one entry to the game it belongs to, checking it against the replayed board.
+    private void apply(MoveJournal.Entry entry) {
+        if (entry.type == MoveJournal.Type.START) {
+            inProgress.put(entry.gameId, new Game(entry.size, entry.timeMillis));
+            return;
+        }
+        Game game = inProgress.get(entry.gameId);
+        if (game == null) {
+            orphanEntries++;
+            return;
+        }
+        switch (entry.type) {
+            case MOVE:
+                if (entry.symbol != game.toMove || !game.board.makeMove(entry.position, entry.symbol)) {
+                    report(entry.gameId, game, "illegal move " + entry.symbol + " " + entry.position);
+                }
+                game.toMove = entry.symbol == 'X' ? 'O' : 'X';
+                break;
+            case DISCONNECT:
+                disconnects++;
+                break;
+            case RECONNECT:
+                reconnects++;
+                break;
+            case RESULT:
+                inProgress.remove(entry.gameId);
+                if (!matchesBoard(entry.outcome, game.board)) {
+                    report(entry.gameId, game, "result " + entry.outcome + " does not match the board " + game.board);
+                }
+                SizeTotals size = totals.computeIfAbsent(game.board.getSize().toString(), key -> new SizeTotals());
+                size.games++;
+                size.moves += game.board.getMoveCount();
+                size.durationMillis += entry.timeMillis - game.startedAt;
+                size.outcomes[entry.outcome.ordinal()]++;
+                countFinished(entry.timeMillis / 1000);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void countFinished(long second) {
+        if (second != currentSecond) {
+            currentSecond = second;
+            finishedThisSecond = 0;
+        }
+        peakPerSecond = Math.max(peakPerSecond, ++finishedThisSecond);
+    }
+
+    private void report(long gameId, Game game, String problem) {
+        if (game.consistent) {
+            game.consistent = false;
+            inconsistent++;
+            System.out.println("Game " + gameId + ": " + problem);
+        }
+    }
+
+    // Checks a recorded win or draw against the final board; forfeits can happen at any point.
+    private static boolean matchesBoard(MoveJournal.Outcome outcome, Board board) {
+        switch (outcome) {
+            case X_WON: return board.checkWin('X');
+            case O_WON: return board.checkWin('O');
+            case DRAW: return board.isFull() && !board.checkWin('X') && !board.checkWin('O');
+            default: return true;
+        }
+    }
+
+    private static String describe(MoveJournal.Outcome outcome) {
+        switch (outcome) {
+            case X_WON: return "X won";
+            case O_WON: return "O won";
+            case DRAW: return "draw";
+            case X_LEFT: return "X left, O wins";
+            default: return "O left, X wins";
+        }
+    }
+
+    private static void printBoard(Board board) {
+        StringBuilder rows = new StringBuilder();
+        for (int row = 0; row < board.getHeight(); row++) {
+            rows.append("   ");
+            for (int col = 0; col < board.getWidth(); col++) {
+                char symbol = board.getSymbolAt(row * board.getWidth() + col + 1);
+                rows.append(' ').append(symbol == ' ' ? '.' : symbol);
+            }
+            rows.append('\n');
+        }
+        System.out.print(rows);
+    }
+}
@@ -0,0 +1,488 @@
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless load generator for the Tic-Tac-Toe server.
+// Starts many scripted bot clients that speak the normal protocol (binary or text), play random
+// legal moves and keep requeueing, then reports latencies, throughput and errors.
+//
+// Options are system properties, e.g. java -Dload.bots=2000 -Dload.rampSec=30 LoadGenerator
+//   load.host, load.port       server address (localhost:9876)
+//   load.bots                  number of bots (100)
+//   load.rampSec               time over which bots are started (0 = all at once)
+//   load.rampProfile           linear, or step:<n> to start bots in n equal batches (linear)
+//   load.durationSec           run time after ramp-up (60); ignored in soak mode
+//   load.soak                  run until killed, reporting periodically (false)
+//   load.protocol              binary or text (binary)
+//   load.thinkMs               delay before each move (0)
+//   load.reportSec             interval between progress reports (5)
+//   load.named                 bots announce names (bot-0, bot-1, ...) so the server keeps their stats (false)
+//   load.spectators            extra clients that only watch games and count updates (0)
+//   load.board                 board size the bots ask for, e.g. 15x15x5 (classic 3x3)
+//
+// Bots follow redirects, so pointing load.port at a lobby exercises a whole multi-node deployment.
+// Bots a busy server turns away count as busy errors and connect again after the wait it asks for.
+public class LoadGenerator {
+    private static final String HOST = System.getProperty("load.host", "localhost");
+    private static final int PORT = Integer.getInteger("load.port", 9876);
+    private static final int BOTS = Integer.getInteger("load.bots", 100);
+    private static final int RAMP_SEC = Integer.getInteger("load.rampSec", 0);
+    private static final String RAMP_PROFILE = System.getProperty("load.rampProfile", "linear");
+    private static final int DURATION_SEC = Integer.getInteger("load.durationSec", 60);
+    private static final boolean SOAK = Boolean.getBoolean("load.soak");
+    private static final boolean BINARY = !"text".equals(System.getProperty("load.protocol", "binary"));
+    private static final int THINK_MS = Integer.getInteger("load.thinkMs", 0);
+    private static final int REPORT_SEC = Integer.getInteger("load.reportSec", 5);
+    private static final boolean NAMED = Boolean.getBoolean("load.named");
+    private static final int SPECTATORS = Integer.getInteger("load.spectators", 0);
+    private static final String BOARD_SIZE = System.getProperty("load.board");
+
+    // Latencies are recorded in nanoseconds
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram matchLatency = new LatencyHistogram();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder losses = new LongAdder();
+    private final LongAdder ties = new LongAdder();
+    private final LongAdder connectErrors = new LongAdder();
+    private final LongAdder ioErrors = new LongAdder();
+    private final LongAdder protocolErrors = new LongAdder();
+    private final LongAdder invalidMoves = new LongAdder();
+    private final LongAdder textFallbacks = new LongAdder();
+    private final LongAdder busyRejections = new LongAdder();
+    private final LongAdder spectatorUpdates = new LongAdder();
+    private final AtomicLong connectedBots = new AtomicLong();
+    private final ConcurrentLinkedQueue<Bot> bots = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private final long startTime = System.nanoTime();
+    private long lastReportTime = startTime;
+    private long lastReportGames = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        new LoadGenerator().run();
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("Load test: %d %s bots against %s:%d, ramp %ds (%s), %s%n", BOTS,
+                BINARY ? "binary" : "text", HOST, PORT, RAMP_SEC, RAMP_PROFILE,
+                SOAK ? "soak mode" : DURATION_SEC + "s after ramp-up");
+
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+        Thread reporter = new Thread(this::reportPeriodically, "load-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        rampUp(executor);
+        for (int i = 0; i < SPECTATORS; i++) {
+            Bot watcher = new Bot(null, true);
+            bots.add(watcher);
+            executor.execute(watcher);
+        }
+        if (SOAK) {
+            Thread.sleep(Long.MAX_VALUE);
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(DURATION_SEC));
+
+        running = false;
+        for (Bot bot : bots) {
+            bot.close();
+        }
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        System.out.println("Final results:");
+        System.out.println(report());
+        System.exit(0);
+    }
+
+    // Starts the bots according to the ramp-up profile.
+    private void rampUp(ExecutorService executor) throws InterruptedException {
+        int batches = 1;
+        if (RAMP_PROFILE.startsWith("step:")) {
+            batches = Math.max(1, Integer.parseInt(RAMP_PROFILE.substring(5)));
+        } else if (RAMP_SEC > 0) {
+            batches = BOTS; // Linear: one bot per batch, evenly spaced
+        }
+        long rampNanos = TimeUnit.SECONDS.toNanos(RAMP_SEC);
+        int started = 0;
+        for (int batch = 0; batch < batches; batch++) {
+            long due = startTime + rampNanos * batch / batches;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            int target = (int) ((long) BOTS * (batch + 1) / batches);
+            for (; started < target; started++) {
+                Bot bot = new Bot(NAMED ? "bot-" + started : null, false);
+                bots.add(bot);
+                executor.execute(bot);
+            }
+        }
+    }
+
+    private void reportPeriodically() {
+        while (running) {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(REPORT_SEC));
+            } catch (InterruptedException e) {
+                return;
+            }
+            System.out.println(report());
+        }
+    }
+
+    // Builds a multi-line report of everything measured so far.
+    private synchronized String report() {
+        long now = System.nanoTime();
+        long games = wins.sum() + ties.sum() / 2; // Every decisive game has one winner, a tie has two
+        double elapsed = (now - startTime) / 1e9;
+        double window = (now - lastReportTime) / 1e9;
+        double recentRate = window > 0 ? (games - lastReportGames) / window : 0;
+        lastReportTime = now;
+        lastReportGames = games;
+
+        return String.format("[%.0fs] bots connected=%d games=%d (%.1f games/s now, %.1f avg) W/L/T=%d/%d/%d%n"
+                        + "  connect: %s%n  match:   %s%n  move:    %s%n"
+                        + "  errors: connect=%d io=%d protocol=%d invalidMoves=%d textFallbacks=%d busy=%d"
+                        + (SPECTATORS > 0 ? "%n  spectator updates: " + spectatorUpdates.sum() : ""),
+                elapsed, connectedBots.get(), games, recentRate, elapsed > 0 ? games / elapsed : 0,
+                wins.sum(), losses.sum(), ties.sum(),
+                connectLatency.summary("ms", 1e6), matchLatency.summary("ms", 1e6), moveLatency.summary("ms", 1e6),
+                connectErrors.sum(), ioErrors.sum(), protocolErrors.sum(), invalidMoves.sum(),
+                textFallbacks.sum(), busyRejections.sum());
+    }
+
+    // A scripted client: connects, plays random legal moves and always asks to play again.
+    // A watching bot only spectates and counts the updates it receives.
+    private class Bot implements Runnable {
+        private final String name; // Null for an anonymous bot
+        private final boolean watching;
+        private char[] board = new char[9];
+        private Socket socket;
+        private PrintWriter output;
+        private String host = HOST; // Changed by redirects between a lobby and its game nodes
+        private int port = PORT;
+        private String ticket;      // Sent in the next hello after a redirect
+        private boolean redirected;
+        private long retryAfterMs; // Wait a busy server asked for before connecting again, 0 if none
+        private long queuedAt;     // When the bot last entered the queue
+        private long moveSentAt;   // When the last move was sent, 0 if none is outstanding
+
+        Bot(String name, boolean watching) {
+            this.name = name;
+            this.watching = watching;
+        }
+
+        @Override
+        public void run() {
+            if (!open()) {
+                return;
+            }
+            connectedBots.incrementAndGet();
+            queuedAt = System.nanoTime();
+
+            try {
+                play();
+                // Follow redirects from a lobby to a game node and back, and come back to a busy
+                // server when it said to; each connect is timed
+                while ((redirected || retryAfterMs > 0) && running) {
+                    redirected = false;
+                    close();
+                    if (retryAfterMs > 0) {
+                        Thread.sleep(retryAfterMs + ThreadLocalRandom.current().nextLong(retryAfterMs / 2 + 1));
+                        retryAfterMs = 0;
+                        queuedAt = System.nanoTime();
+                    }
+                    if (!open()) {
+                        break;
+                    }
+                    play();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    ioErrors.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connectedBots.decrementAndGet();
+                close();
+            }
+        }
+
+        // Connects to the current server, recording the connect latency. Returns false on failure.
+        private boolean open() {
+            long connectStart = System.nanoTime();
+            try {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port));
+            } catch (IOException e) {
+                connectErrors.increment();
+                return false;
+            }
+            connectLatency.record(System.nanoTime() - connectStart);
+            return true;
+        }
+
+        // Sends the hello and plays until the connection ends or the server redirects the bot.
+        private void play() throws IOException {
+            InputStream rawInput = new BufferedInputStream(socket.getInputStream());
+            output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+            if (BINARY) {
+                String hello = Hello.withParam(Hello.format(Hello.BINARY, BinaryProtocol.VERSION, name), "ticket", ticket);
+                send(watching ? Hello.withParam(hello, "watch", "any") : Hello.withParam(hello, "board", BOARD_SIZE));
+                String firstLine = readLine(rawInput);
+                if (BinaryProtocol.HELLO.equals(firstLine)) {
+                    playBinary(new DataInputStream(rawInput));
+                } else if (TextProtocol.parseBusy(firstLine) >= 0) {
+                    onBusy(TextProtocol.parseBusy(firstLine)); // Turned away before the handshake
+                } else {
+                    // The handshake timed out on the server; carry on in text like the real client
+                    textFallbacks.increment();
+                    playText(new BufferedReader(new InputStreamReader(rawInput)), firstLine);
+                }
+            } else {
+                String hello = Hello.withParam(Hello.format(Hello.TEXT, 1, name), "ticket", ticket);
+                if (watching) {
+                    send(Hello.withParam(hello, "watch", "any"));
+                } else if (name != null || ticket != null || BOARD_SIZE != null) {
+                    send(Hello.withParam(hello, "board", BOARD_SIZE));
+                }
+                playText(new BufferedReader(new InputStreamReader(rawInput)), null);
+            }
+        }
+
+        private void onRedirect(String newHost, int newPort, String newTicket) {
+            host = newHost;
+            port = newPort;
+            ticket = newTicket;
+            redirected = true;
+        }
+
+        private void onBusy(long wait) {
+            busyRejections.increment();
+            retryAfterMs = Math.max(1, wait);
+        }
+
+        private void playBinary(DataInputStream in) throws IOException {
+            while (running) {
+                int length = BinaryProtocol.readVarint(in);
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                int[] offset = {1};
+                switch (frame[0]) {
+                    case BinaryProtocol.BOARD: {
+                        int flags = frame[offset[0]++];
+                        int width = BinaryProtocol.readVarint(frame, offset);
+                        int height = BinaryProtocol.readVarint(frame, offset);
+                        resize(width * height);
+                        byte[] packed = Arrays.copyOfRange(frame, offset[0], frame.length);
+                        for (int i = 0; i < board.length; i++) {
+                            int cell = BinaryProtocol.cellAt(packed, i);
+                            board[i] = cell == BinaryProtocol.CELL_X ? 'X' : cell == BinaryProtocol.CELL_O ? 'O' : ' ';
+                        }
+                        onGameStart();
+                        onBoard((flags & BinaryProtocol.FLAG_YOUR_TURN) != 0);
+                        break;
+                    }
+                    case BinaryProtocol.MOVE: {
+                        int index = BinaryProtocol.readVarint(frame, offset);
+                        int flags = frame[offset[0]];
+                        board[index] = (flags & BinaryProtocol.FLAG_SYMBOL_O) != 0 ? 'O' : 'X';
+                        onBoard((flags & BinaryProtocol.FLAG_YOUR_TURN) != 0);
+                        break;
+                    }
+                    case BinaryProtocol.WIN:
+                        onResult(wins);
+                        break;
+                    case BinaryProtocol.LOSS:
+                        onResult(losses);
+                        break;
+                    case BinaryProtocol.TIE:
+                        onResult(ties);
+                        break;
+                    case BinaryProtocol.INVALID_MOVE:
+                        onInvalidMove();
+                        break;
+                    case BinaryProtocol.REPLAY_PROMPT:
+                        send("Y");
+                        break;
+                    case BinaryProtocol.SPECTATE:
+                        spectatorUpdates.increment();
+                        break;
+                    case BinaryProtocol.REDIRECT: {
+                        int newPort = BinaryProtocol.readVarint(frame, offset);
+                        int hostLength = BinaryProtocol.readVarint(frame, offset);
+                        String newHost = new String(frame, offset[0], hostLength, "UTF-8");
+                        int ticketStart = offset[0] + hostLength;
+                        onRedirect(newHost, newPort, new String(frame, ticketStart, frame.length - ticketStart, "UTF-8"));
+                        return;
+                    }
+                    case BinaryProtocol.BUSY:
+                        onBusy(BinaryProtocol.readVarint(frame, offset));
+                        return;
+                    default:
+                        break; // Symbol, waiting, queue position and forfeit notices need no action
+                }
+            }
+        }
+
+        private void playText(BufferedReader in, String firstLine) throws IOException {
+            boolean inGame = false;
+            String message = firstLine != null ? firstLine : in.readLine();
+            for (; running && message != null; message = in.readLine()) {
+                if (message.startsWith("spectate ")) {
+                    spectatorUpdates.increment();
+                } else if (message.startsWith("size ")) {
+                    BoardSize size = BoardSize.parse(message.substring("size ".length()));
+                    resize(size != null ? size.getCellCount() : 9);
+                } else if (message.equals("x") || message.equals("o")) {
+                    resize(9); // A "size" line follows for any other board
+                } else if (message.startsWith("square 1")) {
+                    if (!parseTextBoard(message)) {
+                        protocolErrors.increment();
+                        continue;
+                    }
+                    if (!inGame) {
+                        inGame = true;
+                        onGameStart();
+                    }
+                    onBoard(message.endsWith(" 1"));
+                } else if (message.startsWith("W")) {
+                    inGame = false;
+                    onResult(wins);
+                } else if (message.equals("L")) {
+                    inGame = false;
+                    onResult(losses);
+                } else if (message.equals("T")) {
+                    inGame = false;
+                    onResult(ties);
+                } else if (message.equals("I")) {
+                    onInvalidMove();
+                } else if (message.startsWith("Do you want to play again")) {
+                    send("Y");
+                } else if (message.startsWith("redirect ")) {
+                    String[] parts = message.split(" ");
+                    int colon = parts.length == 3 ? parts[1].lastIndexOf(':') : -1;
+                    if (colon <= 0) {
+                        protocolErrors.increment();
+                        continue;
+                    }
+                    onRedirect(parts[1].substring(0, colon), Integer.parseInt(parts[1].substring(colon + 1)), parts[2]);
+                    return;
+                } else if (TextProtocol.parseBusy(message) >= 0) {
+                    onBusy(TextProtocol.parseBusy(message));
+                    return;
+                }
+            }
+        }
+
+        // Parses "square 1: X square 2:   ... 1" into the board. Returns false if malformed.
+        private boolean parseTextBoard(String message) {
+            String[] parts = message.split("square [0-9]+: ");
+            if (parts.length != board.length + 1) {
+                return false;
+            }
+            for (int i = 1; i <= board.length; i++) {
+                String value = parts[i];
+                if (i == board.length) {
+                    value = value.substring(0, Math.max(0, value.length() - 1)); // Drop the turn indicator
+                }
+                value = value.trim();
+                board[i - 1] = value.isEmpty() ? ' ' : value.charAt(0);
+            }
+            return true;
+        }
+
+        private void resize(int cells) {
+            if (board.length != cells) {
+                board = new char[cells];
+                Arrays.fill(board, ' ');
+            }
+        }
+
+        private void onGameStart() {
+            matchLatency.record(System.nanoTime() - queuedAt);
+        }
+
+        // Handles a board update; plays a random empty square when it is the bot's turn.
+        private void onBoard(boolean yourTurn) throws IOException {
+            if (moveSentAt != 0) {
+                moveLatency.record(System.nanoTime() - moveSentAt);
+                moveSentAt = 0;
+            }
+            if (!yourTurn) {
+                return;
+            }
+            if (THINK_MS > 0) {
+                try {
+                    Thread.sleep(THINK_MS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            List<Integer> empty = new ArrayList<>(board.length);
+            for (int i = 0; i < board.length; i++) {
+                if (board[i] == ' ') {
+                    empty.add(i + 1);
+                }
+            }
+            if (empty.isEmpty()) {
+                protocolErrors.increment();
+                return;
+            }
+            moveSentAt = System.nanoTime();
+            send(Integer.toString(empty.get(ThreadLocalRandom.current().nextInt(empty.size()))));
+        }
+
+        private void onResult(LongAdder counter) {
+            counter.increment();
+            moveSentAt = 0;
+            Arrays.fill(board, ' ');
+            queuedAt = System.nanoTime(); // The server requeues the bot (winners after answering Y)
+        }
+
+        private void onInvalidMove() {
+            invalidMoves.increment();
+            moveSentAt = 0;
+        }
+
+        private void send(String line) {
+            output.print(line);
+            output.print('\n');
+            output.flush();
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        void close() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException ignored) {
+                // Shutting down anyway
+            }
+        }
+    }
+}
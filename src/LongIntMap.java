@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+// Open-addressing hash map from long keys to int values, with no boxing and no per-entry objects.
+// Linear probing over power-of-two tables kept at most half full. Key 0 is reserved as the
+// empty marker. Not thread-safe.
+public class LongIntMap {
+    private static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    public LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    // Returns the value for a key, or -1 if the key is absent.
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slotFor(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == 0) {
+                return MISSING;
+            }
+        }
+    }
+
+    // Maps a non-zero key to a value, replacing any previous value.
+    public void put(long key, int value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        for (int i = slotFor(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            if (k == 0) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    // Calls the visitor for every entry, in table order.
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    // Receives the entries of a LongIntMap.
+    public interface Visitor {
+        void visit(long key, int value);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slotFor(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads sequential keys
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.concurrent.LinkedBlockingDeque;
+
+// In-memory connection whose client is an object in the same process rather than a socket.
+// Everything the server writes is handed straight to the client's Peer on the writing thread,
+// and lines the client sends are queued for readLine, so game logic runs without any TCP.
+// A peer that answers from inside its callbacks never makes a session wait: by the time the
+// session reads the next move, it is already queued.
+public class LoopbackConnection implements PlayerConnection {
+    // The client end of a loopback connection.
+    public interface Peer {
+        // Receives a text line sent by the server, without its newline.
+        void onLine(String line);
+
+        // Receives bytes sent by the server; protocols write one whole frame per call.
+        void onBytes(byte[] data);
+    }
+
+    // Wakes a reader blocked on an empty queue when the connection closes; compared by identity
+    private static final String END_OF_INPUT = new String("");
+
+    private final Peer peer;
+    private final LinkedBlockingDeque<String> input = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+
+    public LoopbackConnection(Peer peer) {
+        this.peer = peer;
+    }
+
+    // Sends a line from the client to the server.
+    public void send(String line) {
+        if (!closed) {
+            input.offerLast(line);
+        }
+    }
+
+    @Override
+    public String readLine() {
+        if (closed && input.isEmpty()) {
+            return null;
+        }
+        try {
+            String line = input.takeFirst();
+            return line == END_OF_INPUT ? null : line;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public void writeLine(String line) {
+        if (!closed) {
+            peer.onLine(line);
+        }
+    }
+
+    @Override
+    public void write(byte[] data) {
+        if (!closed) {
+            peer.onBytes(data);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Closes both directions; lines the client already sent can still be read.
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            input.offerLast(END_OF_INPUT);
+        }
+    }
+}
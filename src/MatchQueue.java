@@ -0,0 +1,333 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Waiting queue shared by the matchmaker, the server and game sessions.
+// A doubly linked list plus an index from player to list node, all guarded by one
+// ReentrantLock: adding at either end, polling and removing a given player are O(1).
+//
+// Queue positions come from a Fenwick tree over "slots": players added at the back take
+// increasing slots, players added at the front take decreasing ones, so slot order is queue
+// order and a player's position is the number of occupied slots up to theirs, in O(log n).
+// When either end runs out of slots, the live players are renumbered into a fresh tree.
+public class MatchQueue {
+    private static final int MIN_CAPACITY = 64;
+
+    // A queued player and its neighbours.
+    private static final class Node {
+        final PlayerHandler player;
+        Node prev;
+        Node next;
+        int slot;
+        int lastSentPosition; // Last position sent to the player, 0 if none
+
+        Node(PlayerHandler player) {
+            this.player = player;
+        }
+    }
+
+    // A position change that should be sent to a player.
+    public static final class PositionUpdate {
+        public final PlayerHandler player;
+        public final int position;
+
+        PositionUpdate(PlayerHandler player, int position) {
+            this.player = player;
+            this.position = position;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<PlayerHandler, Node> nodes = new HashMap<>();
+    private Node head;
+    private Node tail;
+
+    // Fenwick tree counting occupied slots, and the next free slot at each end
+    private int[] tree = new int[MIN_CAPACITY + 1];
+    private int nextFrontSlot = MIN_CAPACITY / 2 - 1;
+    private int nextBackSlot = MIN_CAPACITY / 2;
+
+    // Adds a player to the back of the queue. Returns false if the player was already queued.
+    public boolean offer(PlayerHandler player) {
+        lock.lock();
+        try {
+            if (nodes.containsKey(player)) {
+                return false;
+            }
+            if (nextBackSlot == capacity()) {
+                renumber();
+            }
+            Node node = new Node(player);
+            nodes.put(player, node);
+            linkLast(node);
+            node.slot = nextBackSlot++;
+            addToTree(node.slot, 1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Puts a player at the front of the queue, moving them there if they were already queued.
+    public void offerFirst(PlayerHandler player) {
+        lock.lock();
+        try {
+            Node node = nodes.get(player);
+            if (node == null) {
+                node = new Node(player);
+                nodes.put(player, node);
+            } else {
+                unlink(node);
+                addToTree(node.slot, -1);
+            }
+            linkFirst(node);
+            if (nextFrontSlot < 0) {
+                renumber(); // Also assigns the new head a slot
+            } else {
+                node.slot = nextFrontSlot--;
+                addToTree(node.slot, 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Puts a player right behind another queued player, e.g. to give a player restored from a
+    // snapshot back their place. Returns false, changing nothing, if anchor is not queued or the
+    // player already is. Only inserting behind the last player has a free slot; anywhere else
+    // the queue is renumbered, in O(n), which is fine for something that happens after restarts.
+    public boolean offerAfter(PlayerHandler anchor, PlayerHandler player) {
+        lock.lock();
+        try {
+            Node before = nodes.get(anchor);
+            if (before == null || nodes.containsKey(player)) {
+                return false;
+            }
+            Node node = new Node(player);
+            nodes.put(player, node);
+            boolean last = before == tail;
+            linkAfter(before, node);
+            if (last && nextBackSlot < capacity()) {
+                node.slot = nextBackSlot++;
+                addToTree(node.slot, 1);
+            } else {
+                renumber(); // Also assigns the new node a slot
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes and returns the player at the front, or null if the queue is empty.
+    public PlayerHandler poll() {
+        lock.lock();
+        try {
+            Node node = head;
+            if (node == null) {
+                return null;
+            }
+            unlink(node);
+            nodes.remove(node.player);
+            addToTree(node.slot, -1);
+            return node.player;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the player at the front without removing them, or null if the queue is empty.
+    public PlayerHandler peek() {
+        lock.lock();
+        try {
+            return head != null ? head.player : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes a player wherever they are in the queue. Returns false if they were not queued.
+    public boolean remove(PlayerHandler player) {
+        lock.lock();
+        try {
+            Node node = nodes.remove(player);
+            if (node == null) {
+                return false;
+            }
+            unlink(node);
+            addToTree(node.slot, -1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(PlayerHandler player) {
+        lock.lock();
+        try {
+            return nodes.containsKey(player);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns a player's 1-based position in the queue, or 0 if they are not queued.
+    public int positionOf(PlayerHandler player) {
+        lock.lock();
+        try {
+            Node node = nodes.get(player);
+            return node == null ? 0 : prefixCount(node.slot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns a player's position and records it as sent, or 0 if they are not queued.
+    public int claimPosition(PlayerHandler player) {
+        lock.lock();
+        try {
+            Node node = nodes.get(player);
+            if (node == null) {
+                return 0;
+            }
+            node.lastSentPosition = prefixCount(node.slot);
+            return node.lastSentPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Collects the players whose position differs from the last one sent to them,
+    // and records the new positions as sent. The caller sends them outside the lock.
+    public List<PositionUpdate> collectPositionChanges() {
+        lock.lock();
+        try {
+            List<PositionUpdate> updates = new ArrayList<>();
+            int position = 1;
+            for (Node node = head; node != null; node = node.next, position++) {
+                if (node.lastSentPosition != position) {
+                    node.lastSentPosition = position;
+                    updates.add(new PositionUpdate(node.player, position));
+                }
+            }
+            return updates;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the queued players in order, front first.
+    public List<PlayerHandler> snapshot() {
+        lock.lock();
+        try {
+            List<PlayerHandler> players = new ArrayList<>(nodes.size());
+            for (Node node = head; node != null; node = node.next) {
+                players.add(node.player);
+            }
+            return players;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int capacity() {
+        return tree.length - 1;
+    }
+
+    // Adds delta at a 0-based slot of the Fenwick tree.
+    private void addToTree(int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // Counts occupied slots from 0 up to and including the given slot.
+    private int prefixCount(int slot) {
+        int count = 0;
+        for (int i = slot + 1; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    // Gives every queued player a fresh consecutive slot, centred in a tree sized for the queue.
+    // Runs only after a full end's worth of inserts, so its O(capacity) cost is amortized O(1).
+    private void renumber() {
+        int size = nodes.size();
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size) * 4 - 1) << 1);
+        tree = new int[capacity + 1];
+        int slot = (capacity - size) / 2;
+        nextFrontSlot = slot - 1;
+        for (Node node = head; node != null; node = node.next) {
+            node.slot = slot++;
+            tree[node.slot + 1] = 1;
+        }
+        nextBackSlot = slot;
+        // Build the tree in place in O(capacity)
+        for (int i = 1; i < tree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    private void linkFirst(Node node) {
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        } else {
+            tail = node;
+        }
+        head = node;
+    }
+
+    private void linkLast(Node node) {
+        node.next = null;
+        node.prev = tail;
+        if (tail != null) {
+            tail.next = node;
+        } else {
+            head = node;
+        }
+        tail = node;
+    }
+
+    private void linkAfter(Node before, Node node) {
+        node.prev = before;
+        node.next = before.next;
+        if (before.next != null) {
+            before.next.prev = node;
+        } else {
+            tail = node;
+        }
+        before.next = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+}
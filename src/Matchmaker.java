@@ -0,0 +1,463 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Event-driven matchmaking for the Tic-Tac-Toe server.
+// A dedicated thread sleeps until something changes (a player is queued or requeued,
+// or a game finishes), then pairs waiting players. Queue position updates are batched:
+// each player gets at most one update per interval, and only if their position changed.
+// If bot opponents are enabled, a player left waiting alone for long enough gets a BotPlayer.
+// With a queue idle timeout, a player still unmatched when it runs out is removed and disconnected.
+//
+// Every board size the server offers has its own queue, and players are only paired with
+// players waiting for the same size. Players asking for a size that is not offered play classic.
+//
+// Pairing is first come, first served unless rating matching is enabled. Then every queue also
+// has a RatingIndex, and a player is paired with the nearest-rated player within their rating
+// window, which starts narrow and widens the longer they wait: a narrow window makes fairer
+// games, a fast-growing one shorter waits. Newcomers are tried as soon as they arrive, and
+// everyone still waiting is tried again with their wider window once per sweep interval.
+public class Matchmaker implements Runnable, PlayerQueue {
+    // Queues by board size; replaced only before the matchmaker starts
+    private volatile Map<BoardSize, MatchQueue> queues = Map.of(BoardSize.CLASSIC, new MatchQueue());
+    private final GameHost host;
+    private final long positionUpdateIntervalNanos;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile Thread thread;
+    private PerfectPlayTable botTable; // Null when bot opponents are disabled
+    private BotPlayer.Difficulty botDifficulty;
+    private long botWaitNanos;
+    private TimingWheel timers; // Null when queued players may wait forever
+    private long queueIdleTimeoutMs;
+    // Rating matching; indexes stay null for first come, first served pairing
+    private static final long RATING_SWEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private volatile Map<BoardSize, RatingIndex> indexes;
+    private int ratingBucketWidth;
+    private int ratingWindow;
+    private int ratingWindowGrowthPerSec;
+    private int ratingWindowMax;
+    private final Queue<PlayerHandler> arrivals = new ConcurrentLinkedQueue<>(); // Not yet tried for a rated match
+
+    // Only touched by the matchmaking thread
+    private boolean positionsDirty = false;
+    private long lastPositionUpdate = System.nanoTime();
+    private long nextRatingSweep = System.nanoTime();
+
+    // Creates a matchmaker that starts its games on the given host and
+    // sends queue position updates at most once per positionUpdateIntervalMs.
+    public Matchmaker(GameHost host, long positionUpdateIntervalMs) {
+        this.host = host;
+        this.positionUpdateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(positionUpdateIntervalMs);
+        host.setOnSessionFinished(this::signal);
+    }
+
+    // Pairs a player who has waited alone for waitMs with a bot of the given difficulty.
+    // Must be called before start.
+    public void enableBots(PerfectPlayTable table, BotPlayer.Difficulty difficulty, long waitMs) {
+        this.botTable = table;
+        this.botDifficulty = difficulty;
+        this.botWaitNanos = TimeUnit.MILLISECONDS.toNanos(waitMs);
+    }
+
+    // Removes players who have waited idleTimeoutMs for a game. Must be called before start.
+    public void setQueueIdleTimeout(TimingWheel timers, long idleTimeoutMs) {
+        this.timers = idleTimeoutMs > 0 ? timers : null;
+        this.queueIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    // Pairs players by rating instead of arrival order: each player accepts opponents rated up to
+    // window points away, widening by growthPerSec points per second waited up to maxWindow.
+    // Ratings are indexed in buckets of bucketWidth points. Must be called before start.
+    public void enableRatingMatch(int bucketWidth, int window, int growthPerSec, int maxWindow) {
+        this.ratingBucketWidth = bucketWidth;
+        this.ratingWindow = window;
+        this.ratingWindowGrowthPerSec = growthPerSec;
+        this.ratingWindowMax = Math.max(window, maxWindow);
+    }
+
+    // Checks if players are paired by rating rather than arrival order.
+    public boolean isRatingMatch() {
+        return ratingBucketWidth > 0;
+    }
+
+    // Offers games of the given sizes in addition to the classic one. Must be called before start.
+    public void offerBoardSizes(Collection<BoardSize> sizes) {
+        Map<BoardSize, MatchQueue> offered = new LinkedHashMap<>(queues);
+        for (BoardSize size : sizes) {
+            offered.putIfAbsent(size, new MatchQueue());
+        }
+        queues = offered;
+    }
+
+    // Returns the board sizes players can be matched for.
+    public Set<BoardSize> getBoardSizes() {
+        return queues.keySet();
+    }
+
+    // Starts the matchmaking thread.
+    public void start() {
+        if (isRatingMatch()) {
+            Map<BoardSize, RatingIndex> byRating = new LinkedHashMap<>();
+            for (BoardSize size : queues.keySet()) {
+                byRating.put(size, new RatingIndex(ratingBucketWidth));
+            }
+            indexes = byRating;
+        }
+        Thread matchmakingThread = new Thread(this, "matchmaker");
+        matchmakingThread.setDaemon(true);
+        thread = matchmakingThread;
+        matchmakingThread.start();
+    }
+
+    // Adds a player to the back of the queue. Players who already left (including bots,
+    // which close after their game) are not queued.
+    @Override
+    public void enqueue(PlayerHandler player) {
+        if (player.isDisconnected()) {
+            return;
+        }
+        player.markQueued();
+        startIdleClock(player);
+        if (queueFor(player).offer(player)) {
+            index(player);
+            signal();
+        }
+    }
+
+    // Puts a player at the front of the queue, e.g. a returning winner.
+    @Override
+    public void enqueueFront(PlayerHandler player) {
+        player.markQueued();
+        startIdleClock(player);
+        queueFor(player).offerFirst(player);
+        index(player);
+        signal();
+    }
+
+    // Puts a player right behind another waiting player, e.g. a player restored from a snapshot
+    // rejoining in their old place. Returns false, without queueing the player, if anchor is no
+    // longer waiting for the player's board size.
+    public boolean enqueueAfter(PlayerHandler anchor, PlayerHandler player) {
+        if (player.isDisconnected()) {
+            return false;
+        }
+        player.markQueued();
+        startIdleClock(player);
+        if (!queueFor(player).offerAfter(anchor, player)) {
+            player.setQueueTimeout(null);
+            return false;
+        }
+        index(player);
+        signal();
+        return true;
+    }
+
+    // Removes a player who left while waiting.
+    public void remove(PlayerHandler player) {
+        player.setQueueTimeout(null);
+        if (queueFor(player).remove(player)) {
+            unindex(player);
+            ServerMetrics.disconnected(ServerMetrics.DisconnectCause.CLOSED_IN_QUEUE);
+            signal();
+        }
+    }
+
+    // Sends a player their current queue position right away, e.g. after being requeued.
+    @Override
+    public void sendQueuePosition(PlayerHandler player) {
+        int position = queueFor(player).claimPosition(player);
+        if (position > 0) {
+            player.sendQueuePosition(position);
+        }
+    }
+
+    // Returns the players currently waiting, each board size's queue in order, front first.
+    public List<PlayerHandler> queuedPlayers() {
+        List<PlayerHandler> players = new ArrayList<>();
+        for (MatchQueue queue : queues.values()) {
+            players.addAll(queue.snapshot());
+        }
+        return players;
+    }
+
+    // Returns the number of players currently waiting, for all board sizes.
+    public int queueSize() {
+        int size = 0;
+        for (MatchQueue queue : queues.values()) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    private void startIdleClock(PlayerHandler player) {
+        if (timers != null) {
+            player.setQueueTimeout(timers.schedule(() -> expireQueued(player), queueIdleTimeoutMs));
+        }
+    }
+
+    // Removes and disconnects a player whose idle timeout ran out, unless they were matched first.
+    private void expireQueued(PlayerHandler player) {
+        if (!queueFor(player).remove(player)) {
+            return;
+        }
+        unindex(player);
+        ServerMetrics.QUEUE_TIMEOUTS.increment();
+        ServerMetrics.disconnected(ServerMetrics.DisconnectCause.TIMED_OUT);
+        System.out.println("Removed a player who waited too long for a game.");
+        try {
+            player.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        signal();
+    }
+
+    // Returns the queue for the player's board size, switching the player to the classic
+    // size if theirs is not offered.
+    private MatchQueue queueFor(PlayerHandler player) {
+        MatchQueue queue = queues.get(player.getBoardSize());
+        if (queue == null) {
+            player.setBoardSize(BoardSize.CLASSIC);
+            queue = queues.get(BoardSize.CLASSIC);
+        }
+        return queue;
+    }
+
+    // Files a queued player in their queue's rating index, and marks them to be tried right away.
+    private void index(PlayerHandler player) {
+        Map<BoardSize, RatingIndex> byRating = indexes;
+        if (byRating != null) {
+            byRating.get(player.getBoardSize()).add(player);
+            arrivals.add(player);
+        }
+    }
+
+    private void unindex(PlayerHandler player) {
+        Map<BoardSize, RatingIndex> byRating = indexes;
+        if (byRating != null) {
+            byRating.get(player.getBoardSize()).remove(player);
+        }
+    }
+
+    // Wakes the matchmaking thread. Signals that arrive while it is busy are merged into one pass.
+    public void signal() {
+        if (pending.compareAndSet(false, true)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Waits for changes and runs a matchmaking pass for each batch of them.
+    // While position updates are outstanding it also wakes up when the next batch is due.
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (pending.getAndSet(false)) {
+                    startNewGamesIfPossible();
+                    positionsDirty = true;
+                }
+                long untilSweep = sweepIfDue();
+                long untilBotGame = startBotGameIfDue();
+                long sinceLastUpdate = System.nanoTime() - lastPositionUpdate;
+                if (positionsDirty && sinceLastUpdate >= positionUpdateIntervalNanos) {
+                    notifyQueuedPlayers();
+                    positionsDirty = false;
+                    lastPositionUpdate = System.nanoTime();
+                    sinceLastUpdate = 0;
+                }
+
+                if (!pending.get()) {
+                    long wait = Math.min(untilBotGame, untilSweep);
+                    if (positionsDirty) {
+                        wait = Math.min(wait, positionUpdateIntervalNanos - sinceLastUpdate);
+                    }
+                    if (wait == Long.MAX_VALUE) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Pairs waiting players and starts as many games as the session cap allows.
+    // Only the matchmaking thread polls the queues, so pairs are never split between threads.
+    private void startNewGamesIfPossible() {
+        if (indexes != null) {
+            startRatedGamesIfPossible();
+            return;
+        }
+        for (MatchQueue waitingPlayers : queues.values()) {
+            startNewGamesIfPossible(waitingPlayers);
+        }
+    }
+
+    private void startNewGamesIfPossible(MatchQueue waitingPlayers) {
+        while (host.hasCapacity() && waitingPlayers.size() >= 2) {
+            PlayerHandler winner = waitingPlayers.poll(); // First player (could be the returning winner)
+            if (winner == null || winner.isDisconnected()) {
+                continue;
+            }
+
+            PlayerHandler nextPlayer = waitingPlayers.poll(); // Next available player
+
+            if (nextPlayer != null && !nextPlayer.isDisconnected()) {
+                System.out.println("Starting a new game.");
+                long now = System.nanoTime();
+                ServerMetrics.QUEUE_WAIT.record(now - winner.getQueuedAt());
+                ServerMetrics.QUEUE_WAIT.record(now - nextPlayer.getQueuedAt());
+                winner.setQueueTimeout(null);
+                nextPlayer.setQueueTimeout(null);
+                host.startGame(winner, nextPlayer, this);
+            } else if (!winner.isDisconnected()) {
+                // If there's no available second player, put the winner back at the front
+                waitingPlayers.offerFirst(winner);
+            }
+        }
+    }
+
+    // Tries every player who joined a queue since the last pass against the players already waiting.
+    private void startRatedGamesIfPossible() {
+        long now = System.nanoTime();
+        PlayerHandler player;
+        while (host.hasCapacity() && (player = arrivals.poll()) != null) {
+            startRatedGame(player, now);
+        }
+    }
+
+    // Once per sweep interval, tries everyone still waiting again with their widened window,
+    // longest-waiting first. Returns the nanoseconds until the next sweep is due, or
+    // Long.MAX_VALUE while no queue has two players to pair.
+    private long sweepIfDue() {
+        Map<BoardSize, RatingIndex> byRating = indexes;
+        if (byRating == null) {
+            return Long.MAX_VALUE;
+        }
+        long now = System.nanoTime();
+        if (now < nextRatingSweep) {
+            return nextRatingSweep - now;
+        }
+        boolean anyWaiting = false;
+        for (MatchQueue waitingPlayers : queues.values()) {
+            if (waitingPlayers.size() < 2) {
+                continue;
+            }
+            for (PlayerHandler player : waitingPlayers.snapshot()) {
+                if (!host.hasCapacity()) {
+                    break;
+                }
+                startRatedGame(player, now);
+            }
+            anyWaiting |= waitingPlayers.size() >= 2;
+        }
+        nextRatingSweep = now + RATING_SWEEP_NANOS;
+        return anyWaiting ? RATING_SWEEP_NANOS : Long.MAX_VALUE;
+    }
+
+    // Returns how many rating points away a player who has waited waitNanos accepts an opponent.
+    private int ratingWindowFor(long waitNanos) {
+        long widened = ratingWindow + ratingWindowGrowthPerSec * waitNanos / 1_000_000_000L;
+        return (int) Math.min(ratingWindowMax, widened);
+    }
+
+    // Pairs a waiting player with the nearest-rated player inside their window, if there is one.
+    // Taking both players out of the queue is what claims them, so a player who left or was
+    // matched in the meantime is never paired; index entries for such players are dropped.
+    private void startRatedGame(PlayerHandler player, long now) {
+        MatchQueue waitingPlayers = queueFor(player);
+        RatingIndex index = indexes.get(player.getBoardSize());
+        if (player.isDisconnected() || !waitingPlayers.contains(player)) {
+            return;
+        }
+        int window = ratingWindowFor(now - player.getQueuedAt());
+        while (true) {
+            PlayerHandler opponent = index.nearest(player.getRating(), window, player);
+            if (opponent == null) {
+                return;
+            }
+            boolean claimed = !opponent.isDisconnected() && waitingPlayers.remove(opponent);
+            index.remove(opponent);
+            if (!claimed) {
+                continue; // Stale entry; the opponent's disconnect listener handles the rest
+            }
+            if (!waitingPlayers.remove(player)) {
+                // The player left just now; the opponent keeps their place at the front
+                waitingPlayers.offerFirst(opponent);
+                index.add(opponent);
+                return;
+            }
+            index.remove(player);
+
+            int gap = Math.abs(player.getRating() - opponent.getRating());
+            ServerMetrics.RATED_MATCHES.increment();
+            ServerMetrics.RATED_MATCH_GAP.add(gap);
+            if (gap > ratingWindow) {
+                ServerMetrics.RATED_MATCHES_WIDENED.increment();
+            }
+            ServerMetrics.QUEUE_WAIT.record(now - player.getQueuedAt());
+            ServerMetrics.QUEUE_WAIT.record(now - opponent.getQueuedAt());
+            player.setQueueTimeout(null);
+            opponent.setQueueTimeout(null);
+            host.startGame(player, opponent, this);
+            return;
+        }
+    }
+
+    // Starts a game against a bot for a player who has been waiting alone for too long.
+    // Returns the nanoseconds until the current lone player becomes due, or Long.MAX_VALUE
+    // if there is nobody to wait for. Bots only know the classic board.
+    private long startBotGameIfDue() {
+        MatchQueue waitingPlayers = queues.get(BoardSize.CLASSIC);
+        if (botTable == null || waitingPlayers.size() != 1 || !host.hasCapacity()) {
+            return Long.MAX_VALUE;
+        }
+        PlayerHandler player = waitingPlayers.peek();
+        if (player == null) {
+            return Long.MAX_VALUE;
+        }
+        long waited = System.nanoTime() - player.getQueuedAt();
+        if (waited < botWaitNanos) {
+            return botWaitNanos - waited;
+        }
+        if (!waitingPlayers.remove(player) || player.isDisconnected()) {
+            return Long.MAX_VALUE;
+        }
+        unindex(player);
+
+        System.out.println("Starting a game against a bot.");
+        ServerMetrics.QUEUE_WAIT.record(waited);
+        ServerMetrics.BOT_GAMES.increment();
+        player.setQueueTimeout(null);
+        PlayerHandler bot = BotPlayer.newPlayer(botTable, botDifficulty, player.isEventDriven());
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            host.startGame(player, bot, this);
+        } else {
+            host.startGame(bot, player, this);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // Sends every queued player whose position changed since their last update their new position.
+    private void notifyQueuedPlayers() {
+        for (MatchQueue waitingPlayers : queues.values()) {
+            for (MatchQueue.PositionUpdate update : waitingPlayers.collectPositionChanges()) {
+                if (!update.player.isDisconnected()) {
+                    update.player.sendQueuePosition(update.position);
+                }
+            }
+        }
+    }
+}
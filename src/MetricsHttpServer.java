@@ -0,0 +1,36 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Lightweight HTTP endpoint serving a MetricsRegistry in the Prometheus text format at /metrics.
+// Binds to the loopback interface only; put a proxy or agent in front of it for remote scraping.
+public class MetricsHttpServer {
+    private final HttpServer server;
+
+    // Starts serving metrics on the given local port.
+    public MetricsHttpServer(int port, MetricsRegistry registry, String prefix) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            StringBuilder body = new StringBuilder(4096);
+            registry.writePrometheus(body, prefix);
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,107 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Exposes a MetricsRegistry over JMX as read-only attributes.
+// Counters and gauges appear under their own names; each histogram becomes
+// <name>_count, <name>_p50_us, <name>_p99_us, <name>_p999_us and <name>_max_us.
+public class MetricsMBean implements DynamicMBean {
+    private static final String[] HISTOGRAM_SUFFIXES = {"_count", "_p50_us", "_p99_us", "_p999_us", "_max_us"};
+
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    // Registers the registry with the platform MBean server under the given object name.
+    public static void register(MetricsRegistry registry, String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(registry), new ObjectName(objectName));
+        } catch (JMException e) {
+            System.out.println("Unable to register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        MetricsRegistry.Counter counter = registry.getCounters().get(attribute);
+        if (counter != null) {
+            return counter.get();
+        }
+        if (registry.getGauges().containsKey(attribute)) {
+            return registry.getGauges().get(attribute).getAsLong();
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+            String name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            if (attribute.equals(name + "_count")) return histogram.getCount();
+            if (attribute.equals(name + "_p50_us")) return histogram.getValueAtPercentile(50) / 1000;
+            if (attribute.equals(name + "_p99_us")) return histogram.getValueAtPercentile(99) / 1000;
+            if (attribute.equals(name + "_p999_us")) return histogram.getValueAtPercentile(99.9) / 1000;
+            if (attribute.equals(name + "_max_us")) return histogram.getMax() / 1000;
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Unknown attributes are left out, as the JMX contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : registry.getCounters().keySet()) {
+            attributes.add(longAttribute(name, registry.getDescription(name)));
+        }
+        for (String name : registry.getGauges().keySet()) {
+            attributes.add(longAttribute(name, registry.getDescription(name)));
+        }
+        for (String name : registry.getHistograms().keySet()) {
+            for (String suffix : HISTOGRAM_SUFFIXES) {
+                attributes.add(longAttribute(name + suffix, registry.getDescription(name)));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Tic-Tac-Toe server metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+
+    private static MBeanAttributeInfo longAttribute(String name, String description) {
+        return new MBeanAttributeInfo(name, "long", description, true, false, false);
+    }
+}
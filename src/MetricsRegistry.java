@@ -0,0 +1,95 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Registry of named counters, gauges and latency histograms.
+// Metrics are registered once at startup; recording into them afterwards is lock-free and
+// does not allocate. Readers (JMX, the HTTP endpoint) iterate the registry in name order.
+public class MetricsRegistry {
+    // Monotonically increasing count, backed by a LongAdder so concurrent increments do not contend.
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, String> descriptions = new ConcurrentSkipListMap<>();
+
+    // Registers a counter; names follow Prometheus conventions (snake_case, counters end in _total).
+    public Counter counter(String name, String description) {
+        descriptions.put(name, description);
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    // Registers a gauge whose value is read from the supplier whenever metrics are collected.
+    public void gauge(String name, String description, LongSupplier supplier) {
+        descriptions.put(name, description);
+        gauges.put(name, supplier);
+    }
+
+    // Registers a histogram of durations recorded in nanoseconds.
+    public LatencyHistogram histogram(String name, String description) {
+        descriptions.put(name, description);
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public Map<String, Counter> getCounters() {
+        return counters;
+    }
+
+    public Map<String, LongSupplier> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    public String getDescription(String name) {
+        return descriptions.getOrDefault(name, name);
+    }
+
+    // Writes every metric in the Prometheus text exposition format, with the given name prefix.
+    // Histograms are written as summaries in seconds.
+    public void writePrometheus(StringBuilder out, String prefix) {
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            writeHeader(out, prefix, entry.getKey(), "counter");
+            out.append(prefix).append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            writeHeader(out, prefix, entry.getKey(), "gauge");
+            out.append(prefix).append(entry.getKey()).append(' ').append(entry.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String name = prefix + entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            writeHeader(out, prefix, entry.getKey(), "summary");
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.getValueAtPercentile(quantile * 100) / 1e9).append('\n');
+            }
+            long count = histogram.getCount();
+            out.append(name).append("_sum ").append(histogram.getMean() * count / 1e9).append('\n');
+            out.append(name).append("_count ").append(count).append('\n');
+        }
+    }
+
+    private void writeHeader(StringBuilder out, String prefix, String name, String type) {
+        out.append("# HELP ").append(prefix).append(name).append(' ').append(getDescription(name)).append('\n');
+        out.append("# TYPE ").append(prefix).append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32C;
+
+// Append-only binary journal of every game: its start, each move, disconnects and
+// reconnects, and the result. JournalReplay reads it back to rebuild and analyse games.
+//
+// Game threads only enqueue entries. A single writer thread takes everything queued,
+// encodes it into one buffer, writes it and then forces the file once for the whole batch
+// (group commit): the more entries arrive while the disk is busy, the more each sync
+// covers, so the journal keeps up with bursts without game threads ever touching the disk.
+// If the writer falls behind by more than the queue's capacity, entries are dropped and
+// counted; JournalReplay reports the affected games as inconsistent.
+//
+// File:   magic "TTTJ" | version | records
+// Record: int payload length | int CRC32C of the payload | payload
+// Payload: type byte | long game id | long time (epoch ms) | type-specific fields:
+//   START       byte width, byte height, byte k, X's name, O's name (length-prefixed UTF-8, empty if anonymous)
+//   MOVE        short square (1-based), byte symbol
+//   DISCONNECT  byte symbol of the player whose connection dropped
+//   RECONNECT   byte symbol of the player who came back
+//   RESULT      byte outcome (see Outcome)
+// A crash can leave a torn record at the end; it fails its length or checksum check, and
+// both the reader and the next writer stop there.
+public class MoveJournal implements Closeable {
+    // Kinds of journal entries, by their type byte.
+    public enum Type { START, MOVE, DISCONNECT, RECONNECT, RESULT }
+
+    // How a game ended.
+    public enum Outcome { X_WON, O_WON, DRAW, X_LEFT, O_LEFT }
+
+    // One journal entry. Only the fields of its type are set.
+    public static final class Entry {
+        public final Type type;
+        public final long gameId;
+        public final long timeMillis;
+        public final BoardSize size;    // START
+        public final String nameX;      // START
+        public final String nameO;      // START
+        public final int position;      // MOVE
+        public final char symbol;       // MOVE, DISCONNECT, RECONNECT
+        public final Outcome outcome;   // RESULT
+
+        Entry(Type type, long gameId, long timeMillis, BoardSize size, String nameX, String nameO,
+              int position, char symbol, Outcome outcome) {
+            this.type = type;
+            this.gameId = gameId;
+            this.timeMillis = timeMillis;
+            this.size = size;
+            this.nameX = nameX;
+            this.nameO = nameO;
+            this.position = position;
+            this.symbol = symbol;
+            this.outcome = outcome;
+        }
+    }
+
+    private static final int MAGIC = 0x5454544A; // "TTTJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_PAYLOAD = 256;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 4096;
+    // Queued by close() to tell the writer to commit what is left and stop
+    private static final Entry STOP = new Entry(Type.RESULT, 0, 0, null, null, null, 0, ' ', null);
+
+    private final BlockingQueue<Entry> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final FileChannel channel;
+    private final boolean sync;
+    private final long lastGameId;
+    private final Thread writer;
+    // Only touched by the writer thread, and by close() once the writer has stopped
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_SIZE * 32);
+    private final ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD);
+    private final CRC32C crc = new CRC32C();
+    private volatile boolean closed = false;
+
+    // Opens (or creates) the journal for appending, cutting off any torn record a crash left
+    // at the end. With sync set, every batch is forced to disk before the next one is written.
+    public MoveJournal(Path path, boolean sync) throws IOException {
+        this.sync = sync;
+        long validBytes = HEADER_SIZE;
+        long maxGameId = 0;
+        if (Files.exists(path) && Files.size(path) > 0) {
+            try (Reader reader = new Reader(Files.newInputStream(path))) {
+                Entry entry;
+                while ((entry = reader.next()) != null) {
+                    maxGameId = Math.max(maxGameId, entry.gameId);
+                }
+                validBytes = reader.getValidBytes();
+            }
+        }
+        this.lastGameId = maxGameId;
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } else if (channel.size() > validBytes) {
+            channel.truncate(validBytes); // Drop a torn tail before appending
+        }
+        channel.position(validBytes);
+
+        writer = new Thread(this::runWriter, "move-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Returns the highest game id already in the journal when it was opened, 0 if none.
+    // New games should be numbered after it so that ids stay unique across restarts.
+    public long getLastGameId() {
+        return lastGameId;
+    }
+
+    public void gameStarted(long gameId, BoardSize size, String nameX, String nameO) {
+        append(new Entry(Type.START, gameId, System.currentTimeMillis(), size, nameX, nameO, 0, ' ', null));
+    }
+
+    public void move(long gameId, int position, char symbol) {
+        append(new Entry(Type.MOVE, gameId, System.currentTimeMillis(), null, null, null, position, symbol, null));
+    }
+
+    public void disconnected(long gameId, char symbol) {
+        append(new Entry(Type.DISCONNECT, gameId, System.currentTimeMillis(), null, null, null, 0, symbol, null));
+    }
+
+    public void reconnected(long gameId, char symbol) {
+        append(new Entry(Type.RECONNECT, gameId, System.currentTimeMillis(), null, null, null, 0, symbol, null));
+    }
+
+    public void result(long gameId, Outcome outcome) {
+        append(new Entry(Type.RESULT, gameId, System.currentTimeMillis(), null, null, null, 0, ' ', outcome));
+    }
+
+    // Queues an entry for the writer. Never blocks.
+    private void append(Entry entry) {
+        if (closed || !pending.offer(entry)) {
+            ServerMetrics.JOURNAL_DROPPED.increment();
+        }
+    }
+
+    // Commits the entries still queued, forces the journal to disk and stops the writer.
+    // The writer is stopped with a marker rather than an interrupt, which would close the channel.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            pending.put(STOP);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.force(false);
+        channel.close();
+    }
+
+    // Takes whatever has been queued, up to a batch, and commits it with a single sync.
+    private void runWriter() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(pending.take());
+                pending.drainTo(batch, BATCH_SIZE - 1);
+                stopping = batch.remove(STOP);
+                long start = System.nanoTime();
+                writeBatch(batch);
+                if (sync) {
+                    channel.force(false);
+                }
+                ServerMetrics.JOURNAL_COMMIT.record(System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Move journal writer error: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) throws IOException {
+        buffer.clear();
+        for (Entry entry : batch) {
+            if (buffer.remaining() < RECORD_HEADER_SIZE + MAX_PAYLOAD) {
+                flush();
+            }
+            encode(entry);
+        }
+        flush();
+        ServerMetrics.JOURNAL_ENTRIES.add(batch.size());
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Appends one record for the entry to the batch buffer.
+    private void encode(Entry entry) {
+        payload.clear();
+        payload.put((byte) entry.type.ordinal());
+        payload.putLong(entry.gameId);
+        payload.putLong(entry.timeMillis);
+        switch (entry.type) {
+            case START:
+                payload.put((byte) entry.size.getWidth());
+                payload.put((byte) entry.size.getHeight());
+                payload.put((byte) entry.size.getWinLength());
+                putName(entry.nameX);
+                putName(entry.nameO);
+                break;
+            case MOVE:
+                payload.putShort((short) entry.position);
+                payload.put((byte) entry.symbol);
+                break;
+            case DISCONNECT:
+            case RECONNECT:
+                payload.put((byte) entry.symbol);
+                break;
+            case RESULT:
+                payload.put((byte) entry.outcome.ordinal());
+                break;
+        }
+        payload.flip();
+        crc.reset();
+        crc.update(payload.array(), 0, payload.limit());
+        buffer.putInt(payload.limit());
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+    }
+
+    private void putName(String name) {
+        byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        payload.put((byte) bytes.length);
+        payload.put(bytes);
+    }
+
+    // Streams the entries of a journal from the start. next() returns null at the end of the
+    // journal or at the first torn or corrupt record; isTorn() tells which.
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final CRC32C crc = new CRC32C();
+        private final byte[] record = new byte[MAX_PAYLOAD];
+        private long validBytes = HEADER_SIZE;
+        private boolean torn = false;
+
+        public Reader(InputStream input) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a move journal");
+            }
+        }
+
+        public Entry next() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return null; // Clean end
+            }
+            try {
+                int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+                int checksum = in.readInt();
+                if (length < 17 || length > MAX_PAYLOAD) {
+                    torn = true;
+                    return null;
+                }
+                in.readFully(record, 0, length);
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    torn = true;
+                    return null;
+                }
+                validBytes += RECORD_HEADER_SIZE + length;
+                return decode(ByteBuffer.wrap(record, 0, length));
+            } catch (EOFException e) {
+                torn = true;
+                return null;
+            }
+        }
+
+        // Returns the number of bytes up to the end of the last valid record read.
+        public long getValidBytes() {
+            return validBytes;
+        }
+
+        // Checks if reading stopped at a torn or corrupt record rather than at the end.
+        public boolean isTorn() {
+            return torn;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private static Entry decode(ByteBuffer data) throws IOException {
+            int typeCode = data.get();
+            if (typeCode < 0 || typeCode >= Type.values().length) {
+                throw new IOException("Unknown journal entry type " + typeCode);
+            }
+            Type type = Type.values()[typeCode];
+            long gameId = data.getLong();
+            long time = data.getLong();
+            switch (type) {
+                case START: {
+                    BoardSize size = new BoardSize(data.get() & 0xFF, data.get() & 0xFF, data.get() & 0xFF);
+                    return new Entry(type, gameId, time, size, getName(data), getName(data), 0, ' ', null);
+                }
+                case MOVE:
+                    return new Entry(type, gameId, time, null, null, null, data.getShort() & 0xFFFF, (char) data.get(), null);
+                case DISCONNECT:
+                case RECONNECT:
+                    return new Entry(type, gameId, time, null, null, null, 0, (char) data.get(), null);
+                default:
+                    return new Entry(type, gameId, time, null, null, null, 0, ' ', Outcome.values()[data.get()]);
+            }
+        }
+
+        private static String getName(ByteBuffer data) {
+            int length = data.get() & 0xFF;
+            if (length == 0) {
+                return null;
+            }
+            String name = new String(data.array(), data.position(), length, StandardCharsets.UTF_8);
+            data.position(data.position() + length);
+            return name;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Non-blocking connection owned by one NioTransport event loop.
+// The loop frames incoming bytes into lines and buffers them; writes are queued
+// from any thread and flushed by the loop whenever the socket can accept more data.
+// A flush is always deferred to the end of the loop's current tick, so every message
+// queued during the tick goes out in one gathering write.
+public class NioConnection implements PlayerConnection {
+    private static final int MAX_LINE_LENGTH = 1024;
+    private static final int MAX_PENDING_LINES = 64;
+    private static final int MAX_GATHER = 64; // Buffers handed to a single write
+    // Marks end of input in the inbox; compared by identity so it can never clash with a real line.
+    private static final String END_OF_INPUT = new String("<end of input>");
+
+    private final SocketChannel channel;
+    private final NioTransport.EventLoop loop;
+    private SelectionKey key; // Set by the event loop once the channel is registered
+
+    private final BlockingDeque<String> inbox = new LinkedBlockingDeque<>();
+    private volatile Runnable inputListener;
+
+    private final OutboundQueue outbound;
+    private volatile Runnable writableListener;
+    private final AtomicReference<Runnable> closeListener = new AtomicReference<>(); // Cleared once run
+    private final LongAdder bytesIn = new LongAdder(); // This client's share of BYTES_IN
+    private volatile boolean closeWhenFlushed = false;
+    // Messages taken from the outbound queue but not completely written. Only touched by the event loop.
+    private final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    // Bytes of a line that has not been terminated yet. Only touched by the event loop.
+    private byte[] partialLine = new byte[64];
+    private int partialLength = 0;
+
+    // Protocol handshake state. Only touched by the event loop.
+    private boolean negotiating = true;
+    private long handshakeDeadline;
+    private String hello;
+
+    NioConnection(SocketChannel channel, NioTransport.EventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+        this.outbound = new OutboundQueue(() -> loop.execute(this::flush), () -> {
+            closeQuietly();
+            notifyInput();
+        });
+    }
+
+    // Called by the event loop after registering the channel with its selector.
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    // Starts waiting for the client's first line, which may be a protocol hello.
+    void startHandshake(long deadline) {
+        handshakeDeadline = deadline;
+    }
+
+    boolean isNegotiating() {
+        return negotiating;
+    }
+
+    long getHandshakeDeadline() {
+        return handshakeDeadline;
+    }
+
+    // Ends the handshake, e.g. because the client did not send a hello in time.
+    void finishHandshake() {
+        negotiating = false;
+    }
+
+    // Returns the hello line the client opened with, or null if it did not send one.
+    String getHello() {
+        return hello;
+    }
+
+    @Override
+    public boolean isEventDriven() {
+        return true;
+    }
+
+    @Override
+    public void setInputListener(Runnable listener) {
+        this.inputListener = listener;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        try {
+            String line = inbox.takeFirst();
+            if (line == END_OF_INPUT) {
+                inbox.putFirst(line); // Leave the marker so later reads also see end of stream
+                return null;
+            }
+            return line;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for input");
+        }
+    }
+
+    @Override
+    public String pollLine() {
+        String line = inbox.peekFirst();
+        if (line == null || line == END_OF_INPUT) {
+            return null;
+        }
+        return inbox.pollFirst();
+    }
+
+    @Override
+    public boolean isInputExhausted() {
+        return inbox.peekFirst() == END_OF_INPUT;
+    }
+
+    @Override
+    public void writeLine(String line) {
+        write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(byte[] data) {
+        if (isClosed()) {
+            return;
+        }
+        outbound.add(data);
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        closeWhenFlushed = true;
+        loop.execute(this::flush);
+    }
+
+    @Override
+    public void beginBatch() {
+        outbound.beginBatch();
+    }
+
+    @Override
+    public void endBatch() {
+        outbound.endBatch();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return outbound.isWritable();
+    }
+
+    @Override
+    public void setWritableListener(Runnable listener) {
+        this.writableListener = listener;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return outbound.getBytesWritten();
+    }
+
+    @Override
+    public void setCloseListener(Runnable listener) {
+        closeListener.set(listener);
+        if (isClosed()) {
+            runCloseListener(); // Closed before the listener was set
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (key != null) {
+            key.cancel();
+        }
+        channel.close();
+        outbound.clear();
+        endOfInput();
+        runCloseListener();
+    }
+
+    // Reads whatever is available into the shared loop buffer and frames it into lines.
+    void onReadable(ByteBuffer readBuffer) {
+        boolean received = false;
+        try {
+            readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                close();
+                notifyInput();
+                return;
+            }
+            ServerMetrics.BYTES_IN.add(count);
+            bytesIn.add(count);
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    received |= completeLine();
+                } else if (partialLength == MAX_LINE_LENGTH) {
+                    System.out.println("Closing connection: line too long.");
+                    close();
+                    break;
+                } else {
+                    appendPartial(b);
+                }
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            received = true;
+        }
+        if (received || isClosed()) {
+            notifyInput();
+        }
+    }
+
+    // Writes queued messages, several per gathering write, until the socket stops accepting data.
+    void flush() {
+        outbound.flushStarted();
+        if (!channel.isOpen()) {
+            inFlight.clear();
+            return;
+        }
+        try {
+            while (true) {
+                byte[] data;
+                while (inFlight.size() < MAX_GATHER && (data = outbound.poll()) != null) {
+                    inFlight.add(ByteBuffer.wrap(data));
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                int count = inFlight.size();
+                inFlight.toArray(gather);
+                long written = channel.write(gather, 0, count);
+                outbound.written(written);
+                ServerMetrics.OUTBOUND_WRITES.increment();
+                while (!inFlight.isEmpty() && !inFlight.peek().hasRemaining()) {
+                    inFlight.poll();
+                }
+                Arrays.fill(gather, 0, count, null);
+                if (!inFlight.isEmpty()) {
+                    // Socket buffer is full; resume when the selector reports it writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (closeWhenFlushed && outbound.isEmpty()) {
+                closeQuietly();
+                notifyInput();
+                return;
+            }
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            Runnable listener = writableListener;
+            if (listener != null) {
+                listener.run();
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            notifyInput();
+        }
+    }
+
+    // Moves the buffered partial line into the inbox. Returns true if a line was queued.
+    private boolean completeLine() throws IOException {
+        int length = partialLength;
+        if (length > 0 && partialLine[length - 1] == '\r') {
+            length--;
+        }
+        String line = new String(partialLine, 0, length, StandardCharsets.UTF_8);
+        partialLength = 0;
+        if (negotiating) {
+            negotiating = false;
+            if (Hello.isHello(line)) {
+                hello = line;
+                return false;
+            }
+        }
+        if (inbox.size() >= MAX_PENDING_LINES) {
+            System.out.println("Closing connection: too many unread messages.");
+            close();
+            return false;
+        }
+        inbox.offerLast(line);
+        return true;
+    }
+
+    private void appendPartial(byte b) {
+        if (partialLength == partialLine.length) {
+            byte[] grown = new byte[Math.min(partialLine.length * 2, MAX_LINE_LENGTH)];
+            System.arraycopy(partialLine, 0, grown, 0, partialLength);
+            partialLine = grown;
+        }
+        partialLine[partialLength++] = b;
+    }
+
+    private void endOfInput() {
+        if (inbox.peekLast() != END_OF_INPUT) {
+            inbox.offerLast(END_OF_INPUT);
+        }
+    }
+
+    private void notifyInput() {
+        Runnable listener = inputListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void runCloseListener() {
+        Runnable listener = closeListener.getAndSet(null);
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ignored) {
+            // Already failing; nothing more to do
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+// Non-blocking transport for the Tic-Tac-Toe server.
+// Accepts players on the calling thread and spreads their channels across a small number
+// of selector-based event loops, so idle players do not hold a thread each. The accept thread
+// only decides whether to admit a connection; setting it up is left to its event loop.
+public class NioTransport {
+    private final int port;
+    private final int handshakeTimeoutMs;
+    private final EventLoop[] loops;
+    private final Consumer<PlayerHandler> onConnect;
+    private final AdmissionControl admission;
+    private int nextLoop = 0;
+
+    // Creates a transport with the given number of event-loop threads.
+    // onConnect is called on an event loop for every player once its protocol is negotiated.
+    public NioTransport(int port, int loopCount, int handshakeTimeoutMs, AdmissionControl admission,
+                        Consumer<PlayerHandler> onConnect) throws IOException {
+        this.port = port;
+        this.handshakeTimeoutMs = handshakeTimeoutMs;
+        this.admission = admission;
+        this.onConnect = onConnect;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(this);
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Accepts connections until the server channel fails.
+    public void run() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                InetAddress address = channel.socket().getInetAddress();
+                ServerMetrics.RejectCause rejected = address != null ? admission.admit(address) : null;
+                if (rejected != null) {
+                    admission.reject(channel.socket(), rejected); // Still in blocking mode
+                    continue;
+                }
+
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.register(channel, address);
+                System.out.println("New player connected.");
+            }
+        }
+    }
+
+    // Creates the player once the client's hello (or the lack of one) has fixed the protocol.
+    private void handshakeDone(NioConnection connection) {
+        if (connection.isClosed()) {
+            return; // Gone before the handshake finished
+        }
+        onConnect.accept(new PlayerHandler(connection, connection.getHello()));
+    }
+
+    // Single-threaded selector loop serving a subset of the connections.
+    static final class EventLoop implements Runnable {
+        private final NioTransport transport;
+        private final Selector selector;
+        // Connections still waiting for their first line, in deadline order
+        private final ArrayDeque<NioConnection> handshakes = new ArrayDeque<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        private volatile Thread thread;
+
+        EventLoop(NioTransport transport) throws IOException {
+            this.transport = transport;
+            this.selector = Selector.open();
+        }
+
+        // Checks if the caller is running on this loop's thread.
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        // Runs a task on the loop thread, waking the selector if necessary.
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (!inEventLoop()) {
+                selector.wakeup();
+            }
+        }
+
+        // Sets up an accepted channel and registers it for reads; happens on the loop thread.
+        // The address the channel was admitted for is released when its connection closes.
+        void register(SocketChannel channel, InetAddress address) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    NioConnection connection = new NioConnection(channel, this);
+                    if (address != null) {
+                        connection.setCloseListener(() -> transport.admission.release(address));
+                    }
+                    connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                    connection.startHandshake(System.currentTimeMillis() + transport.handshakeTimeoutMs);
+                    handshakes.add(connection);
+                } catch (IOException e) {
+                    System.out.println("Failed to register connection: " + e.getMessage());
+                    closeQuietly(channel, address); // Never registered, so nothing else closes it
+                }
+            });
+        }
+
+        private void closeQuietly(SocketChannel channel, InetAddress address) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+            if (address != null) {
+                transport.admission.release(address);
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (true) {
+                try {
+                    NioConnection oldest = handshakes.peek();
+                    if (oldest == null) {
+                        selector.select();
+                    } else {
+                        selector.select(Math.max(1, oldest.getHandshakeDeadline() - System.currentTimeMillis()));
+                    }
+                    runTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            boolean negotiating = connection.isNegotiating();
+                            connection.onReadable(readBuffer);
+                            if (negotiating && !connection.isNegotiating()) {
+                                transport.handshakeDone(connection);
+                            }
+                        }
+                    }
+                    expireHandshakes();
+                    runTasks(); // Flushes requested during this tick, one write per connection
+                } catch (IOException e) {
+                    System.out.println("Event loop error: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // Keep serving the other connections if game logic throws
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Finishes handshakes that completed or timed out; older clients never send a hello.
+        private void expireHandshakes() {
+            long now = System.currentTimeMillis();
+            NioConnection connection;
+            while ((connection = handshakes.peek()) != null) {
+                if (connection.isNegotiating()) {
+                    if (connection.getHandshakeDeadline() > now) {
+                        return;
+                    }
+                    connection.finishHandshake();
+                    transport.handshakeDone(connection);
+                }
+                handshakes.poll();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Game node side of a multi-node deployment: the control connection to the lobby, the games
+// the lobby placed here, and the way back to the lobby for players whose game is over.
+//
+// The lobby announces each placed game with the two players' tickets (see NodeRouter). The game
+// starts once both players have reconnected here with their ticket; if one of them does not
+// arrive within the placement timeout, the game is abandoned and the one who did is sent back
+// to the front of the lobby's queue. Players leaving a finished game are not queued here: the
+// lobby is told to expect them and they are redirected to it.
+//
+// The agent sends a load heartbeat every heartbeatMs, and reconnects (with backoff) when its
+// control connection drops, so a node survives a lobby restart.
+public class NodeAgent implements PlayerQueue {
+    // A seat in a placed game: the ticket that claims it and what its player brings along.
+    private static final class Seat {
+        final String ticket;
+        final NodeRouter.Return carried;
+        PlayerHandler player; // Guarded by the placement's lock
+
+        // Parses "<ticket> <win streak> <rating> <rated games>" starting at parts[from].
+        Seat(String[] parts, int from) {
+            this.ticket = parts[from];
+            this.carried = new NodeRouter.Return(false, Integer.parseInt(parts[from + 1]),
+                    Integer.parseInt(parts[from + 2]), Integer.parseInt(parts[from + 3]));
+        }
+    }
+
+    // A game the lobby placed on this node, until both players have arrived.
+    private static final class Placement {
+        final BoardSize boardSize;
+        final Seat x, o;
+        final ReentrantLock lock = new ReentrantLock();
+        boolean done = false; // Guarded by lock
+        TimingWheel.Timeout expiry;
+
+        Placement(BoardSize boardSize, Seat x, Seat o) {
+            this.boardSize = boardSize;
+            this.x = x;
+            this.o = o;
+        }
+    }
+
+    private final String lobbyControlHost;
+    private final int lobbyControlPort;
+    private final String secret;
+    private final String host;
+    private final int port;
+    private final SessionManager sessionManager;
+    private final TimingWheel timers;
+    private final long heartbeatMs;
+    private final long placementTimeoutMs;
+    private final Map<String, Placement> placements = new ConcurrentHashMap<>(); // By either player's ticket
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // Number of the last game the lobby placed on this control connection; set after the
+    // placement is counted in pendingCount, so a heartbeat that reads it first counts the game
+    private volatile long lastPlacement;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile PrintWriter out; // Null while the control connection is down
+    // Where players are sent back to; announced by the lobby when the control connection opens
+    private volatile String lobbyHost;
+    private volatile int lobbyPort;
+
+    // Creates an agent for a node that takes players on host:port and reports to the lobby's
+    // control port, proving itself with the lobby's shared secret. A placed game is abandoned
+    // when a player has not arrived after placementTimeoutMs.
+    public NodeAgent(String lobbyControlHost, int lobbyControlPort, String secret, String host, int port,
+                     SessionManager sessionManager, TimingWheel timers, long heartbeatMs, long placementTimeoutMs) {
+        this.lobbyControlHost = lobbyControlHost;
+        this.lobbyControlPort = lobbyControlPort;
+        this.secret = secret;
+        this.host = host;
+        this.port = port;
+        this.sessionManager = sessionManager;
+        this.timers = timers;
+        this.heartbeatMs = heartbeatMs;
+        this.placementTimeoutMs = placementTimeoutMs;
+    }
+
+    // Starts the control connection and the heartbeat.
+    public void start() {
+        Thread control = new Thread(this::runControl, "lobby-control");
+        control.setDaemon(true);
+        control.start();
+        Thread heartbeat = new Thread(this::runHeartbeat, "lobby-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    // Seats a player who arrived with a ticket from the lobby, starting the game once its other
+    // player is here too. Returns false if the ticket is not one of a pending placement.
+    public boolean arrive(PlayerHandler player) {
+        String ticket = player.getTicket();
+        Placement placement = ticket == null ? null : placements.remove(ticket);
+        if (placement == null) {
+            return false;
+        }
+        PlayerHandler playerX, playerO;
+        placement.lock.lock();
+        try {
+            if (placement.done) {
+                return false;
+            }
+            Seat seat = ticket.equals(placement.x.ticket) ? placement.x : placement.o;
+            player.setBoardSize(placement.boardSize);
+            seat.carried.restore(player);
+            seat.player = player;
+            if (placement.x.player == null || placement.o.player == null) {
+                player.sendWaiting();
+                return true;
+            }
+            placement.done = true;
+            placement.expiry.cancel();
+            pendingCount.decrementAndGet();
+            playerX = placement.x.player;
+            playerO = placement.o.player;
+        } finally {
+            placement.lock.unlock();
+        }
+        sessionManager.startSession(playerX, playerO, this);
+        return true;
+    }
+
+    // Sends a player back to the lobby's queue, behind everyone already waiting.
+    @Override
+    public void enqueue(PlayerHandler player) {
+        sendToLobby(player, false);
+    }
+
+    // Sends a player back to the front of the lobby's queue, e.g. a winner who wants to play again.
+    @Override
+    public void enqueueFront(PlayerHandler player) {
+        sendToLobby(player, true);
+    }
+
+    // Queue positions are the lobby's to tell.
+    @Override
+    public void sendQueuePosition(PlayerHandler player) {
+    }
+
+    // Returns the number of games placed here whose players have not all arrived yet.
+    public int pendingPlacements() {
+        return pendingCount.get();
+    }
+
+    // Tells the lobby to expect the player and redirects them there. If the control connection is
+    // down, the lobby does not know the ticket and queues the player as a new arrival.
+    private void sendToLobby(PlayerHandler player, boolean front) {
+        if (player.isDisconnected()) {
+            return;
+        }
+        if (lobbyHost == null) {
+            try {
+                player.close(); // Has never reached the lobby, so there is nowhere to send the player
+            } catch (IOException e) {
+                // Already gone
+            }
+            return;
+        }
+        String ticket = ReconnectRegistry.newToken();
+        send("return " + ticket + (front ? " front " : " back ") + NodeRouter.describe(player));
+        player.redirect(lobbyHost, lobbyPort, ticket);
+    }
+
+    // Remembers a game the lobby placed here until its players arrive or the placement times out.
+    private void place(String[] parts) {
+        BoardSize boardSize = BoardSize.parse(parts[2]);
+        Placement placement = new Placement(boardSize != null ? boardSize : BoardSize.CLASSIC,
+                new Seat(parts, 3), new Seat(parts, 7));
+        pendingCount.incrementAndGet();
+        lastPlacement = Long.parseLong(parts[1]);
+        placement.expiry = timers.schedule(() -> abandon(placement), placementTimeoutMs);
+        placements.put(placement.x.ticket, placement);
+        placements.put(placement.o.ticket, placement);
+    }
+
+    // Gives up on a game whose players did not both arrive; the one who did goes back to the lobby.
+    private void abandon(Placement placement) {
+        PlayerHandler arrived;
+        placement.lock.lock();
+        try {
+            if (placement.done) {
+                return;
+            }
+            placement.done = true;
+            pendingCount.decrementAndGet();
+            arrived = placement.x.player != null ? placement.x.player : placement.o.player;
+        } finally {
+            placement.lock.unlock();
+        }
+        placements.remove(placement.x.ticket);
+        placements.remove(placement.o.ticket);
+        ServerMetrics.PLACEMENTS_ABANDONED.increment();
+        System.out.println("Abandoned a placed game; a player did not arrive.");
+        if (arrived != null) {
+            enqueueFront(arrived);
+        }
+    }
+
+    // Keeps a control connection to the lobby open, reconnecting with backoff when it drops.
+    private void runControl() {
+        long delay = 250;
+        while (true) {
+            try (Socket socket = new Socket(lobbyControlHost, lobbyControlPort)) {
+                socket.setTcpNoDelay(true);
+                delay = 250;
+                serveControl(socket);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Lobby control connection failed: " + e.getMessage());
+            }
+            out = null;
+            try {
+                Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay));
+            } catch (InterruptedException e) {
+                return;
+            }
+            delay = Math.min(delay * 2, 4000);
+        }
+    }
+
+    // Announces this node and reads the lobby's control lines until the connection drops.
+    private void serveControl(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter writer = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+        writer.print("node " + secret + " " + host + " " + port + " " + sessionManager.getMaxSessions() + "\n");
+        writer.flush();
+        String line = in.readLine();
+        String[] lobby = line == null ? new String[0] : line.trim().split(" +");
+        if (lobby.length != 3 || !lobby[0].equals("lobby")) {
+            throw new IOException(line == null ? "Lobby refused this node; check ttt.controlSecret" : "Not a lobby: " + line);
+        }
+        lobbyHost = lobby[1];
+        lobbyPort = Integer.parseInt(lobby[2]);
+        lastPlacement = 0; // The lobby numbers placements afresh for every connection
+        out = writer;
+        System.out.println("Joined the lobby at " + lobbyControlHost + ":" + lobbyControlPort
+                + "; players return to " + lobbyHost + ":" + lobbyPort);
+        sendLoad();
+
+        while ((line = in.readLine()) != null) {
+            String[] parts = line.trim().split(" +");
+            if (parts[0].equals("game") && parts.length == 11) {
+                place(parts);
+            }
+        }
+        System.out.println("Lobby closed the control connection.");
+    }
+
+    private void runHeartbeat() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(heartbeatMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sendLoad();
+        }
+    }
+
+    // Reports running games plus games waiting for their players, which already hold a slot, and
+    // the last placement they include. The placement is read first: every game up to it is counted.
+    private void sendLoad() {
+        long placement = lastPlacement;
+        send("load " + (sessionManager.getActiveCount() + pendingPlacements()) + " " + sessionManager.getMaxSessions()
+                + " " + placement);
+    }
+
+    private void send(String line) {
+        PrintWriter writer = out;
+        if (writer == null) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            writer.print(line);
+            writer.print('\n');
+            writer.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
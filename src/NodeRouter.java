@@ -0,0 +1,315 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lobby side of a multi-node deployment: the game nodes behind this lobby and the placement
+// of matched pairs on them.
+//
+// Every node keeps a control connection open to the lobby and reports its load on it with a
+// heartbeat. A pair is placed on the live node with the lowest load (active games, plus games
+// placed that its last heartbeat did not count yet, over its capacity); the node is told the
+// pair's two tickets and the players are redirected to it with one each. Placements are numbered
+// per connection and each heartbeat names the last one it counted, so a game placed while a
+// heartbeat is on its way is not forgotten. A node whose heartbeats stop, or whose
+// control connection drops, gets no more games.
+//
+// Whoever holds a control connection decides where players are sent and what rating they come
+// back with, so the lobby listens on loopback unless configured otherwise and drops any
+// connection whose first line does not carry the shared secret.
+//
+// Control lines, one per message:
+//   node -> lobby   node <secret> <host> <port> <capacity>     first line: where players are sent
+//                   load <active games> <capacity> <placement>  heartbeat, counting placements up to <placement>
+//                   return <ticket> front|back <player>         a player is coming back to be requeued
+//   lobby -> node   lobby <host> <port>                         first line: where players are sent back
+//                   game <placement> <board size> <ticket X> <player X> <ticket O> <player O>
+// where <player> is "<win streak> <rating> <rated games>", what a player carries between processes.
+public class NodeRouter implements GameHost {
+    // How long a node's returning player has to reconnect before it is treated as a new arrival
+    private static final long RETURN_TICKET_MS = 30_000;
+
+    // A game node as the lobby sees it.
+    private static final class Node {
+        final String host;
+        final int port;
+        final PrintWriter out;
+        final ReentrantLock writeLock = new ReentrantLock();
+        volatile long placed;    // Number of the last placement sent; only changed under writeLock
+        volatile long counted;   // Number of the last placement the node's heartbeat included
+        volatile int active;
+        volatile int capacity;
+        volatile long lastHeartbeat = System.nanoTime();
+        volatile boolean connected = true;
+
+        Node(String host, int port, int capacity, PrintWriter out) {
+            this.host = host;
+            this.port = port;
+            this.capacity = capacity;
+            this.out = out;
+        }
+
+        // Active games including the ones placed after the last heartbeat was counted.
+        int load() {
+            return active + (int) (placed - counted);
+        }
+
+        boolean isLive(long now, long timeoutNanos) {
+            return connected && now - lastHeartbeat < timeoutNanos;
+        }
+
+        boolean send(String line) {
+            writeLock.lock();
+            try {
+                out.print(line);
+                out.print('\n');
+                out.flush();
+                return !out.checkError();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // Sends a game under the next placement number, so numbers reach the node in order.
+        boolean place(String game) {
+            writeLock.lock();
+            try {
+                placed++; // Only this thread writes it while the lock is held
+                return send("game " + placed + " " + game);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // Takes a heartbeat that counted every placement up to the given one. The games are
+        // updated before the placements, so a concurrent load() may briefly count a game twice
+        // but never misses one.
+        void heartbeat(int active, int capacity, long counted) {
+            this.active = active;
+            this.capacity = capacity;
+            this.counted = counted;
+            lastHeartbeat = System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    // A player a node sent back, until they reconnect to the lobby.
+    public static final class Return {
+        public final boolean front;
+        public final int winStreak;
+        public final int rating;
+        public final int ratedGames;
+
+        Return(boolean front, int winStreak, int rating, int ratedGames) {
+            this.front = front;
+            this.winStreak = winStreak;
+            this.rating = rating;
+            this.ratedGames = ratedGames;
+        }
+
+        // Gives a player who came back the streak and rating they left the node with.
+        public void restore(PlayerHandler player) {
+            player.setWinStreak(winStreak);
+            player.setRating(rating, ratedGames);
+        }
+    }
+
+    // Formats the state a player carries to another process: "<win streak> <rating> <rated games>".
+    public static String describe(PlayerHandler player) {
+        return player.getWinStreak() + " " + player.getRating() + " " + player.getRatedGames();
+    }
+
+    private final List<Node> nodes = new CopyOnWriteArrayList<>();
+    private final Map<String, Return> returns = new ConcurrentHashMap<>();
+    private final byte[] secret;
+    private final String lobbyHost;
+    private final int lobbyPort;
+    private final long heartbeatTimeoutNanos;
+    private final TimingWheel timers;
+    private volatile Runnable onSessionFinished;
+
+    // Starts accepting game nodes that know the secret on bindAddress:controlPort. Nodes send
+    // finished players back to the lobby at lobbyHost:lobbyPort. A node is dropped when it has
+    // not sent a heartbeat for heartbeatTimeoutMs.
+    public NodeRouter(String bindAddress, int controlPort, String secret, String lobbyHost, int lobbyPort,
+                      long heartbeatTimeoutMs, TimingWheel timers) throws IOException {
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.lobbyHost = lobbyHost;
+        this.lobbyPort = lobbyPort;
+        this.heartbeatTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatTimeoutMs);
+        this.timers = timers;
+        ServerSocket serverSocket = new ServerSocket(controlPort, 50, InetAddress.getByName(bindAddress));
+        Thread acceptor = new Thread(() -> acceptNodes(serverSocket), "node-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void setOnSessionFinished(Runnable onSessionFinished) {
+        this.onSessionFinished = onSessionFinished;
+    }
+
+    @Override
+    public boolean hasCapacity() {
+        return pickNode() != null;
+    }
+
+    // Places the pair on the least-loaded node and redirects both players to it.
+    // If the node cannot be told, the pair goes back to the front of the queue.
+    @Override
+    public void startGame(PlayerHandler p1, PlayerHandler p2, PlayerQueue queue) {
+        Node node = pickNode();
+        String ticket1 = ReconnectRegistry.newToken();
+        String ticket2 = ReconnectRegistry.newToken();
+        if (node == null || !node.place(p1.getBoardSize() + " " + ticket1 + " " + describe(p1)
+                + " " + ticket2 + " " + describe(p2))) {
+            if (node != null) {
+                node.connected = false;
+            }
+            queue.enqueueFront(p2);
+            queue.enqueueFront(p1);
+            return;
+        }
+        ServerMetrics.GAMES_PLACED.increment();
+        p1.redirect(node.host, node.port, ticket1);
+        p2.redirect(node.host, node.port, ticket2);
+    }
+
+    // Sends a spectator to a live node, where it watches that node's games.
+    // Returns false if there is no node to send it to.
+    public boolean redirectSpectator(PlayerHandler spectator) {
+        Node node = pickNode();
+        if (node == null) {
+            return false;
+        }
+        spectator.redirect(node.host, node.port, ReconnectRegistry.newToken());
+        return true;
+    }
+
+    // Returns how a player a node sent back with this ticket is to be requeued, or null if the
+    // ticket is unknown or expired. Each ticket can be claimed once.
+    public Return claimReturn(String ticket) {
+        return ticket == null ? null : returns.remove(ticket);
+    }
+
+    // Returns the number of nodes currently taking games.
+    public int liveNodeCount() {
+        long now = System.nanoTime();
+        int live = 0;
+        for (Node node : nodes) {
+            if (node.isLive(now, heartbeatTimeoutNanos)) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    // Returns the live node with the lowest load relative to its capacity, or null if every
+    // node is full, silent or gone. Ties go to the node with fewer games.
+    private Node pickNode() {
+        long now = System.nanoTime();
+        Node best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            int load = node.load();
+            if (!node.isLive(now, heartbeatTimeoutNanos) || load >= node.capacity) {
+                continue;
+            }
+            double relative = (double) load / node.capacity;
+            if (relative < bestLoad || (relative == bestLoad && load < best.load())) {
+                best = node;
+                bestLoad = relative;
+            }
+        }
+        return best;
+    }
+
+    private void acceptNodes(ServerSocket serverSocket) {
+        while (true) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> serveNode(socket), "node-control");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                System.out.println("Node control accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Reads one node's control lines until its connection drops.
+    private void serveNode(Socket socket) {
+        Node node = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+            String[] hello = split(in.readLine());
+            if (hello.length != 5 || !hello[0].equals("node")) {
+                System.out.println("Ignoring control connection that is not a game node.");
+                return;
+            }
+            // Compared in constant time, so the reply time does not give the secret away
+            if (!MessageDigest.isEqual(secret, hello[1].getBytes(StandardCharsets.UTF_8))) {
+                System.out.println("Rejected game node at " + socket.getRemoteSocketAddress() + ": wrong secret.");
+                return;
+            }
+            node = new Node(hello[2], Integer.parseInt(hello[3]), Integer.parseInt(hello[4]), out);
+            if (!node.send("lobby " + lobbyHost + " " + lobbyPort)) {
+                return;
+            }
+            nodes.add(node);
+            System.out.println("Game node " + node + " joined (capacity " + hello[4] + ").");
+            signalCapacity();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = split(line);
+                if (parts[0].equals("load") && parts.length == 4) {
+                    node.heartbeat(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Long.parseLong(parts[3]));
+                    signalCapacity();
+                } else if (parts[0].equals("return") && parts.length == 6) {
+                    String ticket = parts[1];
+                    returns.put(ticket, new Return(parts[2].equals("front"), Integer.parseInt(parts[3]),
+                            Integer.parseInt(parts[4]), Integer.parseInt(parts[5])));
+                    timers.schedule(() -> returns.remove(ticket), RETURN_TICKET_MS);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Game node control error: " + e.getMessage());
+        } finally {
+            if (node != null) {
+                node.connected = false;
+                nodes.remove(node);
+                System.out.println("Game node " + node + " left.");
+            }
+        }
+    }
+
+    // Wakes the matchmaker, which may have pairs waiting for room on a node.
+    private void signalCapacity() {
+        Runnable callback = onSessionFinished;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    private static String[] split(String line) {
+        return line == null ? new String[] {""} : line.trim().split(" +");
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Encoded messages waiting to be written to one client, shared by both connection types.
+//
+// Senders never write to the socket themselves: they queue the message and ask the
+// connection's flusher to run, at most once until it starts. Everything queued by the time
+// it runs goes out in a single write, so a burst of messages (a move, a result and the
+// replay prompt) costs one syscall instead of one each. Between beginBatch and endBatch no
+// flush is requested at all, so a whole turn's messages are coalesced.
+//
+// The queue is bounded. A client that reads so slowly that its backlog would pass the limit
+// is disconnected, or with the drop policy loses the messages that do not fit (which can
+// leave a binary client's board out of date until its next full snapshot).
+public final class OutboundQueue {
+    // What happens to a client whose backlog would pass the limit.
+    public enum SlowClientPolicy { DISCONNECT, DROP }
+
+    // Hard bound on a connection's queued bytes
+    public static final int LIMIT = Integer.getInteger("ttt.outboundLimitBytes", 1024 * 1024);
+    public static final SlowClientPolicy POLICY =
+            SlowClientPolicy.valueOf(System.getProperty("ttt.slowClientPolicy", "disconnect").toUpperCase());
+    // Backlog above which a connection reports itself as not writable, so that senders
+    // with something better to do than queue (spectators) can wait for it to drain
+    public static final int WRITABLE_LIMIT = 64 * 1024;
+
+    private final Queue<byte[]> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong(); // Queued or being written
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicInteger batchDepth = new AtomicInteger();
+    private final Runnable flusher;
+    private final Runnable onOverflow;
+    private volatile boolean closed = false;
+    private final LongAdder bytesWritten = new LongAdder(); // This client's share of BYTES_OUT
+
+    // flusher is asked to run (on whatever thread the connection writes from) whenever
+    // messages are waiting; onOverflow disconnects the client.
+    public OutboundQueue(Runnable flusher, Runnable onOverflow) {
+        this.flusher = flusher;
+        this.onOverflow = onOverflow;
+    }
+
+    // Queues a message. Returns false if it was refused because the client is too far behind.
+    public boolean add(byte[] data) {
+        if (closed) {
+            return false;
+        }
+        if (pendingBytes.get() + data.length > LIMIT) {
+            if (POLICY == SlowClientPolicy.DROP) {
+                ServerMetrics.OUTBOUND_DROPPED.increment();
+            } else {
+                ServerMetrics.SLOW_CLIENT_DISCONNECTS.increment();
+                onOverflow.run();
+            }
+            return false;
+        }
+        pendingBytes.addAndGet(data.length);
+        ServerMetrics.OUTBOUND_QUEUED_BYTES.add(data.length);
+        ServerMetrics.OUTBOUND_MESSAGES.increment();
+        messages.add(data);
+        if (closed) {
+            clear(); // Raced with close; keep the byte counts right
+            return false;
+        }
+        if (batchDepth.get() == 0) {
+            requestFlush();
+        }
+        return true;
+    }
+
+    // Holds back flushing until the matching endBatch. Batches may nest.
+    public void beginBatch() {
+        batchDepth.incrementAndGet();
+    }
+
+    // Ends a batch, flushing what it queued once the outermost batch is over.
+    public void endBatch() {
+        int depth;
+        do {
+            depth = batchDepth.get();
+            if (depth == 0) {
+                return; // Unbalanced; nothing is held back
+            }
+        } while (!batchDepth.compareAndSet(depth, depth - 1));
+        if (depth == 1 && !messages.isEmpty()) {
+            requestFlush();
+        }
+    }
+
+    // Called by the flusher before it takes messages, so that later ones request a new flush.
+    public void flushStarted() {
+        flushRequested.set(false);
+    }
+
+    // Takes the oldest queued message, or null. Its bytes stay pending until written.
+    public byte[] poll() {
+        return messages.poll();
+    }
+
+    // Records that bytes taken from the queue have reached the socket.
+    public void written(long bytes) {
+        long before = pendingBytes.getAndUpdate(pending -> Math.max(0, pending - bytes)); // 0 once cleared
+        ServerMetrics.OUTBOUND_QUEUED_BYTES.add(-Math.min(before, bytes));
+        ServerMetrics.BYTES_OUT.add(bytes);
+        bytesWritten.add(bytes);
+    }
+
+    // Returns the bytes written to the socket so far.
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    // Checks if the backlog is small enough to take more optional output.
+    public boolean isWritable() {
+        return pendingBytes.get() < WRITABLE_LIMIT;
+    }
+
+    // Discards everything still pending and refuses further messages, once the connection is closed.
+    public void clear() {
+        closed = true;
+        messages.clear();
+        long discarded = pendingBytes.getAndSet(0);
+        ServerMetrics.OUTBOUND_QUEUED_BYTES.add(-discarded);
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            flusher.run();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Solved Tic-Tac-Toe: the game-theoretic value and the optimal moves of every reachable position.
+//
+// Positions are numbered in base 3 (cell i contributes 3^i for X, 2 * 3^i for O) and only the
+// canonical form under the board's 8 symmetries is stored, which leaves 765 positions out of
+// the 5,478 reachable ones. Conversions work straight from Board's bitmasks through 512-entry
+// tables, so a lookup is a fixed handful of array reads with no search.
+//
+// The table is solved by memoized minimax in a few milliseconds, or loaded from the compact
+// binary file written by save (5 bytes per position).
+public class PerfectPlayTable {
+    private static final int MAGIC = 0x54545450; // "TTTP"
+    private static final int VERSION = 1;
+    private static final int STATES = 19683; // 3^9
+    private static final int FULL_MASK = 0x1FF;
+    private static final byte UNSOLVED = Byte.MIN_VALUE;
+
+    // SYMMETRIES[s][i] is the cell that cell i maps to under symmetry s (rotations, then reflections)
+    private static final int[][] SYMMETRIES = {
+        {0, 1, 2, 3, 4, 5, 6, 7, 8},
+        {2, 5, 8, 1, 4, 7, 0, 3, 6},
+        {8, 7, 6, 5, 4, 3, 2, 1, 0},
+        {6, 3, 0, 7, 4, 1, 8, 5, 2},
+        {2, 1, 0, 5, 4, 3, 8, 7, 6},
+        {0, 3, 6, 1, 4, 7, 2, 5, 8},
+        {6, 7, 8, 3, 4, 5, 0, 1, 2},
+        {8, 5, 2, 7, 4, 1, 6, 3, 0},
+    };
+
+    // BASE3[mask] is the base-3 number with a 1 digit for every set bit of a 9-bit mask
+    private static final int[] BASE3 = new int[1 << 9];
+    // PERMUTED[s][mask] is the mask moved by symmetry s; INVERSE[s] undoes PERMUTED[s]
+    private static final int[][] PERMUTED = new int[8][1 << 9];
+    private static final int[][] INVERSE = new int[8][1 << 9];
+
+    static {
+        for (int mask = 0; mask <= FULL_MASK; mask++) {
+            int value = 0;
+            for (int i = 8; i >= 0; i--) {
+                value = value * 3 + ((mask >> i) & 1);
+            }
+            BASE3[mask] = value;
+            for (int s = 0; s < 8; s++) {
+                int permuted = 0;
+                for (int i = 0; i < 9; i++) {
+                    if ((mask & (1 << i)) != 0) {
+                        permuted |= 1 << SYMMETRIES[s][i];
+                    }
+                }
+                PERMUTED[s][mask] = permuted;
+                INVERSE[s][permuted] = mask;
+            }
+        }
+    }
+
+    // Indexed by canonical position number; only canonical reachable positions are filled in
+    private final byte[] values = new byte[STATES];     // +1 win, 0 draw, -1 loss for the side to move
+    private final short[] bestMoves = new short[STATES]; // Mask of the optimal moves, canonical orientation
+    private int positions = 0;
+
+    private PerfectPlayTable() {
+        Arrays.fill(values, UNSOLVED);
+    }
+
+    // Solves every reachable position by minimax.
+    public static PerfectPlayTable build() {
+        PerfectPlayTable table = new PerfectPlayTable();
+        table.solve(0, 0);
+        return table;
+    }
+
+    // Loads a table written by save, or builds one and saves it if the file does not exist yet.
+    public static PerfectPlayTable loadOrBuild(Path path) throws IOException {
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                return read(in);
+            }
+        }
+        PerfectPlayTable table = build();
+        try (OutputStream out = Files.newOutputStream(path)) {
+            table.write(out);
+        }
+        return table;
+    }
+
+    // Reads a table in the binary format written by write.
+    public static PerfectPlayTable read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a perfect-play table");
+        }
+        PerfectPlayTable table = new PerfectPlayTable();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int code = in.readUnsignedShort();
+            if (code >= STATES) {
+                throw new IOException("Corrupt perfect-play table");
+            }
+            table.values[code] = in.readByte();
+            table.bestMoves[code] = in.readShort();
+        }
+        table.positions = count;
+        return table;
+    }
+
+    // Writes the table: magic, version, count, then (position, value, move mask) per position.
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(positions);
+        for (int code = 0; code < STATES; code++) {
+            if (values[code] != UNSOLVED) {
+                out.writeShort(code);
+                out.writeByte(values[code]);
+                out.writeShort(bestMoves[code]);
+            }
+        }
+        out.flush();
+    }
+
+    // Returns the number of canonical positions in the table.
+    public int size() {
+        return positions;
+    }
+
+    // Returns the mask of optimal moves (bit i = square i + 1) for the side to move,
+    // or 0 if the game is over or the position cannot occur.
+    public int bestMoves(int xMask, int oMask) {
+        int symmetry = canonicalSymmetry(xMask, oMask);
+        int code = code(PERMUTED[symmetry][xMask], PERMUTED[symmetry][oMask]);
+        return values[code] == UNSOLVED ? 0 : INVERSE[symmetry][bestMoves[code]];
+    }
+
+    // Returns the value of the position for the side to move: 1 win, 0 draw, -1 loss.
+    public int valueOf(int xMask, int oMask) {
+        int symmetry = canonicalSymmetry(xMask, oMask);
+        return values[code(PERMUTED[symmetry][xMask], PERMUTED[symmetry][oMask])];
+    }
+
+    // Minimax over canonical positions; returns the value for the side to move.
+    private int solve(int xMask, int oMask) {
+        int symmetry = canonicalSymmetry(xMask, oMask);
+        int x = PERMUTED[symmetry][xMask];
+        int o = PERMUTED[symmetry][oMask];
+        int code = code(x, o);
+        if (values[code] != UNSOLVED) {
+            return values[code];
+        }
+
+        boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+        int best = -2;
+        int moves = 0;
+        int occupied = x | o;
+        if (Board.isWinningMask(xToMove ? o : x)) {
+            best = -1; // The previous move won
+        } else if (occupied == FULL_MASK) {
+            best = 0;
+        } else {
+            for (int i = 0; i < 9; i++) {
+                int bit = 1 << i;
+                if ((occupied & bit) != 0) {
+                    continue;
+                }
+                int value = xToMove ? -solve(x | bit, o) : -solve(x, o | bit);
+                if (value > best) {
+                    best = value;
+                    moves = bit;
+                } else if (value == best) {
+                    moves |= bit;
+                }
+            }
+        }
+        values[code] = (byte) best;
+        bestMoves[code] = (short) moves;
+        positions++;
+        return best;
+    }
+
+    // Finds the symmetry that maps the position to its canonical (lowest-numbered) form.
+    private static int canonicalSymmetry(int xMask, int oMask) {
+        int best = 0;
+        int bestCode = Integer.MAX_VALUE;
+        for (int s = 0; s < 8; s++) {
+            int code = code(PERMUTED[s][xMask], PERMUTED[s][oMask]);
+            if (code < bestCode) {
+                bestCode = code;
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    private static int code(int xMask, int oMask) {
+        return BASE3[xMask] + 2 * BASE3[oMask];
+    }
+}
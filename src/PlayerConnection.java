@@ -0,0 +1,82 @@
+import java.io.IOException;
+
+// Transport used by a PlayerHandler to exchange messages with its client.
+// Client input is always newline-framed text; output is text lines or raw protocol frames.
+// Blocking transports only need readLine; event-driven transports also buffer received lines
+// and notify an input listener so a game can be advanced without a thread waiting on the socket.
+public interface PlayerConnection {
+    // Reads the next line, blocking until one arrives. Returns null at end of stream.
+    String readLine() throws IOException;
+
+    // Sends a single line to the client.
+    void writeLine(String line);
+
+    // Sends raw bytes (an encoded protocol frame) to the client.
+    void write(byte[] data);
+
+    // Returns the bytes received from the client over this connection so far.
+    default long getBytesIn() {
+        return 0;
+    }
+
+    // Returns the bytes written to the client over this connection so far.
+    default long getBytesOut() {
+        return 0;
+    }
+
+    // Registers a callback run once when the connection closes, however that happens.
+    default void setCloseListener(Runnable listener) {
+    }
+
+    // Checks if the connection has been closed.
+    boolean isClosed();
+
+    // Closes the connection.
+    void close() throws IOException;
+
+    // Closes the connection once everything queued so far has been written, e.g. after a redirect.
+    default void closeAfterFlush() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    // Checks if input is pushed by an event loop rather than pulled by a blocking reader.
+    default boolean isEventDriven() {
+        return false;
+    }
+
+    // Returns the next already-received line without blocking, or null if none is buffered.
+    default String pollLine() {
+        return null;
+    }
+
+    // Checks if the peer has closed its side and every buffered line has been consumed.
+    default boolean isInputExhausted() {
+        return false;
+    }
+
+    // Registers a callback run whenever new input (or end of stream) has been buffered.
+    default void setInputListener(Runnable listener) {
+    }
+
+    // Holds back writing queued output until the matching endBatch, so that everything sent in
+    // between reaches the socket in one write. Batches may nest.
+    default void beginBatch() {
+    }
+
+    // Ends a batch started with beginBatch and writes what it queued.
+    default void endBatch() {
+    }
+
+    // Checks if more output can be queued without growing the connection's backlog past its bound.
+    default boolean isWritable() {
+        return true;
+    }
+
+    // Registers a callback run when queued output has been flushed to the socket.
+    default void setWritableListener(Runnable listener) {
+    }
+}
@@ -1,33 +1,163 @@
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 // Handles an individual player in the Tic-Tac-Toe game.
 // Manages player communication, turn status, and win streak tracking.
 public class PlayerHandler {
-    private Socket socket;
-    private BufferedReader input;
-    private PrintWriter output;
+    // Connection of a player restored from a snapshot, until their client reconnects: its input
+    // has ended and whatever is written to it is dropped. Stateless, so shared.
+    private static final PlayerConnection DETACHED = new PlayerConnection() {
+        @Override
+        public String readLine() {
+            return null;
+        }
+
+        @Override
+        public void writeLine(String line) {
+        }
+
+        @Override
+        public void write(byte[] data) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return true;
+        }
+
+        @Override
+        public boolean isInputExhausted() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    // Replaced when the client reconnects into a game it was holding (see resume)
+    private volatile PlayerConnection connection;
+    private volatile Protocol protocol;
+    private final String name; // Null for anonymous players
+    private final String requestedToken; // Token sent in the hello to resume an earlier player, or null
+    private final String watchRequest; // Game the client asked to spectate ("any" or a session id), or null
+    private final String ticket; // Ticket from a redirect to this process, or null
+    private volatile String resumeToken; // Token this player can reconnect with
+    private volatile BoardSize boardSize; // Size of the games the player is matched for
+    private final ReentrantLock connectionLock = new ReentrantLock();
+    private final Condition reconnected = connectionLock.newCondition();
+    private PlayerConnection endedConnection; // Last connection whose input ran out, guarded by connectionLock
+    // Traffic of the connections a reconnect replaced, guarded by connectionLock
+    private long earlierBytesIn;
+    private long earlierBytesOut;
+    private final AtomicReference<GameSession> session = new AtomicReference<>();
+    private volatile Runnable disconnectListener;
     private char symbol; // 'X' or 'O'
     private boolean isTurn;
     private int winStreak = 0;
+    private volatile int rating = Rating.INITIAL;
+    private volatile int ratedGames = 0;
+    private volatile long queuedAt; // System.nanoTime() when the player last joined the queue
+    private final AtomicReference<TimingWheel.Timeout> queueTimeout = new AtomicReference<>();
 
-    // Initializes a new player connection.
+    // Initializes a new player connection over a blocking socket, using the text protocol.
     public PlayerHandler(Socket socket) throws IOException {
-        this.socket = socket;
-        this.input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.output = new PrintWriter(socket.getOutputStream(), true);
+        this(new SocketConnection(socket), TextProtocol.INSTANCE);
+    }
+
+    // Initializes a new anonymous player over any transport, speaking the negotiated protocol.
+    public PlayerHandler(PlayerConnection connection, Protocol protocol) {
+        this(connection, protocol, null, null, null, null, BoardSize.CLASSIC);
+    }
+
+    // Initializes a new player from the hello line the client opened with (null if none).
+    public PlayerHandler(PlayerConnection connection, String helloLine) {
+        this(connection, Hello.parse(helloLine));
+    }
+
+    // Creates a placeholder for a player restored from a snapshot, whose client has yet to
+    // reconnect. It reads as a dropped connection, so a game waits for it as for any player who
+    // dropped, and the client takes its place with resume.
+    public static PlayerHandler detached(String name, BoardSize boardSize) {
+        return new PlayerHandler(DETACHED, TextProtocol.INSTANCE, name, null, null, null, boardSize);
+    }
+
+    private PlayerHandler(PlayerConnection connection, Hello hello) {
+        this(connection, Protocol.forHello(hello), hello != null ? hello.getName() : null,
+                hello != null ? hello.get("token") : null, hello != null ? hello.get("watch") : null,
+                hello != null ? hello.get("ticket") : null, hello != null ? hello.getBoardSize() : BoardSize.CLASSIC);
+    }
+
+    private PlayerHandler(PlayerConnection connection, Protocol protocol, String name, String requestedToken,
+                          String watchRequest, String ticket, BoardSize boardSize) {
+        this.connection = connection;
+        this.protocol = protocol;
+        this.name = name;
+        this.requestedToken = requestedToken;
+        this.watchRequest = watchRequest;
+        this.ticket = ticket;
+        this.boardSize = boardSize;
+        connection.setInputListener(this::onInput);
+        protocol.start(connection);
     }
 
     // Checks if the player is disconnected.
     public boolean isDisconnected() {
-        return socket.isClosed() || !socket.isConnected();
+        return connection.isClosed();
+    }
+
+    // Returns the name the player announced in their hello, or null if they are anonymous.
+    public String getName() {
+        return name;
+    }
+
+    // Returns the token the client sent to resume an earlier connection, or null.
+    public String getRequestedToken() {
+        return requestedToken;
+    }
+
+    // Returns the game the client asked to watch instead of playing, or null.
+    public String getWatchRequest() {
+        return watchRequest;
+    }
+
+    // Returns the ticket the client was redirected here with, or null.
+    public String getTicket() {
+        return ticket;
+    }
+
+    // Returns the board size the player asked for; only players asking for the same size are paired.
+    public BoardSize getBoardSize() {
+        return boardSize;
     }
 
-    // Increments the player's win streak, capped at 255.
+    // Changes the size the player is matched for, e.g. to the classic size when the server
+    // does not offer the one the client asked for.
+    public void setBoardSize(BoardSize boardSize) {
+        this.boardSize = boardSize;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    // Sets the token this player can reconnect with; see ReconnectRegistry.
+    public void setResumeToken(String token) {
+        this.resumeToken = token;
+    }
+
+    // Restores a win streak carried over from an earlier connection.
+    public void setWinStreak(int winStreak) {
+        this.winStreak = winStreak;
+    }
+
+    // Increments the player's win streak.
     public void incrementWinStreak() {
-        if (winStreak < 255) {
-            winStreak++;
-        }
+        winStreak++;
     }
 
     // Resets the player's win streak to 0.
@@ -40,6 +170,27 @@ public class PlayerHandler {
         return winStreak;
     }
 
+    // Returns the player's Elo rating; see Rating.
+    public int getRating() {
+        return rating;
+    }
+
+    // Returns how many rated games the player has played.
+    public int getRatedGames() {
+        return ratedGames;
+    }
+
+    // Sets the player's rating and rated game count, e.g. after a game or when restoring saved stats.
+    public void setRating(int rating, int ratedGames) {
+        this.rating = rating;
+        this.ratedGames = ratedGames;
+    }
+
+    // Checks if the player is a built-in bot; games against bots are not rated.
+    public boolean isBot() {
+        return connection instanceof BotPlayer;
+    }
+
     // Sets the player's symbol ('X' or 'O').
     public void setSymbol(char symbol) {
         this.symbol = symbol;
@@ -55,24 +206,288 @@ public class PlayerHandler {
         this.isTurn = turn;
     }
 
+    // Records that the player has just joined the waiting queue.
+    public void markQueued() {
+        queuedAt = System.nanoTime();
+    }
+
+    // Returns the time the player last joined the waiting queue, as a System.nanoTime() value.
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    // Replaces the timeout that removes the player from the queue, cancelling the old one.
+    // Pass null when the player leaves the queue.
+    public void setQueueTimeout(TimingWheel.Timeout timeout) {
+        TimingWheel.Timeout previous = queueTimeout.getAndSet(timeout);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
     // Checks if it's the player's turn.
     public boolean isTurn() {
         return isTurn;
     }
 
-    // Reads a message from the player.
-    public String readMessage() throws IOException {
-        return input.readLine();
+    // Checks if the player's input is delivered by an event loop instead of a blocking read.
+    public boolean isEventDriven() {
+        return connection.isEventDriven();
+    }
+
+    // Attaches the session that should be advanced when this player's input arrives.
+    public void attachSession(GameSession gameSession) {
+        session.set(gameSession);
+    }
+
+    // Detaches the given session, unless the player has already moved on to another one.
+    public void detachSession(GameSession gameSession) {
+        session.compareAndSet(gameSession, null);
+    }
+
+    // Checks if the player is part of a game, including one held open for them to reconnect.
+    public boolean isInGame() {
+        return session.get() != null;
+    }
+
+    // Hands a reconnecting client's new connection to this player, if its game is still on.
+    // fresh is the player created for the new connection; it is discarded afterwards.
+    public boolean resume(PlayerHandler fresh) {
+        GameSession current = session.get();
+        return current != null && current.resume(this, fresh);
+    }
+
+    // Switches to a reconnecting client's connection and protocol and closes the old connection.
+    // Called by the game session so that the switch is atomic with respect to the game's state.
+    void takeConnection(PlayerHandler fresh) {
+        PlayerConnection old;
+        connectionLock.lock();
+        try {
+            old = connection;
+            earlierBytesIn += old.getBytesIn();
+            earlierBytesOut += old.getBytesOut();
+            connection = fresh.connection;
+            protocol = fresh.protocol;
+            reconnected.signalAll();
+        } finally {
+            connectionLock.unlock();
+        }
+        connection.setInputListener(this::onInput);
+        try {
+            old.close();
+        } catch (IOException e) {
+            // The old connection is already broken
+        }
     }
 
-    // Sends a message to the player.
-    public void sendMessage(String message) {
-        output.println(message);
-        output.flush();
+    // Returns the bytes received from the player's client, over every connection it has had.
+    public long getBytesIn() {
+        connectionLock.lock();
+        try {
+            return earlierBytesIn + connection.getBytesIn();
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    // Returns the bytes written to the player's client, over every connection it has had.
+    public long getBytesOut() {
+        connectionLock.lock();
+        try {
+            return earlierBytesOut + connection.getBytesOut();
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    // Waits up to timeoutMs for the client to reconnect after readMessage reported end of input.
+    public boolean awaitReconnect(long timeoutMs) {
+        connectionLock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (connection == endedConnection) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = reconnected.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    // Sets a callback run when the transport reports that the player left outside of a game.
+    public void setDisconnectListener(Runnable listener) {
+        this.disconnectListener = listener;
+    }
+
+    // Reads a message from the player, blocking until one arrives.
+    // Returns null once the connection's input has ended or failed; if the client reconnected
+    // in the meantime, reading simply continues on the new connection.
+    public String readMessage() {
+        while (true) {
+            PlayerConnection current = connection;
+            String message;
+            try {
+                message = current.readLine();
+                while (message != null && Hello.isHello(message)) {
+                    message = current.readLine(); // A hello that arrived after the handshake gave up
+                }
+            } catch (IOException e) {
+                message = null; // A reset connection ends like a closed one
+            }
+            if (message != null) {
+                return message;
+            }
+            connectionLock.lock();
+            try {
+                if (current == connection) {
+                    endedConnection = current;
+                    return null;
+                }
+            } finally {
+                connectionLock.unlock();
+            }
+        }
+    }
+
+    // Returns an already-received message without blocking, or null if there is none.
+    public String pollMessage() {
+        String message = connection.pollLine();
+        while (message != null && Hello.isHello(message)) {
+            message = connection.pollLine();
+        }
+        return message;
+    }
+
+    // Checks if the player has closed their input and all of it has been read.
+    public boolean isInputExhausted() {
+        return connection.isInputExhausted();
+    }
+
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    // Sends a message that was already encoded with this player's protocol, e.g. a shared spectator update.
+    public void sendEncoded(byte[] message) {
+        connection.write(message);
+    }
+
+    // Holds back the player's output until endBatch, so that it is written in one go.
+    public void beginBatch() {
+        connection.beginBatch();
+    }
+
+    public void endBatch() {
+        connection.endBatch();
+    }
+
+    // Checks if the connection can take more output without its backlog growing past its bound.
+    public boolean isWritable() {
+        return connection.isWritable();
+    }
+
+    // Sets a callback run when the connection has flushed its queued output.
+    public void setWritableListener(Runnable listener) {
+        connection.setWritableListener(listener);
+    }
+
+    // Gives the player the token it can reconnect with.
+    public void sendSessionToken(String token) {
+        protocol.sendSessionToken(connection, token);
+    }
+
+    // Resends the player's symbol and the whole board after a reconnect, in one message.
+    public void sendResync(Board board) {
+        protocol.sendResync(connection, board, symbol, isTurn);
+    }
+
+    // Tells the player which symbol they play.
+    public void sendSymbol() {
+        protocol.sendSymbol(connection, symbol);
+    }
+
+    // Tells the player they are waiting for an opponent.
+    public void sendWaiting() {
+        protocol.sendWaiting(connection);
+    }
+
+    // Sends the whole board along with the player's turn status.
+    public void sendBoard(Board board) {
+        protocol.sendBoard(connection, board, isTurn);
+    }
+
+    // Sends a move that was just made along with the player's turn status.
+    public void sendMove(Board board, int position, char moveSymbol) {
+        protocol.sendMove(connection, board, position, moveSymbol, isTurn);
+    }
+
+    // Tells the player they won, with their current win streak.
+    public void sendWin() {
+        protocol.sendWin(connection, winStreak);
+    }
+
+    public void sendLoss() {
+        protocol.sendLoss(connection);
+    }
+
+    public void sendTie() {
+        protocol.sendTie(connection);
+    }
+
+    public void sendInvalidMove() {
+        protocol.sendInvalidMove(connection);
+    }
+
+    // Tells the player their position in the waiting queue.
+    public void sendQueuePosition(int position) {
+        protocol.sendQueuePosition(connection, position);
+    }
+
+    public void sendOpponentLeft() {
+        protocol.sendOpponentLeft(connection);
+    }
+
+    public void sendReplayPrompt() {
+        protocol.sendReplayPrompt(connection);
     }
 
     // Closes the player's connection.
     public void close() throws IOException {
-        socket.close();
+        connection.close();
+    }
+
+    // Sends the player to another server process with a ticket, then closes the connection
+    // once the redirect has been written.
+    public void redirect(String host, int port, String ticket) {
+        ServerMetrics.PLAYERS_REDIRECTED.increment();
+        protocol.sendRedirect(connection, host, port, ticket);
+        connection.closeAfterFlush();
+    }
+
+    // Tells the player the server is too busy to take them and when to try again, then closes
+    // the connection once that has been written.
+    public void reject(long retryAfterMs) {
+        protocol.sendBusy(connection, retryAfterMs);
+        connection.closeAfterFlush();
+    }
+
+    // Advances the player's current game when new input has been buffered by the transport.
+    // Without a game, a closed connection is reported so the player can leave the queue.
+    private void onInput() {
+        GameSession current = session.get();
+        if (current != null) {
+            current.pump();
+        } else if (isDisconnected()) {
+            Runnable listener = disconnectListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+// Where a game sends its players once it is over: the local Matchmaker, or, on a game node,
+// back to the lobby (NodeAgent).
+public interface PlayerQueue {
+    // Queues a player at the back.
+    void enqueue(PlayerHandler player);
+
+    // Queues a player at the front, e.g. a winner who wants to play again.
+    void enqueueFront(PlayerHandler player);
+
+    // Sends a player their queue position right away, if the queue is in this process.
+    void sendQueuePosition(PlayerHandler player);
+}
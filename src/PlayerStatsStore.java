@@ -0,0 +1,353 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Persistent win/loss/draw counts, streaks, ratings, rated-game counts and last-seen times for
+// named players.
+//
+// Stats live in an append-only log of fixed-size records in a memory-mapped file. Every
+// update appends the player's complete new record, so the latest record for a player is
+// their current state; an in-memory LongIntMap from player id to record offset finds it.
+// When the mapped region fills up, the live records are copied into a fresh file that
+// atomically replaces the old one. On startup the log is scanned once to rebuild the index,
+// stopping at the first torn or blank record.
+//
+// Game threads only enqueue events; a single writer thread applies them in batches, so a
+// slow disk never stalls a game. If the writer falls behind by more than the queue's
+// capacity, further events are dropped and counted rather than blocking the caller.
+public class PlayerStatsStore implements Closeable {
+    // Something that happened to a player.
+    public enum Event { WIN, LOSS, DRAW, SEEN }
+
+    // A player's stats as last written.
+    public static final class Stats {
+        public final int wins;
+        public final int losses;
+        public final int draws;
+        public final int streak;
+        public final int bestStreak;
+        public final long lastSeenMillis;
+        public final int rating;
+        public final int ratedGames; // Games that moved the rating; bot games do not
+
+        Stats(int wins, int losses, int draws, int streak, int bestStreak, long lastSeenMillis, int rating,
+              int ratedGames) {
+            this.wins = wins;
+            this.losses = losses;
+            this.draws = draws;
+            this.streak = streak;
+            this.bestStreak = bestStreak;
+            this.lastSeenMillis = lastSeenMillis;
+            this.rating = rating;
+            this.ratedGames = ratedGames;
+        }
+    }
+
+    // An event waiting to be applied by the writer thread.
+    private static final class PendingEvent {
+        final long id;
+        final Event event;
+        final int streak;
+        final int rating;
+        final int ratedGames;
+        final long timeMillis;
+
+        PendingEvent(long id, Event event, int streak, int rating, int ratedGames, long timeMillis) {
+            this.id = id;
+            this.event = event;
+            this.streak = streak;
+            this.rating = rating;
+            this.ratedGames = ratedGames;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private static final int MAGIC = 0x54545453; // "TTTS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    // Record layout: id, wins, losses, draws, streak, best streak, last seen, rating, rated games, check
+    private static final int RECORD_SIZE = 48;
+    private static final int OFF_WINS = 8;
+    private static final int OFF_LOSSES = 12;
+    private static final int OFF_DRAWS = 16;
+    private static final int OFF_STREAK = 20;
+    private static final int OFF_BEST = 24;
+    private static final int OFF_LAST_SEEN = 28;
+    private static final int OFF_RATING = 36;
+    private static final int OFF_RATED_GAMES = 40;
+    private static final int OFF_CHECK = 44;
+
+    private static final int MIN_CAPACITY = HEADER_SIZE + 4096 * RECORD_SIZE;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 1024;
+    private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Wakes the writer to stop. The writer is never interrupted: an interrupt during file I/O
+    // closes the channel, losing the batch being applied and failing a compaction midway
+    private static final PendingEvent STOP = new PendingEvent(0, Event.SEEN, 0, 0, 0, 0);
+
+    private final Path path;
+    private final BlockingQueue<PendingEvent> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Guards the index and the mapped log; held by the writer once per batch and by lookups
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Thread writer;
+
+    private FileChannel channel;
+    private MappedByteBuffer log;
+    private LongIntMap index;
+    private int writePosition;
+    private boolean dirty = false; // Only touched by the writer thread
+    private long lastSync = System.nanoTime();
+    private volatile boolean closed = false;
+
+    // Opens (or creates) the log at the given path, rebuilds the index and starts the writer.
+    public PlayerStatsStore(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Stats log too large: " + size + " bytes");
+        }
+        log = map(channel, Math.max(MIN_CAPACITY, (int) size));
+        if (size == 0) {
+            writeHeader(log);
+        } else if (log.getInt(0) != MAGIC || log.getInt(4) != VERSION) {
+            throw new IOException("Not a player stats log: " + path);
+        }
+        rebuildIndex();
+
+        writer = new Thread(this::runWriter, "player-stats");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Derives the stable 64-bit id under which a player name is stored (case-insensitive FNV-1a).
+    public static long idFor(String name) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : name.toLowerCase().getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash == 0 ? 1 : hash; // 0 marks a blank record
+    }
+
+    // Queues an event for a named player, with the player's current win streak, rating and
+    // number of rated games. Never blocks.
+    public void record(String name, Event event, int streak, int rating, int ratedGames) {
+        if (closed || !pending.offer(new PendingEvent(idFor(name), event, streak, rating, ratedGames,
+                System.currentTimeMillis()))) {
+            ServerMetrics.STATS_DROPPED.increment();
+        }
+    }
+
+    // Returns the stats last written for a player, or null if the player has never been seen.
+    // Events still queued for the writer are not reflected.
+    public Stats get(String name) {
+        lock.lock();
+        try {
+            int offset = index.get(idFor(name));
+            if (offset < 0) {
+                return null;
+            }
+            return new Stats(log.getInt(offset + OFF_WINS), log.getInt(offset + OFF_LOSSES),
+                    log.getInt(offset + OFF_DRAWS), log.getInt(offset + OFF_STREAK),
+                    log.getInt(offset + OFF_BEST), log.getLong(offset + OFF_LAST_SEEN), log.getInt(offset + OFF_RATING),
+                    log.getInt(offset + OFF_RATED_GAMES));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the number of players with stats.
+    public int playerCount() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Applies the events still queued, flushes the log to disk and stops the writer.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        pending.offer(STOP); // If the queue is full the writer is not waiting, and sees closed after its batch
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            applyBatch(drain());
+            log.force();
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Applies queued events in batches, syncing the log at most once per interval.
+    private void runWriter() {
+        List<PendingEvent> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed) {
+            try {
+                PendingEvent first = pending.poll(SYNC_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, BATCH_SIZE - 1);
+                }
+                lock.lock();
+                try {
+                    applyBatch(batch);
+                    if (dirty && System.nanoTime() - lastSync >= SYNC_INTERVAL_NANOS) {
+                        log.force();
+                        dirty = false;
+                        lastSync = System.nanoTime();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } catch (InterruptedException e) {
+                return; // Not expected; close() applies whatever is left
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Player stats writer error: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private List<PendingEvent> drain() {
+        List<PendingEvent> rest = new ArrayList<>();
+        pending.drainTo(rest);
+        return rest;
+    }
+
+    // Appends one new record per event. Called with the lock held.
+    private void applyBatch(List<PendingEvent> batch) throws IOException {
+        for (PendingEvent e : batch) {
+            if (e == STOP) {
+                continue;
+            }
+            int previous = index.get(e.id);
+            int wins = 0, losses = 0, draws = 0, best = 0;
+            if (previous >= 0) {
+                wins = log.getInt(previous + OFF_WINS);
+                losses = log.getInt(previous + OFF_LOSSES);
+                draws = log.getInt(previous + OFF_DRAWS);
+                best = log.getInt(previous + OFF_BEST);
+            }
+            switch (e.event) {
+                case WIN: wins++; break;
+                case LOSS: losses++; break;
+                case DRAW: draws++; break;
+                default: break;
+            }
+            if (writePosition + RECORD_SIZE > log.capacity()) {
+                compact();
+            }
+            writeRecord(log, writePosition, e.id, wins, losses, draws, e.streak, Math.max(best, e.streak),
+                    e.timeMillis, e.rating, e.ratedGames);
+            index.put(e.id, writePosition);
+            writePosition += RECORD_SIZE;
+            dirty = true;
+        }
+    }
+
+    // Copies the latest record of every player into a new file, sized so that the log can
+    // grow to about twice its live size before the next compaction, and swaps it in.
+    private void compact() throws IOException {
+        long liveBytes = HEADER_SIZE + (long) index.size() * RECORD_SIZE;
+        long capacity = Math.max(MIN_CAPACITY, liveBytes * 2);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Stats log cannot grow beyond 2 GB");
+        }
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        FileChannel newChannel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer newLog = map(newChannel, (int) capacity);
+        writeHeader(newLog);
+        LongIntMap newIndex = new LongIntMap(index.size());
+        int[] position = {HEADER_SIZE};
+        index.forEach((id, offset) -> {
+            for (int i = 0; i < RECORD_SIZE; i += 4) {
+                newLog.putInt(position[0] + i, log.getInt(offset + i));
+            }
+            newIndex.put(id, position[0]);
+            position[0] += RECORD_SIZE;
+        });
+        newLog.force();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel.close();
+        channel = newChannel; // Still refers to the renamed file
+        log = newLog;
+        index = newIndex;
+        writePosition = position[0];
+    }
+
+    // Scans the log from the start, indexing the latest valid record of each player.
+    private void rebuildIndex() {
+        index = new LongIntMap(1024);
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_SIZE <= log.capacity()) {
+            long id = log.getLong(offset);
+            if (id == 0 || log.getInt(offset + OFF_CHECK) != checksum(log, offset)) {
+                break; // End of the log, or a record torn by a crash
+            }
+            index.put(id, offset);
+            offset += RECORD_SIZE;
+        }
+        writePosition = offset;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int capacity) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static void writeHeader(MappedByteBuffer buffer) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, 0);
+    }
+
+    private static void writeRecord(MappedByteBuffer buffer, int offset, long id, int wins, int losses,
+                                    int draws, int streak, int best, long lastSeen, int rating, int ratedGames) {
+        buffer.putLong(offset, id);
+        buffer.putInt(offset + OFF_WINS, wins);
+        buffer.putInt(offset + OFF_LOSSES, losses);
+        buffer.putInt(offset + OFF_DRAWS, draws);
+        buffer.putInt(offset + OFF_STREAK, streak);
+        buffer.putInt(offset + OFF_BEST, best);
+        buffer.putLong(offset + OFF_LAST_SEEN, lastSeen);
+        buffer.putInt(offset + OFF_RATING, rating);
+        buffer.putInt(offset + OFF_RATED_GAMES, ratedGames);
+        buffer.putInt(offset + OFF_CHECK, checksum(buffer, offset)); // Written last
+    }
+
+    // Mixes every field of a record so that a partially written record fails the check.
+    private static int checksum(MappedByteBuffer buffer, int offset) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < OFF_CHECK; i += 4) {
+            h = (h ^ (buffer.getInt(offset + i) & 0xFFFFFFFFL)) * 0x100000001B3L;
+        }
+        return (int) (h ^ (h >>> 32)) | 1; // Never 0, so a blank record never passes
+    }
+}
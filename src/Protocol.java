@@ -0,0 +1,62 @@
+// Encodes server-to-client game messages for one connection.
+// Clients pick an encoding when they connect: clients that open with a binary hello line
+// get BinaryProtocol, everyone else (including older clients) gets TextProtocol.
+public interface Protocol {
+    // Line a client sends to have its game's symbol and full board sent again, e.g. when its own
+    // copy of the board no longer fits the moves it is sent. It does not use up the client's turn.
+    String RESYNC_REQUEST = "R";
+
+    // Called once when the connection is set up, before any other message.
+    void start(PlayerConnection out);
+
+    // Tells the player which symbol ('X' or 'O') they play in the new game.
+    void sendSymbol(PlayerConnection out, char symbol);
+
+    // Tells the player they are waiting for an opponent.
+    void sendWaiting(PlayerConnection out);
+
+    // Sends the complete board and whether it is the player's turn.
+    void sendBoard(PlayerConnection out, Board board, boolean yourTurn);
+
+    // Sends a single move that was just applied to the board and whether it is now the player's turn.
+    void sendMove(PlayerConnection out, Board board, int position, char symbol, boolean yourTurn);
+
+    void sendWin(PlayerConnection out, int winStreak);
+
+    void sendLoss(PlayerConnection out);
+
+    void sendTie(PlayerConnection out);
+
+    void sendInvalidMove(PlayerConnection out);
+
+    void sendQueuePosition(PlayerConnection out, int position);
+
+    void sendOpponentLeft(PlayerConnection out);
+
+    void sendReplayPrompt(PlayerConnection out);
+
+    // Gives the player the token it can send in its hello to resume its game after a reconnect.
+    void sendSessionToken(PlayerConnection out, String token);
+
+    // Sends the client to another server process (a game node, or back to the lobby), where it
+    // reconnects and sends the ticket in its hello as "ticket=".
+    void sendRedirect(PlayerConnection out, String host, int port, String ticket);
+
+    // Turns the client away because the server is overloaded; it may connect again after retryAfterMs.
+    void sendBusy(PlayerConnection out, long retryAfterMs);
+
+    // Resends the player's symbol and the complete board to a client that just reconnected.
+    void sendResync(PlayerConnection out, Board board, char symbol, boolean yourTurn);
+
+    // Encodes a spectator update: the whole board and the game's status (see SpectatorGroup).
+    // The result is written as-is to every spectator using this protocol, so it must not be modified.
+    byte[] encodeSpectate(Board board, int status);
+
+    // Picks the protocol for the client's hello, or the text protocol if there was none.
+    static Protocol forHello(Hello hello) {
+        if (hello != null && BinaryProtocol.isSupportedHello(hello)) {
+            return BinaryProtocol.INSTANCE;
+        }
+        return TextProtocol.INSTANCE;
+    }
+}
@@ -0,0 +1,36 @@
+// Elo ratings for players. Everyone starts at 1500. A player's first PROVISIONAL_GAMES rated
+// games move their rating twice as fast, so newcomers find their level quickly while
+// established ratings stay stable. Ratings are kept between MIN and MAX.
+public final class Rating {
+    public static final int INITIAL = 1500;
+    public static final int MIN = 0;
+    public static final int MAX = 4000;
+    public static final int PROVISIONAL_GAMES = 30;
+    private static final int K_PROVISIONAL = 40;
+    private static final int K_ESTABLISHED = 20;
+
+    private Rating() {
+    }
+
+    // Returns the score a player is expected to make against an opponent: the chance of
+    // winning, counting a draw as half a win.
+    public static double expectedScore(int rating, int opponentRating) {
+        return 1 / (1 + Math.pow(10, (opponentRating - rating) / 400.0));
+    }
+
+    // Returns a player's new rating after a game with the given score (1 win, 0.5 draw, 0 loss)
+    // against an opponent, given how many rated games the player had played before it.
+    public static int updated(int rating, int gamesPlayed, int opponentRating, double score) {
+        int k = gamesPlayed < PROVISIONAL_GAMES ? K_PROVISIONAL : K_ESTABLISHED;
+        long next = Math.round(rating + k * (score - expectedScore(rating, opponentRating)));
+        return (int) Math.max(MIN, Math.min(MAX, next));
+    }
+
+    // Rates a finished game between two players; scoreA is the first player's score.
+    public static void rate(PlayerHandler a, PlayerHandler b, double scoreA) {
+        int ratingA = a.getRating();
+        int ratingB = b.getRating();
+        a.setRating(updated(ratingA, a.getRatedGames(), ratingB, scoreA), a.getRatedGames() + 1);
+        b.setRating(updated(ratingB, b.getRatedGames(), ratingA, 1 - scoreA), b.getRatedGames() + 1);
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Queued players by rating, for finding a player's nearest-rated opponent.
+//
+// Ratings are grouped into fixed-width buckets, each holding its players in the order they
+// were added. A bitmap of the non-empty buckets lets a search skip empty stretches 64 buckets
+// at a time; it then only looks at the players in buckets that could hold someone nearer than
+// the best found so far, and within the window, so it costs O(buckets / 64) plus the players
+// rated close to the one searching. Adding and removing a player are O(1). Everything is
+// guarded by one ReentrantLock, held only for those short operations.
+//
+// A player is filed under the rating they had when added; ratings only change in games, and
+// players are not queued while they play.
+public class RatingIndex {
+    private final int bucketWidth;
+    private final List<LinkedHashSet<PlayerHandler>> buckets;
+    private final long[] nonEmpty; // Bit b is set when bucket b has players
+    private final Map<PlayerHandler, Integer> bucketOf = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Creates an index over ratings Rating.MIN..Rating.MAX in buckets of bucketWidth points.
+    public RatingIndex(int bucketWidth) {
+        if (bucketWidth < 1) {
+            throw new IllegalArgumentException("bucketWidth must be at least 1");
+        }
+        this.bucketWidth = bucketWidth;
+        int count = (Rating.MAX - Rating.MIN) / bucketWidth + 1;
+        buckets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            buckets.add(new LinkedHashSet<>());
+        }
+        nonEmpty = new long[(count + 63) / 64];
+    }
+
+    // Adds a player under their current rating. Returns false if they were already indexed.
+    public boolean add(PlayerHandler player) {
+        lock.lock();
+        try {
+            if (bucketOf.containsKey(player)) {
+                return false;
+            }
+            int bucket = bucketFor(player.getRating());
+            bucketOf.put(player, bucket);
+            buckets.get(bucket).add(player);
+            nonEmpty[bucket >> 6] |= 1L << bucket;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes a player. Returns false if they were not indexed.
+    public boolean remove(PlayerHandler player) {
+        lock.lock();
+        try {
+            Integer bucket = bucketOf.remove(player);
+            if (bucket == null) {
+                return false;
+            }
+            buckets.get(bucket).remove(player);
+            if (buckets.get(bucket).isEmpty()) {
+                nonEmpty[bucket >> 6] &= ~(1L << bucket);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return bucketOf.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the indexed player, other than exclude, whose rating is nearest to the given one
+    // and at most window points away, or null if there is none. Between equally near players
+    // the one who joined the queue first wins. The player is not removed.
+    public PlayerHandler nearest(int rating, int window, PlayerHandler exclude) {
+        lock.lock();
+        try {
+            int home = bucketFor(rating);
+            Candidate best = new Candidate(rating, exclude);
+            best.scan(buckets.get(home));
+            // Walk outward on each side while a bucket could still hold someone nearer and within reach
+            for (int bucket = previousNonEmpty(home - 1); bucket >= 0 && best.couldImprove(home - bucket - 1L, window);
+                 bucket = previousNonEmpty(bucket - 1)) {
+                best.scan(buckets.get(bucket));
+            }
+            for (int bucket = nextNonEmpty(home + 1); bucket >= 0 && best.couldImprove(bucket - home - 1L, window);
+                 bucket = nextNonEmpty(bucket + 1)) {
+                best.scan(buckets.get(bucket));
+            }
+            return best.gap <= window ? best.player : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int bucketFor(int rating) {
+        int clamped = Math.max(Rating.MIN, Math.min(Rating.MAX, rating));
+        return (clamped - Rating.MIN) / bucketWidth;
+    }
+
+    // Returns the first non-empty bucket at or after from, or -1.
+    private int nextNonEmpty(int from) {
+        if (from >= buckets.size()) {
+            return -1;
+        }
+        int word = from >> 6;
+        long bits = nonEmpty[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == nonEmpty.length) {
+                return -1;
+            }
+            bits = nonEmpty[word];
+        }
+    }
+
+    // Returns the last non-empty bucket at or before from, or -1.
+    private int previousNonEmpty(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int word = from >> 6;
+        long bits = nonEmpty[word] & (-1L >>> (63 - (from & 63)));
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+            }
+            if (--word < 0) {
+                return -1;
+            }
+            bits = nonEmpty[word];
+        }
+    }
+
+    // The nearest player found so far in a search.
+    private final class Candidate {
+        private final int rating;
+        private final PlayerHandler exclude;
+        private PlayerHandler player;
+        private long gap = Long.MAX_VALUE;
+
+        Candidate(int rating, PlayerHandler exclude) {
+            this.rating = rating;
+            this.exclude = exclude;
+        }
+
+        // Checks if a bucket that many whole buckets away could hold a nearer player within window.
+        boolean couldImprove(long bucketsBetween, int window) {
+            return bucketsBetween * bucketWidth <= Math.min(gap, window);
+        }
+
+        // Takes the nearest player of a bucket if they are nearer than the one found so far,
+        // or as near and queued earlier.
+        void scan(LinkedHashSet<PlayerHandler> bucket) {
+            for (PlayerHandler candidate : bucket) {
+                long candidateGap = Math.abs(candidate.getRating() - rating);
+                if (candidate != exclude && (candidateGap < gap
+                        || candidateGap == gap && candidate.getQueuedAt() - player.getQueuedAt() < 0)) {
+                    player = candidate;
+                    gap = candidateGap;
+                }
+            }
+        }
+    }
+}
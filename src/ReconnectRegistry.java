@@ -0,0 +1,58 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Issues resumable session tokens and finds the player a reconnecting client belongs to.
+// A token is 128 random bits, so it cannot be guessed; lookups are a single hash probe,
+// which keeps a reconnect storm (e.g. after a load balancer restart) cheap.
+// Players who are gone for good are swept out whenever the map has doubled since the last sweep.
+public class ReconnectRegistry {
+    private static final int MIN_SWEEP_SIZE = 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private final Map<String, PlayerHandler> players = new ConcurrentHashMap<>();
+    private final AtomicInteger sweepAt = new AtomicInteger(MIN_SWEEP_SIZE);
+
+    // Issues a new token for the player and remembers it.
+    public String issue(PlayerHandler player) {
+        String token = newToken();
+        player.setResumeToken(token);
+        players.put(token, player);
+
+        int threshold = sweepAt.get();
+        if (players.size() >= threshold && sweepAt.compareAndSet(threshold, Integer.MAX_VALUE)) {
+            sweep();
+        }
+        return token;
+    }
+
+    // Registers a player restored from a snapshot under the token their client already holds.
+    public void restore(String token, PlayerHandler player) {
+        player.setResumeToken(token);
+        players.put(token, player);
+    }
+
+    // Returns 128 random bits as URL-safe text; also used for the tickets of redirected players.
+    public static String newToken() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    // Returns the player a token was issued to, or null if it is unknown or was swept.
+    public PlayerHandler find(String token) {
+        return token == null ? null : players.get(token);
+    }
+
+    public int size() {
+        return players.size();
+    }
+
+    // Forgets players whose connection is closed and who are not being held in a game.
+    private void sweep() {
+        players.values().removeIf(player -> player.isDisconnected() && !player.isInGame());
+        sweepAt.set(Math.max(MIN_SWEEP_SIZE, players.size() * 2));
+    }
+}
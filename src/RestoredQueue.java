@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Places in the waiting queue restored from a snapshot, held for the players who had them
+// until their clients reconnect with their session token.
+//
+// The players themselves are not queued until they come back: a queued placeholder would be
+// dropped as disconnected or, worse, matched. A returning player is queued right behind the
+// nearest player who was ahead of them in the snapshot and has already come back and is still
+// waiting, or at the front if there is none, so the snapshot's order survives the restart for
+// everyone who returns. Places nobody claims within the grace period are given up.
+public class RestoredQueue {
+    // A held place: the saved player and their rank among the players waiting for the same size.
+    private static final class Place {
+        final StateSnapshot.SavedPlayer saved;
+        final int rank;
+
+        Place(StateSnapshot.SavedPlayer saved, int rank) {
+            this.saved = saved;
+            this.rank = rank;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Place> places = new LinkedHashMap<>(); // By token, in queue order
+    private final Map<BoardSize, TreeMap<Integer, PlayerHandler>> returned = new HashMap<>(); // By rank
+    private final long expiresAt; // System.nanoTime() when unclaimed places are given up
+
+    // Holds the places of the given players, front first, for graceMs.
+    public RestoredQueue(List<StateSnapshot.SavedPlayer> queued, long graceMs) {
+        Map<BoardSize, Integer> ranks = new HashMap<>();
+        for (StateSnapshot.SavedPlayer saved : queued) {
+            int rank = ranks.merge(saved.boardSize, 1, Integer::sum);
+            places.putIfAbsent(saved.token, new Place(saved, rank));
+        }
+        expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMs);
+    }
+
+    // If the token held a place, gives the player the streak, rating and board size saved with
+    // it and queues them in it. Returns false if the token held no place or it was given up.
+    public boolean rejoin(String token, PlayerHandler player, Matchmaker matchmaker) {
+        lock.lock();
+        try {
+            Place place = token != null ? places.remove(token) : null;
+            if (place == null || System.nanoTime() - expiresAt > 0) {
+                return false;
+            }
+            place.saved.restore(player);
+            player.setBoardSize(place.saved.boardSize);
+            if (player.isDisconnected()) {
+                return true; // Gone again already; the place is used up
+            }
+            TreeMap<Integer, PlayerHandler> back = returned.computeIfAbsent(place.saved.boardSize, size -> new TreeMap<>());
+            Iterator<PlayerHandler> ahead = back.headMap(place.rank, false).descendingMap().values().iterator();
+            boolean queued = false;
+            while (!queued && ahead.hasNext()) {
+                queued = matchmaker.enqueueAfter(ahead.next(), player);
+                if (!queued) {
+                    ahead.remove(); // Matched or gone since, so nobody else can queue behind them either
+                }
+            }
+            if (!queued) {
+                matchmaker.enqueueFront(player);
+            }
+            back.put(place.rank, player);
+            ServerMetrics.QUEUE_PLACES_RESTORED.increment();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the saved players who have not come back yet, front first, or none once the
+    // grace period is over.
+    public List<StateSnapshot.SavedPlayer> unclaimed() {
+        lock.lock();
+        try {
+            List<StateSnapshot.SavedPlayer> players = new ArrayList<>(places.size());
+            if (System.nanoTime() - expiresAt > 0) {
+                places.clear();
+            }
+            for (Place place : places.values()) {
+                players.add(place.saved);
+            }
+            return players;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,97 +1,512 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 
 // Tic-Tac-Toe Server
 // Manages player connections, matchmaking, and game sessions.
 public class Server {
-    private static final int PORT = 9876;
-    private static final ExecutorService pool = Executors.newFixedThreadPool(10);
-    private static final BlockingQueue<PlayerHandler> waitingPlayers = new LinkedBlockingQueue<>();
-    private static final Map<PlayerHandler, Integer> lastKnownPositions = new ConcurrentHashMap<>();
-    private static volatile boolean isGameRunning = false; // Track if a game is in progress
+    private static final int PORT = Integer.getInteger("ttt.port", 9876);
+    // standalone (lobby and games in one process), lobby (matchmaking only) or node (games only)
+    private static final String ROLE = System.getProperty("ttt.role", "standalone");
+    // Host name other processes and redirected clients use to reach this one
+    private static final String ADVERTISED_HOST = System.getProperty("ttt.host", "localhost");
+    // Lobby: port and address game nodes connect to; node: the lobby's control address. Nodes
+    // place games and set players' ratings, so the port stays on loopback unless told otherwise
+    private static final int CONTROL_PORT = Integer.getInteger("ttt.controlPort", 9880);
+    private static final String CONTROL_BIND = System.getProperty("ttt.controlBind", "127.0.0.1");
+    private static final String LOBBY = System.getProperty("ttt.lobby", "localhost:9880");
+    // Shared secret a node proves itself to the lobby with; lobby and nodes must be given the same one
+    private static final String CONTROL_SECRET = System.getProperty("ttt.controlSecret",
+            System.getenv().getOrDefault("TTT_CONTROL_SECRET", ""));
+    // Node heartbeats, how long the lobby waits for one, and how long a node waits for placed players
+    private static final long HEARTBEAT_MS = Long.getLong("ttt.heartbeatMs", 1000);
+    private static final long NODE_TIMEOUT_MS = Long.getLong("ttt.nodeTimeoutMs", 5000);
+    private static final long PLACEMENT_TIMEOUT_MS = Long.getLong("ttt.placementTimeoutMs", 10_000);
+    private static final String TRANSPORT = System.getProperty("ttt.transport", "blocking");
+    private static final boolean VIRTUAL = TRANSPORT.equals("virtual");
+    // Only the blocking transport ties a platform thread to each game, so the other
+    // transports are uncapped unless a limit is configured explicitly
+    private static final int MAX_SESSIONS = Integer.getInteger("ttt.maxSessions",
+            TRANSPORT.equals("blocking") ? Math.max(16, Runtime.getRuntime().availableProcessors() * 32) : Integer.MAX_VALUE);
+    private static final int NIO_THREADS = Integer.getInteger("ttt.nioThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static final long STATS_INTERVAL_MS = Long.getLong("ttt.statsIntervalMs", 10_000);
+    private static final ExecutorService pool = Executors.newSingleThreadExecutor();
+    // How long a new connection may take to send its protocol hello before it is treated as a text client
+    private static final int HANDSHAKE_TIMEOUT_MS = Integer.getInteger("ttt.handshakeTimeoutMs", 200);
+    // Connection setup waits for the handshake, so it runs off the accept thread
+    private static final ExecutorService connectionExecutor = VIRTUAL
+            ? VirtualThreads.newPerTaskExecutor() : Executors.newCachedThreadPool();
+    private static final SessionManager sessionManager = VIRTUAL
+            ? new SessionManager(MAX_SESSIONS, VirtualThreads.newPerTaskExecutor())
+            : new SessionManager(MAX_SESSIONS);
+    private static final long QUEUE_UPDATE_INTERVAL_MS = Long.getLong("ttt.queueUpdateIntervalMs", 1000);
+    private static Matchmaker matchmaker; // Null on a game node, which has no queue of its own
+    private static NodeRouter router;     // Set on a lobby
+    private static NodeAgent nodeAgent;   // Set on a game node
+    // Local port for the Prometheus /metrics endpoint; 0 disables it
+    private static final int METRICS_PORT = Integer.getInteger("ttt.metricsPort", 9877);
+    // Log file for named players' persistent stats; empty disables them. Nodes sharing a machine
+    // each get their own files by default.
+    private static final String FILE_SUFFIX = ROLE.equals("node") ? "-" + PORT : "";
+    private static final String STATS_FILE = System.getProperty("ttt.statsFile", "player-stats" + FILE_SUFFIX + ".log");
+    private static PlayerStatsStore statsStore;
+    // Append-only journal of every game's moves and result; empty disables it
+    private static final String JOURNAL_FILE = System.getProperty("ttt.journalFile", "games" + FILE_SUFFIX + ".journal");
+    // Whether each batch of journal entries is forced to disk before the next is written
+    private static final boolean JOURNAL_SYNC = !"false".equals(System.getProperty("ttt.journalSync"));
+    // How long a game is held for a player who dropped mid-game; 0 forfeits immediately
+    private static final long RECONNECT_GRACE_MS = Long.getLong("ttt.reconnectGraceMs", 10_000);
+    private static final ReconnectRegistry reconnects = new ReconnectRegistry();
+    // Snapshots of the queue and live games a restarted server resumes from, taken every
+    // snapshotIntervalMs; empty disables them. Restored games and queue places are held for
+    // restoreGraceMs, and an older snapshot is not restored, as its clients have given up by then.
+    private static final String SNAPSHOT_FILE = System.getProperty("ttt.snapshotFile", "server-state" + FILE_SUFFIX + ".snapshot");
+    private static final long SNAPSHOT_INTERVAL_MS = Long.getLong("ttt.snapshotIntervalMs", 1000);
+    private static final long RESTORE_GRACE_MS = Long.getLong("ttt.restoreGraceMs", 30_000);
+    private static RestoredQueue restoredQueue; // Queue places from the snapshot restored at startup, or null
+    // Time allowed for a turn, for the winner's replay answer and for waiting in the queue; 0 is unlimited
+    private static final long TURN_TIMEOUT_MS = Long.getLong("ttt.turnTimeoutMs", 60_000);
+    private static final long REPLAY_TIMEOUT_MS = Long.getLong("ttt.replayTimeoutMs", 30_000);
+    private static final long QUEUE_IDLE_TIMEOUT_MS = Long.getLong("ttt.queueIdleTimeoutMs", 600_000);
+    // Runs every game, replay and queue timeout
+    private static final TimingWheel timers = new TimingWheel("timeouts");
+    // Overload shedding: connections admitted per second with bursts of connectBurst, open
+    // connections allowed per client address and players allowed to wait in the queue; anyone
+    // over a limit is told the server is busy and to try again after busyRetryAfterMs. 0 disables a limit.
+    private static final int CONNECT_RATE = Integer.getInteger("ttt.connectRate", 1000);
+    private static final int CONNECT_BURST = Integer.getInteger("ttt.connectBurst", 2000);
+    private static final int MAX_CONNECTIONS_PER_IP = Integer.getInteger("ttt.maxConnectionsPerIp", 256);
+    private static final int MAX_QUEUE_DEPTH = Integer.getInteger("ttt.maxQueueDepth", 50_000);
+    private static final long BUSY_RETRY_AFTER_MS = Long.getLong("ttt.busyRetryAfterMs", 5000);
+    private static final AdmissionControl admission = new AdmissionControl(CONNECT_RATE, CONNECT_BURST,
+            MAX_CONNECTIONS_PER_IP, MAX_QUEUE_DEPTH, BUSY_RETRY_AFTER_MS, timers);
+    // How long a player waits alone before getting a bot opponent; 0 disables bots
+    private static final long BOT_AFTER_MS = Long.getLong("ttt.botAfterMs", 15_000);
+    private static final String BOT_DIFFICULTY = System.getProperty("ttt.botDifficulty", "hard");
+    // Optional file caching the solved game table; it is rebuilt in memory when unset
+    private static final String BOT_TABLE_FILE = System.getProperty("ttt.botTableFile", "");
+    // fifo pairs players in arrival order; rating pairs each with the nearest-rated player in a
+    // window of ratingWindow points that widens by ratingWindowGrowth per second waited, up to ratingWindowMax
+    private static final String MATCHING = System.getProperty("ttt.matching", "rating");
+    private static final int RATING_WINDOW = Integer.getInteger("ttt.ratingWindow", 100);
+    private static final int RATING_WINDOW_GROWTH = Integer.getInteger("ttt.ratingWindowGrowth", 50);
+    private static final int RATING_WINDOW_MAX = Integer.getInteger("ttt.ratingWindowMax", 1000);
+    private static final int RATING_BUCKET_WIDTH = Integer.getInteger("ttt.ratingBucketWidth", 25);
+    // Board sizes clients may ask for besides the classic 3x3, as a comma-separated list of m x n x k
+    private static final String BOARD_SIZES = System.getProperty("ttt.boardSizes", "4x4x4,7x6x4,15x15x5");
 
     public static void main(String[] args) {
-        System.out.println("Tic-Tac-Toe Server started...");
-
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            pool.execute(() -> {
-                while (true) {
-                    try {
-                        startNewGameIfPossible();
-                        notifyQueuedPlayers();
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
+        System.out.println("Tic-Tac-Toe Server started as " + ROLE + " on port " + PORT + " (" + TRANSPORT + " transport, "
+                + (MAX_SESSIONS == Integer.MAX_VALUE ? "unlimited" : "up to " + MAX_SESSIONS) + " concurrent games)...");
+
+        try {
+            setUpRole();
+            startMetrics();
+            openStatsStore();
+            openJournal();
+            sessionManager.setReconnectGraceMs(RECONNECT_GRACE_MS);
+            sessionManager.setTimeouts(timers, TURN_TIMEOUT_MS, REPLAY_TIMEOUT_MS);
+            if (matchmaker != null) {
+                matchmaker.setQueueIdleTimeout(timers, QUEUE_IDLE_TIMEOUT_MS);
+                enableBots();
+                enableRatingMatch();
+                matchmaker.offerBoardSizes(BoardSize.parseList(BOARD_SIZES));
+                System.out.println("Board sizes offered: " + matchmaker.getBoardSizes());
+                matchmaker.start();
+            }
+            if (nodeAgent != null) {
+                nodeAgent.start();
+            }
+            openSnapshots();
+
+            // Periodically report session throughput
+            if (STATS_INTERVAL_MS > 0) {
+                pool.execute(() -> {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            Thread.sleep(STATS_INTERVAL_MS);
+                            System.out.println(router != null
+                                    ? "Lobby: " + router.liveNodeCount() + " live game nodes, " + matchmaker.queueSize() + " players waiting"
+                                    : sessionManager.report());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
                     }
-                }
-            });
+                });
+            }
 
+            if (TRANSPORT.equals("nio")) {
+                new NioTransport(PORT, NIO_THREADS, HANDSHAKE_TIMEOUT_MS, admission, Server::addPlayerToQueue).run();
+            } else {
+                acceptBlocking();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Accepts players on a plain server socket; each game then blocks a session thread.
+    // In virtual mode every connection is also set up on its own virtual thread.
+    // The accept thread only decides whether to admit a connection.
+    private static void acceptBlocking() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(PORT, 1024)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("New player connected.");
-                PlayerHandler player = new PlayerHandler(clientSocket);
-                addPlayerToQueue(player);
+                ServerMetrics.RejectCause rejected = admission.admit(clientSocket.getInetAddress());
+                if (rejected != null) {
+                    admission.reject(clientSocket, rejected);
+                    continue;
+                }
+                connectionExecutor.execute(() -> setUpConnection(clientSocket));
             }
+        }
+    }
+
+    // Negotiates the protocol with a new client and queues it. The client's address is
+    // released from admission control when the connection closes.
+    private static void setUpConnection(Socket clientSocket) {
+        InetAddress address = clientSocket.getInetAddress();
+        SocketConnection connection = null;
+        try {
+            connection = new SocketConnection(clientSocket);
+            connection.setCloseListener(() -> admission.release(address));
+            System.out.println("New player connected.");
+            String hello = connection.readHello(HANDSHAKE_TIMEOUT_MS);
+            PlayerHandler player = new PlayerHandler(connection, hello);
+            addPlayerToQueue(player);
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Failed to set up player connection: " + e.getMessage());
+            try {
+                if (connection != null) {
+                    connection.close();
+                } else {
+                    clientSocket.close();
+                    admission.release(address);
+                }
+            } catch (IOException ignored) {
+                // Already closed
+            }
         }
     }
 
-    private static synchronized void startNewGameIfPossible() {
-        if (isGameRunning || waitingPlayers.size() < 2) {
-            return; // Exit if a game is already running or not enough players
+    // Sets up what this process does: a standalone server runs its own games, a lobby places
+    // the games it matches on the game nodes that join it, and a node plays the games placed on it.
+    private static void setUpRole() throws IOException {
+        boolean distributed = ROLE.equals("lobby") || ROLE.equals("node");
+        if (distributed && (CONTROL_SECRET.isEmpty() || CONTROL_SECRET.matches(".*\\s.*"))) {
+            throw new IllegalArgumentException("A " + ROLE + " needs ttt.controlSecret (or TTT_CONTROL_SECRET), "
+                    + "the same on the lobby and its nodes, without spaces");
         }
-    
-        PlayerHandler winner = waitingPlayers.poll(); // First player (could be the returning winner)
-    
-        if (winner != null && !winner.isDisconnected()) {
-            PlayerHandler nextPlayer = waitingPlayers.poll(); // Next available player
-    
-            if (nextPlayer != null && !nextPlayer.isDisconnected()) {
-                System.out.println("Starting a new game.");
-                isGameRunning = true;
-                GameSession newGame = new GameSession(winner, nextPlayer, waitingPlayers);
-                pool.execute(() -> {
-                    newGame.run();
-                    isGameRunning = false;
-                });
-            } else {
-                // If there's no available second player, put the winner back
-                requeuePlayer(winner);
+        switch (ROLE) {
+            case "lobby":
+                router = new NodeRouter(CONTROL_BIND, CONTROL_PORT, CONTROL_SECRET, ADVERTISED_HOST, PORT,
+                        NODE_TIMEOUT_MS, timers);
+                matchmaker = new Matchmaker(router, QUEUE_UPDATE_INTERVAL_MS);
+                System.out.println("Waiting for game nodes on " + CONTROL_BIND + ":" + CONTROL_PORT);
+                break;
+            case "node":
+                int colon = LOBBY.lastIndexOf(':');
+                nodeAgent = new NodeAgent(LOBBY.substring(0, colon), Integer.parseInt(LOBBY.substring(colon + 1)),
+                        CONTROL_SECRET, ADVERTISED_HOST, PORT, sessionManager, timers, HEARTBEAT_MS, PLACEMENT_TIMEOUT_MS);
+                break;
+            case "standalone":
+                matchmaker = new Matchmaker(sessionManager, QUEUE_UPDATE_INTERVAL_MS);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown ttt.role " + ROLE + "; use standalone, lobby or node");
+        }
+    }
+
+    // Registers the live gauges and publishes the metrics over JMX and, if enabled, HTTP.
+    // Failing to bind the metrics port is not fatal; the game server keeps running without it.
+    private static void startMetrics() {
+        MetricsRegistry registry = ServerMetrics.REGISTRY;
+        registry.gauge("active_sessions", "Games currently in progress", sessionManager::getActiveCount);
+        registry.gauge("max_sessions", "Configured cap on concurrent games", sessionManager::getMaxSessions);
+        if (matchmaker != null) {
+            registry.gauge("queue_depth", "Players waiting for a game", matchmaker::queueSize);
+        }
+        if (router != null) {
+            registry.gauge("live_nodes", "Game nodes taking games", router::liveNodeCount);
+        }
+        if (nodeAgent != null) {
+            registry.gauge("pending_placements", "Games placed on this node whose players have not arrived", nodeAgent::pendingPlacements);
+        }
+        registry.gauge("pending_timeouts", "Turn, replay, reconnect and queue timeouts scheduled", timers::pendingCount);
+        MetricsMBean.register(registry, "TicTacToe:type=ServerMetrics");
+        SessionsMBean.register(sessionManager, "TicTacToe:type=Sessions");
+
+        if (METRICS_PORT > 0) {
+            try {
+                new MetricsHttpServer(METRICS_PORT, registry, "ttt_");
+                System.out.println("Metrics available at http://localhost:" + METRICS_PORT + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Unable to start metrics endpoint on port " + METRICS_PORT + ": " + e.getMessage());
             }
         }
     }
 
-    private static void addPlayerToQueue(PlayerHandler player) {
-        waitingPlayers.offer(player);
-        player.sendMessage("w");  // Inform player they are waiting
-    }
-
-    private static void notifyQueuedPlayers() {
-        List<PlayerHandler> queueSnapshot = new ArrayList<>(waitingPlayers);
-        for (int i = 0; i < queueSnapshot.size(); i++) {
-            PlayerHandler player = queueSnapshot.get(i);
-            if (!player.isDisconnected()) {
-                int newPosition = i + 1;
-                if (!Objects.equals(lastKnownPositions.get(player), newPosition)) {
-                    sendQueuePosition(player, newPosition);
-                    lastKnownPositions.put(player, newPosition);
+    // Switches the matchmaker to rating-based pairing and publishes its settings as gauges.
+    private static void enableRatingMatch() {
+        if (!MATCHING.equals("rating")) {
+            System.out.println("Matching players in arrival order.");
+            return;
+        }
+        matchmaker.enableRatingMatch(RATING_BUCKET_WIDTH, RATING_WINDOW, RATING_WINDOW_GROWTH, RATING_WINDOW_MAX);
+        System.out.printf("Matching players by rating: within %d points, widening by %d per second up to %d%n",
+                RATING_WINDOW, RATING_WINDOW_GROWTH, RATING_WINDOW_MAX);
+        MetricsRegistry registry = ServerMetrics.REGISTRY;
+        registry.gauge("rating_window_points", "Rating difference every player accepts from the start", () -> RATING_WINDOW);
+        registry.gauge("rating_window_growth_points", "Points a player's rating window widens by per second waited", () -> RATING_WINDOW_GROWTH);
+        registry.gauge("rating_window_max_points", "Widest a player's rating window gets", () -> RATING_WINDOW_MAX);
+    }
+
+    // Loads or solves the perfect-play table and lets the matchmaker fall back to bots.
+    // Bots play in the process that created them, so a lobby has none.
+    private static void enableBots() throws IOException {
+        if (BOT_AFTER_MS <= 0 || router != null) {
+            return;
+        }
+        BotPlayer.Difficulty difficulty = BotPlayer.Difficulty.valueOf(BOT_DIFFICULTY.toUpperCase());
+        long start = System.nanoTime();
+        PerfectPlayTable table = BOT_TABLE_FILE.isEmpty()
+                ? PerfectPlayTable.build() : PerfectPlayTable.loadOrBuild(Paths.get(BOT_TABLE_FILE));
+        System.out.printf("Bot opponents (%s) after %d ms alone in the queue; %d positions ready in %.1f ms%n",
+                BOT_DIFFICULTY.toLowerCase(), BOT_AFTER_MS, table.size(), (System.nanoTime() - start) / 1e6);
+        matchmaker.enableBots(table, difficulty, BOT_AFTER_MS);
+    }
+
+    // Lets a client watch games instead of playing. It leaves its game's audience when it disconnects.
+    private static void addSpectator(PlayerHandler client) {
+        ServerMetrics.SPECTATORS_JOINED.increment();
+        Spectator spectator = new Spectator(client);
+        client.setDisconnectListener(() -> {
+            SpectatorGroup group = spectator.getGroup();
+            if (group != null) {
+                group.remove(spectator);
+            }
+        });
+        sessionManager.watch(spectator, client.getWatchRequest());
+    }
+
+    // Opens the persistent player stats, flushing them on shutdown.
+    // The server still runs, without persistent stats, if the file cannot be opened.
+    private static void openStatsStore() {
+        if (STATS_FILE.isEmpty()) {
+            return;
+        }
+        try {
+            PlayerStatsStore store = new PlayerStatsStore(Paths.get(STATS_FILE));
+            System.out.println("Loaded stats for " + store.playerCount() + " players from " + STATS_FILE);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    System.out.println("Failed to close player stats: " + e.getMessage());
+                }
+            }));
+            sessionManager.setStatsStore(store);
+            statsStore = store;
+        } catch (IOException e) {
+            System.out.println("Unable to open player stats " + STATS_FILE + ": " + e.getMessage());
+        }
+    }
+
+    // Opens the move journal, flushing it on shutdown.
+    // The server still runs, without a journal, if the file cannot be opened.
+    private static void openJournal() {
+        if (JOURNAL_FILE.isEmpty()) {
+            return;
+        }
+        try {
+            MoveJournal journal = new MoveJournal(Paths.get(JOURNAL_FILE), JOURNAL_SYNC);
+            System.out.println("Journaling games to " + JOURNAL_FILE + " from game " + (journal.getLastGameId() + 1)
+                    + (JOURNAL_SYNC ? "" : " (without sync)"));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    System.out.println("Failed to close move journal: " + e.getMessage());
+                }
+            }));
+            sessionManager.setJournal(journal);
+        } catch (IOException e) {
+            System.out.println("Unable to open move journal " + JOURNAL_FILE + ": " + e.getMessage());
+        }
+    }
+
+    // Restores the state in the snapshot file, then snapshots the server every interval and once
+    // more on shutdown. The server still runs, without snapshots, if the file cannot be opened.
+    private static void openSnapshots() {
+        if (SNAPSHOT_FILE.isEmpty()) {
+            return;
+        }
+        SnapshotFile file;
+        try {
+            file = new SnapshotFile(Paths.get(SNAPSHOT_FILE));
+        } catch (IOException e) {
+            System.out.println("Unable to open snapshot file " + SNAPSHOT_FILE + ": " + e.getMessage());
+            return;
+        }
+        restoreSnapshot(file);
+
+        Thread writer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(SNAPSHOT_INTERVAL_MS);
+                    writeSnapshot(file);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
+        }, "snapshots");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writeSnapshot(file);
+            try {
+                file.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close snapshot file: " + e.getMessage());
+            }
+        }));
+    }
+
+    // Captures and writes one snapshot. Only reads what games and queues publish, so no game waits on it.
+    private static void writeSnapshot(SnapshotFile file) {
+        long start = System.nanoTime();
+        try {
+            file.write(StateSnapshot.capture(sessionManager, matchmaker, restoredQueue).encode());
+            ServerMetrics.SNAPSHOTS_WRITTEN.increment();
+            ServerMetrics.SNAPSHOT_WRITE.record(System.nanoTime() - start);
+        } catch (IOException e) {
+            System.out.println("Failed to write snapshot: " + e.getMessage());
+        }
+    }
+
+    // Restarts the games in the latest snapshot, with placeholders for their players that the
+    // clients take over when they reconnect with their tokens, and holds the queue places in it.
+    private static void restoreSnapshot(SnapshotFile file) {
+        long start = System.nanoTime();
+        byte[] data = file.read();
+        if (data == null) {
+            return;
+        }
+        StateSnapshot snapshot;
+        try {
+            snapshot = StateSnapshot.decode(data);
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable snapshot in " + SNAPSHOT_FILE + ": " + e.getMessage());
+            return;
+        }
+        long age = System.currentTimeMillis() - snapshot.takenAtMillis;
+        if (age > RESTORE_GRACE_MS) {
+            System.out.println("Not restoring the snapshot in " + SNAPSHOT_FILE + ", taken " + age / 1000 + " s ago");
+            return;
+        }
+        PlayerQueue queue = matchmaker != null ? matchmaker : nodeAgent;
+        for (StateSnapshot.SavedGame game : snapshot.games) {
+            sessionManager.restoreSession(game.id, restoredPlayer(game.playerX), restoredPlayer(game.playerO),
+                    game.board, queue, RESTORE_GRACE_MS, TRANSPORT.equals("nio"));
         }
-        lastKnownPositions.keySet().removeIf(PlayerHandler::isDisconnected);
+        if (matchmaker != null) {
+            restoredQueue = new RestoredQueue(snapshot.queued, RESTORE_GRACE_MS);
+        }
+        System.out.printf("Restored %d games and %d queue places from snapshot %d in %s (taken %d ms earlier) in %.2f ms%n",
+                snapshot.games.size(), matchmaker != null ? snapshot.queued.size() : 0, file.getGeneration(),
+                SNAPSHOT_FILE, age, (System.nanoTime() - start) / 1e6);
+    }
+
+    // Creates the placeholder for a player in a restored game, which their client takes over with resume.
+    private static PlayerHandler restoredPlayer(StateSnapshot.SavedPlayer saved) {
+        PlayerHandler player = PlayerHandler.detached(saved.name, saved.boardSize);
+        saved.restore(player);
+        reconnects.restore(saved.token, player);
+        return player;
     }
 
-    private static void requeuePlayer(PlayerHandler player) {
-        if (!player.isDisconnected()) {
-            waitingPlayers.offer(player);
+    private static void addPlayerToQueue(PlayerHandler player) {
+        if (player.getWatchRequest() != null) {
+            if (router == null) {
+                addSpectator(player);
+            } else if (!router.redirectSpectator(player)) {
+                closeQuietly(player); // No games to watch without a node
+            }
+            return;
+        }
+
+        // A client coming back with its token takes over its seat in a game held for it.
+        // Unknown or stale tokens just get a fresh player.
+        PlayerHandler previous = reconnects.find(player.getRequestedToken());
+        if (previous != null && previous.resume(player)) {
+            return;
+        }
+
+        // On a node, players come with a ticket for a game placed here; anyone else is sent to the lobby
+        if (nodeAgent != null) {
+            player.sendSessionToken(reconnects.issue(player));
+            if (!nodeAgent.arrive(player)) {
+                nodeAgent.enqueue(player);
+            }
+            return;
+        }
+
+        // After a restart, a client that was waiting when the snapshot was taken gets its place back
+        if (restoredQueue != null) {
+            player.setDisconnectListener(() -> matchmaker.remove(player));
+            if (restoredQueue.rejoin(player.getRequestedToken(), player, matchmaker)) {
+                player.sendSessionToken(reconnects.issue(player));
+                matchmaker.sendQueuePosition(player);
+                return;
+            }
+        }
+
+        // On a lobby, players a node sent back after their game keep their streak and rating, and requeue as the node said
+        NodeRouter.Return returning = router != null ? router.claimReturn(player.getTicket()) : null;
+        if (returning == null && admission.isQueueFull(matchmaker.queueSize())) {
+            // Only new arrivals are shed; players coming back from a game or a restart keep their place
+            ServerMetrics.rejected(ServerMetrics.RejectCause.QUEUE_FULL);
+            player.reject(admission.getRetryAfterMs());
+            return;
+        }
+        if (returning == null) {
+            ServerMetrics.PLAYERS_CONNECTED.increment();
+        } else {
+            returning.restore(player);
+        }
+        player.sendSessionToken(reconnects.issue(player));
+        if (statsStore != null && player.getName() != null) {
+            // Returning players keep their streak and rating; the visit updates their last-seen time
+            PlayerStatsStore.Stats stats = statsStore.get(player.getName());
+            if (stats != null && returning == null) {
+                player.setWinStreak(stats.streak);
+                player.setRating(stats.rating, stats.ratedGames);
+            }
+            statsStore.record(player.getName(), PlayerStatsStore.Event.SEEN, player.getWinStreak(), player.getRating(),
+                    player.getRatedGames());
+        }
+        player.setDisconnectListener(() -> matchmaker.remove(player));
+        if (returning == null) {
+            player.sendWaiting();  // Inform player they are waiting
+            matchmaker.enqueue(player);
+        } else {
+            if (returning.front) {
+                matchmaker.enqueueFront(player);
+            } else {
+                matchmaker.enqueue(player);
+            }
+            matchmaker.sendQueuePosition(player);
         }
     }
 
-    private static void sendQueuePosition(PlayerHandler player, int position) {
-        int queueSize = Math.min(position, 255);
-        player.sendMessage("Q" + (char) queueSize);
+    private static void closeQuietly(PlayerHandler player) {
+        try {
+            player.close();
+        } catch (IOException e) {
+            // Already gone
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// The Tic-Tac-Toe server's metrics, shared by the server, matchmaker, sessions and connections.
+// Gauges that need live server objects (active sessions, queue depth) are registered by Server.
+public final class ServerMetrics {
+    // Why a player's connection ended or they left.
+    public enum DisconnectCause {
+        QUIT,              // Sent "Q" during a game
+        CLOSED_IN_GAME,    // Connection closed during a game
+        CLOSED_IN_QUEUE,   // Connection closed while waiting for a game
+        TIMED_OUT,         // Took too long over a turn or the replay prompt, or waited too long for a game
+        IO_ERROR           // Read or write failed
+    }
+
+    // Why a new connection was turned away with a busy reply.
+    public enum RejectCause {
+        CONNECT_RATE,      // Connections arrived faster than the configured rate
+        PER_IP_LIMIT,      // The client's address already had as many connections as allowed
+        QUEUE_FULL         // The waiting queue was at its maximum depth
+    }
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final MetricsRegistry.Counter PLAYERS_CONNECTED =
+            REGISTRY.counter("players_connected_total", "Players that connected and finished the protocol handshake");
+    public static final MetricsRegistry.Counter GAMES_STARTED =
+            REGISTRY.counter("games_started_total", "Games started");
+    public static final MetricsRegistry.Counter GAMES_FINISHED =
+            REGISTRY.counter("games_finished_total", "Games finished for any reason");
+    public static final MetricsRegistry.Counter GAMES_WON =
+            REGISTRY.counter("games_won_total", "Games that ended with a winning line");
+    public static final MetricsRegistry.Counter GAMES_DRAWN =
+            REGISTRY.counter("games_drawn_total", "Games that ended in a draw");
+    public static final MetricsRegistry.Counter GAMES_FORFEITED =
+            REGISTRY.counter("games_forfeited_total", "Games that ended because a player left");
+    public static final MetricsRegistry.Counter BOT_GAMES =
+            REGISTRY.counter("bot_games_total", "Games started against a built-in bot");
+    public static final MetricsRegistry.Counter MOVES =
+            REGISTRY.counter("moves_total", "Valid moves played");
+    public static final MetricsRegistry.Counter INVALID_MOVES =
+            REGISTRY.counter("invalid_moves_total", "Moves rejected as invalid");
+    public static final MetricsRegistry.Counter BYTES_IN =
+            REGISTRY.counter("bytes_in_total", "Bytes received from clients");
+    public static final MetricsRegistry.Counter BYTES_OUT =
+            REGISTRY.counter("bytes_out_total", "Bytes sent to clients");
+    public static final MetricsRegistry.Counter RECONNECTS =
+            REGISTRY.counter("reconnects_total", "Players who reconnected into a game held for them");
+    public static final MetricsRegistry.Counter RESYNCS_REQUESTED =
+            REGISTRY.counter("resyncs_requested_total", "Full boards resent to clients whose copy of the board diverged");
+    public static final MetricsRegistry.Counter RECONNECTS_EXPIRED =
+            REGISTRY.counter("reconnects_expired_total", "Held games forfeited because the player did not come back in time");
+    public static final MetricsRegistry.Counter TURN_TIMEOUTS =
+            REGISTRY.counter("turn_timeouts_total", "Games forfeited because the player to move ran out of time");
+    public static final MetricsRegistry.Counter REPLAY_TIMEOUTS =
+            REGISTRY.counter("replay_timeouts_total", "Winners disconnected for not answering the replay prompt in time");
+    public static final MetricsRegistry.Counter QUEUE_TIMEOUTS =
+            REGISTRY.counter("queue_timeouts_total", "Players removed after waiting too long for a game");
+    public static final MetricsRegistry.Counter RATED_MATCHES =
+            REGISTRY.counter("rated_matches_total", "Pairs matched by rating");
+    public static final MetricsRegistry.Counter RATED_MATCH_GAP =
+            REGISTRY.counter("rated_match_gap_points_total", "Sum of the rating differences of pairs matched by rating");
+    public static final MetricsRegistry.Counter RATED_MATCHES_WIDENED =
+            REGISTRY.counter("rated_matches_widened_total", "Pairs matched by rating only after the rating window widened past its starting size");
+    public static final MetricsRegistry.Counter GAMES_PLACED =
+            REGISTRY.counter("games_placed_total", "Pairs a lobby sent to a game node");
+    public static final MetricsRegistry.Counter PLACEMENTS_ABANDONED =
+            REGISTRY.counter("placements_abandoned_total", "Games placed on this node that never started because a player did not arrive");
+    public static final MetricsRegistry.Counter PLAYERS_REDIRECTED =
+            REGISTRY.counter("players_redirected_total", "Players sent to another server process (a game node or back to the lobby)");
+    public static final MetricsRegistry.Counter SPECTATORS_JOINED =
+            REGISTRY.counter("spectators_joined_total", "Clients that connected to watch games");
+    public static final MetricsRegistry.Counter SPECTATOR_UPDATES =
+            REGISTRY.counter("spectator_updates_total", "Board updates written to spectators");
+    public static final MetricsRegistry.Counter SPECTATOR_UPDATES_DROPPED =
+            REGISTRY.counter("spectator_updates_dropped_total", "Spectator updates replaced by a newer one before they could be sent");
+    public static final MetricsRegistry.Counter STATS_DROPPED =
+            REGISTRY.counter("stats_dropped_total", "Player stats updates dropped because the stats writer fell behind");
+    public static final MetricsRegistry.Counter JOURNAL_ENTRIES =
+            REGISTRY.counter("journal_entries_total", "Entries written to the move journal");
+    public static final MetricsRegistry.Counter JOURNAL_DROPPED =
+            REGISTRY.counter("journal_dropped_total", "Move journal entries dropped because the journal writer fell behind");
+    public static final MetricsRegistry.Counter SNAPSHOTS_WRITTEN =
+            REGISTRY.counter("snapshots_written_total", "Snapshots of the queue and live games written to the snapshot file");
+    public static final MetricsRegistry.Counter GAMES_RESTORED =
+            REGISTRY.counter("games_restored_total", "Games restored from a snapshot after a restart");
+    public static final MetricsRegistry.Counter QUEUE_PLACES_RESTORED =
+            REGISTRY.counter("queue_places_restored_total", "Players who got their place in the queue back after a restart");
+
+    public static final MetricsRegistry.Counter OUTBOUND_MESSAGES =
+            REGISTRY.counter("outbound_messages_total", "Messages queued for clients");
+    public static final MetricsRegistry.Counter OUTBOUND_WRITES =
+            REGISTRY.counter("outbound_writes_total", "Socket writes to clients; each carries every message queued since the last one");
+    public static final MetricsRegistry.Counter OUTBOUND_DROPPED =
+            REGISTRY.counter("outbound_dropped_total", "Messages dropped because a slow client's backlog was full");
+    public static final MetricsRegistry.Counter SLOW_CLIENT_DISCONNECTS =
+            REGISTRY.counter("slow_client_disconnects_total", "Clients disconnected because their backlog was full");
+    // Bytes queued for clients and not yet written, over all connections
+    public static final LongAdder OUTBOUND_QUEUED_BYTES = new LongAdder();
+
+    public static final LatencyHistogram QUEUE_WAIT =
+            REGISTRY.histogram("queue_wait_seconds", "Time players spend in the queue before a game starts");
+    public static final LatencyHistogram MOVE_PROCESSING =
+            REGISTRY.histogram("move_processing_seconds", "Time to validate, apply and broadcast a move");
+    public static final LatencyHistogram JOURNAL_COMMIT =
+            REGISTRY.histogram("journal_commit_seconds", "Time to write and sync one batch of move journal entries");
+    public static final LatencyHistogram SNAPSHOT_WRITE =
+            REGISTRY.histogram("snapshot_write_seconds", "Time to capture, encode and sync one snapshot of the server's state");
+
+    private static final Map<DisconnectCause, MetricsRegistry.Counter> DISCONNECTS = new EnumMap<>(DisconnectCause.class);
+    private static final Map<RejectCause, MetricsRegistry.Counter> REJECTS = new EnumMap<>(RejectCause.class);
+
+    static {
+        REGISTRY.gauge("outbound_queued_bytes", "Bytes queued for clients and not yet written", OUTBOUND_QUEUED_BYTES::sum);
+        for (DisconnectCause cause : DisconnectCause.values()) {
+            DISCONNECTS.put(cause, REGISTRY.counter("disconnects_" + cause.name().toLowerCase() + "_total",
+                    "Players that left: " + cause.name().toLowerCase().replace('_', ' ')));
+        }
+        for (RejectCause cause : RejectCause.values()) {
+            REJECTS.put(cause, REGISTRY.counter("connections_rejected_" + cause.name().toLowerCase() + "_total",
+                    "Connections turned away as busy: " + cause.name().toLowerCase().replace('_', ' ')));
+        }
+    }
+
+    private ServerMetrics() {
+    }
+
+    // Counts a player leaving for the given reason.
+    public static void disconnected(DisconnectCause cause) {
+        DISCONNECTS.get(cause).increment();
+    }
+
+    // Counts a connection turned away for the given reason.
+    public static void rejected(RejectCause cause) {
+        REJECTS.get(cause).increment();
+    }
+}
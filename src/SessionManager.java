@@ -0,0 +1,302 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Runs Tic-Tac-Toe game sessions in parallel, up to a configurable cap.
+// Tracks the lifecycle of every session and reports completed-game throughput.
+public class SessionManager implements GameHost {
+    // Lifecycle states a session moves through.
+    public enum State { STARTING, RUNNING, FINISHED }
+
+    // Bookkeeping for a single tracked session.
+    public static class SessionInfo {
+        private final long id;
+        private final GameSession session;
+        private final long createdAt = System.nanoTime();
+        private volatile long endedAt;
+        private volatile State state = State.STARTING;
+
+        private SessionInfo(long id, GameSession session) {
+            this.id = id;
+            this.session = session;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public GameSession getSession() {
+            return session;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        // Returns how long the session has been alive (or lasted, once finished), in milliseconds.
+        public long getDurationMillis() {
+            long end = state == State.FINISHED ? endedAt : System.nanoTime();
+            return (end - createdAt) / 1_000_000;
+        }
+    }
+
+    private final int maxSessions;
+    private final ExecutorService executor;
+    private final Map<Long, SessionInfo> activeSessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong finishedCount = new AtomicLong();
+    private final long createdAt = System.nanoTime();
+
+    // Last throughput sample, used to report games per second over the most recent interval.
+    private long lastSampleTime = createdAt;
+    private long lastSampleFinished = 0;
+    private final ReentrantLock sampleLock = new ReentrantLock();
+    private volatile Runnable onSessionFinished;
+    private volatile PlayerStatsStore statsStore;
+    private volatile MoveJournal journal;
+    private volatile long reconnectGraceMs = 0;
+    // Clocks of held games, turns and replay prompts
+    private volatile TimingWheel timers = new TimingWheel("session-timers");
+    private volatile long turnTimeoutMs = 0;
+    private volatile long replayTimeoutMs = 0;
+    // Spectators waiting for a game to watch; they join the next session that starts
+    private final Queue<Spectator> idleSpectators = new ConcurrentLinkedQueue<>();
+
+    // Creates a manager allowing at most maxSessions games to run at the same time,
+    // each blocking session on its own thread from a fixed pool.
+    public SessionManager(int maxSessions) {
+        this(maxSessions, Executors.newFixedThreadPool(maxSessions));
+    }
+
+    // Creates a manager that runs blocking sessions on the given executor,
+    // for example one virtual thread per session.
+    public SessionManager(int maxSessions, ExecutorService executor) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be at least 1");
+        }
+        this.maxSessions = maxSessions;
+        this.executor = executor;
+    }
+
+    // Sets a callback run every time a session finishes and frees its slot.
+    @Override
+    public void setOnSessionFinished(Runnable onSessionFinished) {
+        this.onSessionFinished = onSessionFinished;
+    }
+
+    // Sets the store that new sessions record named players' results in.
+    public void setStatsStore(PlayerStatsStore statsStore) {
+        this.statsStore = statsStore;
+    }
+
+    // Sets the journal new sessions record their games in, and numbers new sessions after
+    // the games already in it so that journaled game ids stay unique across restarts.
+    public void setJournal(MoveJournal journal) {
+        this.journal = journal;
+        nextId.accumulateAndGet(journal.getLastGameId() + 1, Math::max);
+    }
+
+    // Sets how long new sessions hold a game for a player who dropped; 0 forfeits immediately.
+    public void setReconnectGraceMs(long reconnectGraceMs) {
+        this.reconnectGraceMs = reconnectGraceMs;
+    }
+
+    // Sets the wheel new sessions run their clocks on, and how long a player may take over a
+    // turn and a winner over the replay prompt before they are timed out (0 for no limit).
+    public void setTimeouts(TimingWheel timers, long turnTimeoutMs, long replayTimeoutMs) {
+        this.timers = timers;
+        this.turnTimeoutMs = turnTimeoutMs;
+        this.replayTimeoutMs = replayTimeoutMs;
+    }
+
+    // Checks whether another session can be started without exceeding the cap.
+    @Override
+    public boolean hasCapacity() {
+        return activeCount.get() < maxSessions;
+    }
+
+    // Creates a session for the two players and starts it.
+    // Sessions between event-driven players are advanced by their transport's input events;
+    // any other session runs on the session pool, blocking on player input.
+    public SessionInfo startSession(PlayerHandler p1, PlayerHandler p2, PlayerQueue matchmaker) {
+        activeCount.incrementAndGet();
+        startedCount.incrementAndGet();
+        ServerMetrics.GAMES_STARTED.increment();
+
+        GameSession session = new GameSession(p1, p2, matchmaker);
+        SessionInfo info = new SessionInfo(nextId.getAndIncrement(), session);
+        MoveJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.gameStarted(info.id, p1.getBoardSize(), p1.getName(), p2.getName());
+        }
+        launch(info, p1, p2, reconnectGraceMs, p1.isEventDriven() && p2.isEventDriven());
+        return info;
+    }
+
+    // Restarts a game restored from a snapshot under the id it had, between placeholder players
+    // whose clients have yet to reconnect; either player's seat is held for at least graceMs once
+    // it is their turn. eventDriven says whether the clients will come back over an event-driven
+    // transport, which advances the game, or it should run on the session pool.
+    public SessionInfo restoreSession(long id, PlayerHandler playerX, PlayerHandler playerO, Board board,
+                                      PlayerQueue queue, long graceMs, boolean eventDriven) {
+        activeCount.incrementAndGet();
+        startedCount.incrementAndGet();
+        ServerMetrics.GAMES_RESTORED.increment();
+        nextId.accumulateAndGet(id + 1, Math::max);
+
+        SessionInfo info = new SessionInfo(id, new GameSession(playerX, playerO, queue, board));
+        launch(info, playerX, playerO, Math.max(graceMs, reconnectGraceMs), eventDriven);
+        return info;
+    }
+
+    // Configures a new session, makes it visible to spectators and snapshots, and starts it.
+    private void launch(SessionInfo info, PlayerHandler p1, PlayerHandler p2, long graceMs, boolean eventDriven) {
+        GameSession session = info.session;
+        session.setOnEnd(() -> finish(info));
+        session.setStatsStore(statsStore);
+        MoveJournal currentJournal = journal;
+        if (currentJournal != null) {
+            session.setJournal(currentJournal, info.id);
+        }
+        session.setReconnectGraceMs(graceMs);
+        session.setTimeouts(timers, turnTimeoutMs, replayTimeoutMs);
+        activeSessions.put(info.id, info);
+
+        Spectator spectator;
+        while ((spectator = idleSpectators.poll()) != null) {
+            if (!spectator.isClosed()) {
+                session.getSpectators().add(spectator);
+            }
+        }
+
+        // Attached players route reconnects (and, when event-driven, input) to the session
+        p1.attachSession(session);
+        p2.attachSession(session);
+        if (eventDriven) {
+            info.state = State.RUNNING;
+            session.pump(); // Consume any input that arrived while the players were queued
+        } else {
+            executor.execute(() -> {
+                info.state = State.RUNNING;
+                session.run();
+            });
+        }
+    }
+
+    @Override
+    public void startGame(PlayerHandler p1, PlayerHandler p2, PlayerQueue queue) {
+        startSession(p1, p2, queue);
+    }
+
+    // Lets a spectator watch the session with the given id, or any live session for "any"
+    // (or an id that is not live). Without a live session it waits for the next one to start.
+    public void watch(Spectator spectator, String target) {
+        SessionInfo info = null;
+        try {
+            info = activeSessions.get(Long.parseLong(target));
+        } catch (NumberFormatException e) {
+            // "any" or garbage: pick any live session below
+        }
+        if (info == null) {
+            for (SessionInfo candidate : activeSessions.values()) {
+                info = candidate;
+                break;
+            }
+        }
+        if (info != null) {
+            info.session.getSpectators().add(spectator);
+        } else {
+            idleSpectators.add(spectator);
+        }
+    }
+
+    // Marks a session as finished and frees its slot.
+    private void finish(SessionInfo info) {
+        if (info.state == State.FINISHED) {
+            return;
+        }
+        info.endedAt = System.nanoTime();
+        info.state = State.FINISHED;
+        activeSessions.remove(info.id);
+        activeCount.decrementAndGet();
+        finishedCount.incrementAndGet();
+        ServerMetrics.GAMES_FINISHED.increment();
+
+        // Spectators see the result, then watch the next game that starts
+        for (Spectator spectator : info.session.getSpectators().detachAll()) {
+            if (!spectator.isClosed()) {
+                idleSpectators.add(spectator);
+            }
+        }
+
+        Runnable callback = onSessionFinished;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    // Returns a snapshot of the sessions that have not finished yet.
+    public List<SessionInfo> getActiveSessions() {
+        return new ArrayList<>(activeSessions.values());
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+    public long getFinishedCount() {
+        return finishedCount.get();
+    }
+
+    // Average completed games per second since the manager was created.
+    public double getLifetimeGamesPerSecond() {
+        double seconds = (System.nanoTime() - createdAt) / 1e9;
+        return seconds > 0 ? finishedCount.get() / seconds : 0;
+    }
+
+    // Completed games per second since the previous call to this method.
+    public double sampleGamesPerSecond() {
+        sampleLock.lock();
+        try {
+            long now = System.nanoTime();
+            long finished = finishedCount.get();
+            double seconds = (now - lastSampleTime) / 1e9;
+            double rate = seconds > 0 ? (finished - lastSampleFinished) / seconds : 0;
+            lastSampleTime = now;
+            lastSampleFinished = finished;
+            return rate;
+        } finally {
+            sampleLock.unlock();
+        }
+    }
+
+    // Builds a one-line summary of session activity and throughput.
+    public String report() {
+        return String.format("Sessions: %d/%d active, %d started, %d finished, %.2f games/s (lifetime %.2f games/s)",
+                getActiveCount(), maxSessions, getStartedCount(), getFinishedCount(),
+                sampleGamesPerSecond(), getLifetimeGamesPerSecond());
+    }
+
+    // Stops accepting new sessions; running sessions are allowed to finish.
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,97 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Exposes the traffic of each player in a running game over JMX as read-only attributes:
+// game_<id>_x_bytes_in, game_<id>_x_bytes_out and the same for o. The attributes come and
+// go with the games; bytes count over every connection a player has had, so reconnects
+// do not reset them.
+public class SessionsMBean implements DynamicMBean {
+    private static final String[] SUFFIXES = {"_x_bytes_in", "_x_bytes_out", "_o_bytes_in", "_o_bytes_out"};
+
+    private final SessionManager sessionManager;
+
+    public SessionsMBean(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    // Registers the sessions with the platform MBean server under the given object name.
+    public static void register(SessionManager sessionManager, String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new SessionsMBean(sessionManager), new ObjectName(objectName));
+        } catch (JMException e) {
+            System.out.println("Unable to register sessions with JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (SessionManager.SessionInfo info : sessionManager.getActiveSessions()) {
+            String prefix = "game_" + info.getId();
+            if (!attribute.startsWith(prefix + "_")) {
+                continue;
+            }
+            GameSession.Snapshot snapshot = info.getSession().getSnapshot();
+            String suffix = attribute.substring(prefix.length());
+            if (suffix.equals("_x_bytes_in")) return snapshot.playerX.getBytesIn();
+            if (suffix.equals("_x_bytes_out")) return snapshot.playerX.getBytesOut();
+            if (suffix.equals("_o_bytes_in")) return snapshot.playerO.getBytesIn();
+            if (suffix.equals("_o_bytes_out")) return snapshot.playerO.getBytesOut();
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Games that ended in the meantime are left out, as the JMX contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Sessions are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Sessions have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (SessionManager.SessionInfo info : sessionManager.getActiveSessions()) {
+            for (String suffix : SUFFIXES) {
+                String name = "game_" + info.getId() + suffix;
+                attributes.add(new MBeanAttributeInfo(name, "long",
+                        "Bytes " + (suffix.endsWith("_in") ? "received from" : "sent to") + " player "
+                                + Character.toUpperCase(suffix.charAt(1)) + " of game " + info.getId(),
+                        true, false, false));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Tic-Tac-Toe per-player traffic of running games",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+// A memory-mapped file holding the latest of a series of snapshots, each an opaque byte array,
+// that survives the process (or the machine) crashing halfway through writing one.
+//
+// The header has two slots, each describing one snapshot: its generation, where it lies in the
+// file, its length and a CRC of its bytes, followed by a check of the slot itself. A new
+// snapshot is written where it does not overlap the current one (at the start of the data area
+// if it fits before it, otherwise right after it) and synced, and only then described in the
+// other slot, which is synced in turn. A crash at any point leaves the current snapshot and the
+// slot describing it intact; on open, the valid slot with the highest generation wins.
+//
+// The file grows to fit the largest snapshot written next to the one before it, and no further.
+public class SnapshotFile implements Closeable {
+    private static final int MAGIC = 0x54545450; // "TTTP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MIN_CAPACITY = 64 * 1024;
+
+    // Slot layout: generation, offset, length, data CRC, check of the preceding fields
+    private static final int[] SLOTS = {16, 40};
+    private static final int OFF_OFFSET = 8;
+    private static final int OFF_LENGTH = 12;
+    private static final int OFF_CRC = 16;
+    private static final int OFF_CHECK = 20;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FileChannel channel;
+    private MappedByteBuffer file;
+    private int currentSlot = -1; // Slot describing the latest snapshot, -1 if there is none
+    private long generation;
+    private int offset;
+    private int length;
+
+    // Opens (or creates) the snapshot file at the given path and finds the latest snapshot in it.
+    public SnapshotFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot file too large: " + size + " bytes");
+        }
+        file = map(channel, Math.max(MIN_CAPACITY, (int) size));
+        if (size == 0) {
+            file.putInt(0, MAGIC);
+            file.putInt(4, VERSION);
+            file.force();
+        } else if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+            throw new IOException("Not a snapshot file: " + path);
+        }
+        for (int slot = 0; slot < SLOTS.length; slot++) {
+            int base = SLOTS[slot];
+            long slotGeneration = file.getLong(base);
+            if (slotGeneration > generation && isValid(base, size)) {
+                currentSlot = slot;
+                generation = slotGeneration;
+                offset = file.getInt(base + OFF_OFFSET);
+                length = file.getInt(base + OFF_LENGTH);
+            }
+        }
+    }
+
+    // Returns the latest snapshot, or null if none was ever completely written.
+    public byte[] read() {
+        lock.lock();
+        try {
+            if (currentSlot < 0) {
+                return null;
+            }
+            byte[] data = new byte[length];
+            file.duplicate().position(offset).get(data);
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the generation of the latest snapshot; every write adds one. 0 if there is none.
+    public long getGeneration() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes a snapshot and makes it the latest once it is safely on disk.
+    public void write(byte[] data) throws IOException {
+        lock.lock();
+        try {
+            int at = HEADER_SIZE;
+            if (currentSlot >= 0 && data.length > offset - HEADER_SIZE) {
+                at = (offset + length + 7) & ~7; // After the current snapshot, which must stay intact
+            }
+            if (at + (long) data.length > file.capacity()) {
+                long capacity = Math.max(at + (long) data.length, 2L * file.capacity());
+                if (capacity > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot too large: " + data.length + " bytes");
+                }
+                file = map(channel, (int) capacity);
+            }
+            file.duplicate().position(at).put(data);
+            file.force(); // The snapshot is on disk before any slot points at it
+
+            int slot = currentSlot == 0 ? 1 : 0;
+            int base = SLOTS[slot];
+            file.putLong(base, generation + 1);
+            file.putInt(base + OFF_OFFSET, at);
+            file.putInt(base + OFF_LENGTH, data.length);
+            file.putInt(base + OFF_CRC, crc(file, at, data.length));
+            file.putInt(base + OFF_CHECK, crc(file, base, OFF_CHECK)); // Written last
+            file.force();
+            currentSlot = slot;
+            generation++;
+            offset = at;
+            length = data.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Checks that a slot is intact and that the snapshot it describes is completely written.
+    private boolean isValid(int base, long size) {
+        if (file.getInt(base + OFF_CHECK) != crc(file, base, OFF_CHECK)) {
+            return false; // Torn or never written
+        }
+        int at = file.getInt(base + OFF_OFFSET);
+        int bytes = file.getInt(base + OFF_LENGTH);
+        if (at < HEADER_SIZE || bytes < 0 || at + (long) bytes > size) {
+            return false;
+        }
+        return file.getInt(base + OFF_CRC) == crc(file, at, bytes);
+    }
+
+    // CRC-32C of a range of the file, never 0 so that a blank slot never passes its check.
+    private static int crc(MappedByteBuffer buffer, int at, int bytes) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer range = buffer.duplicate();
+        range.position(at).limit(at + bytes);
+        crc.update(range);
+        return (int) crc.getValue() | 1;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int capacity) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
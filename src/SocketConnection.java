@@ -0,0 +1,212 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Blocking connection over a plain socket, read with a BufferedReader on the calling thread.
+// Output is queued and written by a writer task, so a client that stops reading never blocks
+// the game or the matchmaker; everything queued before the task runs goes out in one flush.
+public class SocketConnection implements PlayerConnection {
+    // Runs flushes, one task per flush
+    private static final ExecutorService WRITERS = VirtualThreads.newPerTaskExecutor();
+
+    private Socket socket;
+    private BufferedReader input;
+    private OutputStream output;
+    private String pendingLine; // First line read during the handshake that was not a hello
+    private boolean hasPendingLine = false;
+    // Keeps flushes in order; a ReentrantLock keeps virtual threads unpinned
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final OutboundQueue outbound = new OutboundQueue(() -> WRITERS.execute(this::flush), this::closeQuietly);
+    private volatile Runnable writableListener;
+    private final AtomicReference<Runnable> closeListener = new AtomicReference<>(); // Cleared once run
+    private final LongAdder bytesIn = new LongAdder(); // This client's share of BYTES_IN
+    private volatile boolean closeWhenFlushed = false;
+
+    // Wraps an accepted client socket.
+    public SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.input = new BufferedReader(new InputStreamReader(new CountingInputStream(socket.getInputStream(), bytesIn),
+                StandardCharsets.UTF_8));
+        this.output = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    // Waits up to timeoutMs for the client's protocol hello and returns it.
+    // Returns null if the client sent nothing in time or sent something else,
+    // in which case that line is kept for the next readLine call.
+    public String readHello(int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+        try {
+            String line = input.readLine();
+            if (line != null && Hello.isHello(line)) {
+                return line;
+            }
+            pendingLine = line;
+            hasPendingLine = true;
+            return null;
+        } catch (SocketTimeoutException e) {
+            return null; // Older clients never send a hello
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (hasPendingLine) {
+            hasPendingLine = false;
+            return pendingLine;
+        }
+        return input.readLine();
+    }
+
+    @Override
+    public void writeLine(String line) {
+        write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(byte[] data) {
+        if (isClosed()) {
+            return;
+        }
+        outbound.add(data);
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        closeWhenFlushed = true;
+        WRITERS.execute(this::flush);
+    }
+
+    @Override
+    public void beginBatch() {
+        outbound.beginBatch();
+    }
+
+    @Override
+    public void endBatch() {
+        outbound.endBatch();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return outbound.isWritable();
+    }
+
+    @Override
+    public void setWritableListener(Runnable listener) {
+        this.writableListener = listener;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return outbound.getBytesWritten();
+    }
+
+    @Override
+    public void setCloseListener(Runnable listener) {
+        closeListener.set(listener);
+        if (isClosed()) {
+            runCloseListener(); // Closed before the listener was set
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed() || !socket.isConnected();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        outbound.clear();
+        runCloseListener();
+    }
+
+    // Writes everything queued so far with a single flush of the socket stream.
+    private void flush() {
+        writeLock.lock();
+        try {
+            outbound.flushStarted();
+            long written = 0;
+            byte[] data;
+            while ((data = outbound.poll()) != null) {
+                output.write(data);
+                written += data.length;
+            }
+            if (written > 0) {
+                output.flush();
+                outbound.written(written);
+                ServerMetrics.OUTBOUND_WRITES.increment();
+            }
+            if (closeWhenFlushed && outbound.isEmpty()) {
+                closeQuietly();
+                return;
+            }
+        } catch (IOException e) {
+            // Close the socket so the failure is noticed even by callers that never read
+            closeQuietly();
+            return;
+        } finally {
+            writeLock.unlock();
+        }
+        Runnable listener = writableListener;
+        if (listener != null && outbound.isEmpty()) {
+            listener.run();
+        }
+    }
+
+    private void runCloseListener() {
+        Runnable listener = closeListener.getAndSet(null);
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ignored) {
+            // Already failing; nothing more to do
+        }
+    }
+
+    // Counts bytes as they are read from the socket, before they are decoded into lines.
+    private static class CountingInputStream extends FilterInputStream {
+        private final LongAdder bytesIn;
+
+        CountingInputStream(InputStream in, LongAdder bytesIn) {
+            super(in);
+            this.bytesIn = bytesIn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                ServerMetrics.BYTES_IN.increment();
+                bytesIn.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                ServerMetrics.BYTES_IN.add(count);
+                bytesIn.add(count);
+            }
+            return count;
+        }
+    }
+}
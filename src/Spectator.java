@@ -0,0 +1,68 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// A client watching games instead of playing.
+// Every update a spectator receives is a complete snapshot, so it only ever needs the newest
+// one: its queue is a single slot that each update overwrites (drop-to-latest). A slow
+// spectator therefore holds at most one pending update, however far behind it falls, and
+// never delays the players or the other spectators.
+public class Spectator {
+    private final PlayerHandler client;
+    private final AtomicReference<byte[]> pending = new AtomicReference<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile SpectatorGroup group; // Game currently watched, or null
+    private volatile byte[] lastOffered;
+
+    public Spectator(PlayerHandler client) {
+        this.client = client;
+        client.setWritableListener(this::drain);
+    }
+
+    public Protocol getProtocol() {
+        return client.getProtocol();
+    }
+
+    public boolean isClosed() {
+        return client.isDisconnected();
+    }
+
+    public SpectatorGroup getGroup() {
+        return group;
+    }
+
+    void setGroup(SpectatorGroup group) {
+        this.group = group;
+    }
+
+    // Queues an encoded update, replacing one that has not been sent yet.
+    // Offering the same update twice (same array) has no effect.
+    void offer(byte[] update) {
+        if (update == lastOffered) {
+            return;
+        }
+        lastOffered = update;
+        if (pending.getAndSet(update) != null) {
+            ServerMetrics.SPECTATOR_UPDATES_DROPPED.increment();
+        }
+        drain(); // Writes only queue, so the fan-out thread can do them itself
+    }
+
+    // Writes the pending update while the connection has room. A connection that is backed up
+    // calls this again once it has flushed (see PlayerConnection.setWritableListener).
+    private void drain() {
+        while (draining.compareAndSet(false, true)) {
+            try {
+                byte[] update;
+                while (client.isWritable() && (update = pending.getAndSet(null)) != null) {
+                    client.sendEncoded(update);
+                    ServerMetrics.SPECTATOR_UPDATES.increment();
+                }
+            } finally {
+                draining.set(false);
+            }
+            if (pending.get() == null || !client.isWritable()) {
+                return; // Nothing more to send, or wait for the writable callback
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// The spectators of one game and the broadcast of its updates to them.
+// The game thread only publishes an immutable board snapshot, which is O(1) however many
+// spectators there are. A shared fan-out thread then encodes the snapshot once per protocol
+// and hands the same byte array to every spectator. Publishes that arrive while a fan-out is
+// still queued are merged: the fan-out always sends the latest snapshot.
+public class SpectatorGroup {
+    // Game status sent with every spectator update
+    public static final int X_TO_MOVE = 0;
+    public static final int O_TO_MOVE = 1;
+    public static final int X_WON = 2;
+    public static final int O_WON = 3;
+    public static final int DRAW = 4;
+
+    private static final ExecutorService FAN_OUT = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "spectator-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A published state, encoded lazily and at most once per protocol.
+    private static final class Snapshot {
+        final Board board;
+        final int status;
+        final Map<Protocol, byte[]> encoded = new ConcurrentHashMap<>(4);
+
+        Snapshot(Board board, int status) {
+            this.board = board;
+            this.status = status;
+        }
+
+        byte[] encodedFor(Protocol protocol) {
+            return encoded.computeIfAbsent(protocol, p -> p.encodeSpectate(board, status));
+        }
+    }
+
+    private final Set<Spectator> spectators = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fanOutScheduled = new AtomicBoolean();
+    private volatile Snapshot latest;
+
+    // Publishes the game's new state. The board must not be modified afterwards.
+    public void publish(Board snapshot, int status) {
+        latest = new Snapshot(snapshot, status);
+        if (!spectators.isEmpty() && fanOutScheduled.compareAndSet(false, true)) {
+            FAN_OUT.execute(this::fanOut);
+        }
+    }
+
+    // Starts sending updates to a spectator, beginning with the current state.
+    public void add(Spectator spectator) {
+        spectator.setGroup(this);
+        spectators.add(spectator);
+        Snapshot snapshot = latest;
+        if (snapshot != null) {
+            spectator.offer(snapshot.encodedFor(spectator.getProtocol()));
+        }
+    }
+
+    public void remove(Spectator spectator) {
+        if (spectators.remove(spectator)) {
+            spectator.setGroup(null);
+        }
+    }
+
+    public int size() {
+        return spectators.size();
+    }
+
+    // Removes and returns every spectator, e.g. when the game ends.
+    // Each is first given the latest state, in case the last fan-out has not reached it yet.
+    public List<Spectator> detachAll() {
+        List<Spectator> detached = new ArrayList<>(spectators);
+        Snapshot snapshot = latest;
+        for (Spectator spectator : detached) {
+            remove(spectator);
+            if (snapshot != null) {
+                spectator.offer(snapshot.encodedFor(spectator.getProtocol()));
+            }
+        }
+        return detached;
+    }
+
+    private void fanOut() {
+        fanOutScheduled.set(false);
+        Snapshot snapshot = latest;
+        for (Spectator spectator : spectators) {
+            if (spectator.isClosed()) {
+                remove(spectator);
+            } else {
+                spectator.offer(snapshot.encodedFor(spectator.getProtocol()));
+            }
+        }
+    }
+}
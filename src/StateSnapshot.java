@@ -0,0 +1,260 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// What a restarted server needs to pick up where it left off: the waiting queue in order and
+// every game in progress, with each player's token, streak and rating.
+//
+// A snapshot is captured without stopping anything. Games are read from the immutable
+// GameSession.Snapshot each session publishes after every change, and each queue is copied
+// under its own lock, which is only ever held for short operations. The result is not one
+// instant across the whole server, but every game and every queue in it is consistent.
+//
+// The encoding is compact: varints, length-prefixed UTF-8 strings and boards packed two bits
+// a cell (as in the binary protocol).
+//
+//   snapshot: varlong taken-at millis, varint queued count, queued players, varint game count, games
+//   player:   token, name ("" if anonymous), varint width, height, win length, streak, rating, rated games
+//   game:     varlong id, player X, player O, packed cells
+public final class StateSnapshot {
+    // A player as saved: the token their client reconnects with and the state they keep.
+    public static final class SavedPlayer {
+        public final String token;
+        public final String name; // Null for anonymous players
+        public final BoardSize boardSize;
+        public final int winStreak;
+        public final int rating;
+        public final int ratedGames;
+
+        SavedPlayer(String token, String name, BoardSize boardSize, int winStreak, int rating, int ratedGames) {
+            this.token = token;
+            this.name = name;
+            this.boardSize = boardSize;
+            this.winStreak = winStreak;
+            this.rating = rating;
+            this.ratedGames = ratedGames;
+        }
+
+        // Saves a player, or returns null for one who cannot be restored: a bot, or a player
+        // with no token to reconnect with.
+        static SavedPlayer of(PlayerHandler player) {
+            String token = player.getResumeToken();
+            if (token == null || player.isBot()) {
+                return null;
+            }
+            return new SavedPlayer(token, player.getName(), player.getBoardSize(),
+                    player.getWinStreak(), player.getRating(), player.getRatedGames());
+        }
+
+        // Gives a player who came back the streak and rating they had.
+        public void restore(PlayerHandler player) {
+            player.setWinStreak(winStreak);
+            player.setRating(rating, ratedGames);
+        }
+    }
+
+    // A game in progress. X moved first, so the board tells whose turn it is.
+    public static final class SavedGame {
+        public final long id;
+        public final SavedPlayer playerX;
+        public final SavedPlayer playerO;
+        public final Board board;
+
+        SavedGame(long id, SavedPlayer playerX, SavedPlayer playerO, Board board) {
+            this.id = id;
+            this.playerX = playerX;
+            this.playerO = playerO;
+            this.board = board;
+        }
+    }
+
+    public final long takenAtMillis;
+    public final List<SavedPlayer> queued; // Front first; players of different sizes interleave
+    public final List<SavedGame> games;
+
+    StateSnapshot(long takenAtMillis, List<SavedPlayer> queued, List<SavedGame> games) {
+        this.takenAtMillis = takenAtMillis;
+        this.queued = queued;
+        this.games = games;
+    }
+
+    // Captures the live games and the queue (null on a game node). Players restored from an
+    // earlier snapshot who have not come back yet keep their places (restored may be null).
+    //
+    // A game at its replay prompt is saved as its winner and loser at the front of the queue,
+    // which is about where either answer to the prompt puts them. A human playing a bot is
+    // saved at the front of the queue too, since the bot cannot be restored.
+    public static StateSnapshot capture(SessionManager sessions, Matchmaker matchmaker, RestoredQueue restored) {
+        List<SavedPlayer> front = new ArrayList<>();
+        List<SavedGame> games = new ArrayList<>();
+        for (SessionManager.SessionInfo info : sessions.getActiveSessions()) {
+            GameSession.Snapshot game = info.getSession().getSnapshot();
+            if (game == null) {
+                continue; // Ended since the list was taken
+            }
+            SavedPlayer x = SavedPlayer.of(game.playerX);
+            SavedPlayer o = SavedPlayer.of(game.playerO);
+            if (game.winner != null || x == null || o == null) {
+                addIfSaved(front, game.winner != null ? SavedPlayer.of(game.winner) : x);
+                addIfSaved(front, game.winner != null ? SavedPlayer.of(game.loser) : o);
+            } else {
+                games.add(new SavedGame(info.getId(), x, o, game.board));
+            }
+        }
+
+        List<SavedPlayer> queued = new ArrayList<>(front);
+        if (restored != null) {
+            queued.addAll(restored.unclaimed());
+        }
+        if (matchmaker != null) {
+            for (PlayerHandler player : matchmaker.queuedPlayers()) {
+                if (!player.isDisconnected()) {
+                    addIfSaved(queued, SavedPlayer.of(player));
+                }
+            }
+        }
+        return new StateSnapshot(System.currentTimeMillis(), queued, games);
+    }
+
+    private static void addIfSaved(List<SavedPlayer> players, SavedPlayer player) {
+        if (player != null) {
+            players.add(player);
+        }
+    }
+
+    // Encodes the snapshot in the format described above.
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + 48 * (queued.size() + 2 * games.size()));
+        writeVarlong(out, takenAtMillis);
+        BinaryProtocol.writeVarint(out, queued.size());
+        for (SavedPlayer player : queued) {
+            writePlayer(out, player);
+        }
+        BinaryProtocol.writeVarint(out, games.size());
+        for (SavedGame game : games) {
+            writeVarlong(out, game.id);
+            writePlayer(out, game.playerX);
+            writePlayer(out, game.playerO);
+            int cells = game.board.getCellCount();
+            byte[] packed = new byte[(cells + 3) / 4];
+            for (int i = 0; i < cells; i++) {
+                char symbol = game.board.getSymbolAt(i + 1);
+                int code = symbol == 'X' ? BinaryProtocol.CELL_X : symbol == 'O' ? BinaryProtocol.CELL_O : BinaryProtocol.CELL_EMPTY;
+                packed[i >> 2] |= code << ((i & 3) * 2);
+            }
+            out.write(packed, 0, packed.length);
+        }
+        return out.toByteArray();
+    }
+
+    // Decodes a snapshot written by encode.
+    public static StateSnapshot decode(byte[] data) throws IOException {
+        int[] at = {0};
+        long takenAtMillis = readVarlong(data, at);
+        int queuedCount = BinaryProtocol.readVarint(data, at);
+        List<SavedPlayer> queued = new ArrayList<>();
+        for (int i = 0; i < queuedCount; i++) {
+            queued.add(readPlayer(data, at));
+        }
+        int gameCount = BinaryProtocol.readVarint(data, at);
+        List<SavedGame> games = new ArrayList<>();
+        for (int i = 0; i < gameCount; i++) {
+            long id = readVarlong(data, at);
+            SavedPlayer x = readPlayer(data, at);
+            SavedPlayer o = readPlayer(data, at);
+            Board board = new Board(x.boardSize);
+            byte[] packed = readBytes(data, at, (board.getCellCount() + 3) / 4);
+            int xMoves = 0;
+            int oMoves = 0;
+            for (int cell = 0; cell < board.getCellCount(); cell++) {
+                int code = BinaryProtocol.cellAt(packed, cell);
+                if (code == BinaryProtocol.CELL_X) {
+                    board.makeMove(cell + 1, 'X');
+                    xMoves++;
+                } else if (code == BinaryProtocol.CELL_O) {
+                    board.makeMove(cell + 1, 'O');
+                    oMoves++;
+                }
+            }
+            if (xMoves != oMoves && xMoves != oMoves + 1) {
+                throw new IOException("Impossible board in game " + id);
+            }
+            games.add(new SavedGame(id, x, o, board));
+        }
+        return new StateSnapshot(takenAtMillis, Collections.unmodifiableList(queued), Collections.unmodifiableList(games));
+    }
+
+    private static void writePlayer(ByteArrayOutputStream out, SavedPlayer player) {
+        writeString(out, player.token);
+        writeString(out, player.name != null ? player.name : "");
+        BinaryProtocol.writeVarint(out, player.boardSize.getWidth());
+        BinaryProtocol.writeVarint(out, player.boardSize.getHeight());
+        BinaryProtocol.writeVarint(out, player.boardSize.getWinLength());
+        BinaryProtocol.writeVarint(out, player.winStreak);
+        BinaryProtocol.writeVarint(out, player.rating);
+        BinaryProtocol.writeVarint(out, player.ratedGames);
+    }
+
+    private static SavedPlayer readPlayer(byte[] data, int[] at) throws IOException {
+        String token = readString(data, at);
+        String name = readString(data, at);
+        BoardSize boardSize;
+        try {
+            boardSize = new BoardSize(BinaryProtocol.readVarint(data, at), BinaryProtocol.readVarint(data, at),
+                    BinaryProtocol.readVarint(data, at));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad board size: " + e.getMessage());
+        }
+        return new SavedPlayer(token, name.isEmpty() ? null : name, boardSize,
+                BinaryProtocol.readVarint(data, at), BinaryProtocol.readVarint(data, at), BinaryProtocol.readVarint(data, at));
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        BinaryProtocol.writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(byte[] data, int[] at) throws IOException {
+        int length = BinaryProtocol.readVarint(data, at);
+        return new String(readBytes(data, at, length), StandardCharsets.UTF_8);
+    }
+
+    // Reads the next length bytes, advancing at[0] past them.
+    private static byte[] readBytes(byte[] data, int[] at, int length) throws IOException {
+        if (length < 0 || length > data.length - at[0]) {
+            throw new IOException("Truncated snapshot");
+        }
+        byte[] bytes = Arrays.copyOfRange(data, at[0], at[0] + length);
+        at[0] += length;
+        return bytes;
+    }
+
+    // Writes an unsigned LEB128 varint of up to 64 bits.
+    private static void writeVarlong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarlong(byte[] data, int[] at) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            if (at[0] >= data.length) {
+                throw new IOException("Truncated varint");
+            }
+            int b = data[at[0]++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,135 @@
+import java.nio.charset.StandardCharsets;
+
+// The original line-based text protocol.
+// Every board update carries the whole board ("square 1: X square 2: O ... 1"), preceded
+// by a "size <width>x<height>x<k>" line at the start of a game on anything but a 3x3 board;
+// win streaks and queue positions are packed into a single char and capped at 255.
+public class TextProtocol implements Protocol {
+    public static final TextProtocol INSTANCE = new TextProtocol();
+    // Text names of the SpectatorGroup statuses, by status code
+    public static final String[] SPECTATE_STATUS = {"X", "O", "XW", "OW", "T"};
+
+    private TextProtocol() {
+    }
+
+    @Override
+    public void start(PlayerConnection out) {
+    }
+
+    @Override
+    public void sendSymbol(PlayerConnection out, char symbol) {
+        out.writeLine(symbol == 'X' ? "x" : "o");
+    }
+
+    @Override
+    public void sendWaiting(PlayerConnection out) {
+        out.writeLine("w");
+    }
+
+    @Override
+    public void sendBoard(PlayerConnection out, Board board, boolean yourTurn) {
+        if (!board.getSize().isClassic()) {
+            out.writeLine("size " + board.getSize()); // Precedes the first board of every game that is not 3x3
+        }
+        out.writeLine(formatBoard(board) + (yourTurn ? " 1" : " 0"));
+    }
+
+    @Override
+    public void sendMove(PlayerConnection out, Board board, int position, char symbol, boolean yourTurn) {
+        out.writeLine(formatBoard(board) + (yourTurn ? " 1" : " 0")); // Text clients always receive the full board
+    }
+
+    @Override
+    public void sendWin(PlayerConnection out, int winStreak) {
+        out.writeLine("W" + (char) Math.min(winStreak, 255));
+    }
+
+    @Override
+    public void sendLoss(PlayerConnection out) {
+        out.writeLine("L");
+    }
+
+    @Override
+    public void sendTie(PlayerConnection out) {
+        out.writeLine("T");
+    }
+
+    @Override
+    public void sendInvalidMove(PlayerConnection out) {
+        out.writeLine("I");
+    }
+
+    @Override
+    public void sendQueuePosition(PlayerConnection out, int position) {
+        out.writeLine("Q" + (char) Math.min(position, 255));
+    }
+
+    @Override
+    public void sendOpponentLeft(PlayerConnection out) {
+        out.writeLine("Opponent has left the game. You win by default.");
+    }
+
+    @Override
+    public void sendReplayPrompt(PlayerConnection out) {
+        out.writeLine("Do you want to play again? (Y/N)");
+    }
+
+    @Override
+    public void sendSessionToken(PlayerConnection out, String token) {
+        out.writeLine("token " + token); // Older clients ignore lines they do not know
+    }
+
+    // "redirect <host>:<port> <ticket>"; older clients do not know it and stay where they are.
+    @Override
+    public void sendRedirect(PlayerConnection out, String host, int port, String ticket) {
+        out.writeLine("redirect " + host + ":" + port + " " + ticket);
+    }
+
+    @Override
+    public void sendBusy(PlayerConnection out, long retryAfterMs) {
+        out.writeLine(busyLine(retryAfterMs));
+    }
+
+    // "busy <milliseconds>": the server is overloaded and the client should connect again after
+    // that long. It is also the only line sent to connections turned away before the handshake,
+    // so binary clients must expect it in place of the server's hello.
+    public static String busyLine(long retryAfterMs) {
+        return "busy " + retryAfterMs;
+    }
+
+    // Returns the wait a busy line asks for, or -1 if the line is something else.
+    public static long parseBusy(String line) {
+        if (line == null || !line.startsWith("busy ")) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(line.substring("busy ".length()).trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void sendResync(PlayerConnection out, Board board, char symbol, boolean yourTurn) {
+        sendSymbol(out, symbol);
+        sendBoard(out, board, yourTurn);
+    }
+
+    // "spectate <status> <size> square 1: X square 2: ..." where status is X or O (to move),
+    // XW or OW (won) or T (tie), and size is the board size such as 3x3x3.
+    @Override
+    public byte[] encodeSpectate(Board board, int status) {
+        return ("spectate " + SPECTATE_STATUS[status] + " " + board.getSize() + " " + formatBoard(board) + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Formats the board as "square 1: X square 2: O ..." without the turn indicator.
+    public static String formatBoard(Board board) {
+        int cells = board.getCellCount();
+        StringBuilder state = new StringBuilder(cells * 12);
+        for (int i = 1; i <= cells; i++) {
+            state.append("square ").append(i).append(": ").append(board.getSymbolAt(i)).append(" ");
+        }
+        return state.toString().trim();
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Hashed timing wheel for the server's many coarse timeouts: turn clocks, replay prompts,
+// reconnect grace periods and queue idle limits.
+//
+// The wheel is a ring of buckets, one per tick. A timeout lands in the bucket its deadline
+// falls into, with a count of the full turns of the wheel still to go before it is due, so
+// scheduling and cancelling are O(1) however many timeouts are pending. A single thread
+// advances the wheel once per tick and runs what has expired; tens of thousands of pending
+// timeouts therefore cost one thread and a few objects each, where a ScheduledExecutorService
+// keeps them in a heap (O(log n) per schedule) and a socket timeout ties up a reader per player.
+//
+// Deadlines are only as precise as the tick. Tasks run on the wheel thread and must be short;
+// a task that needs to block should hand its work to another thread.
+public final class TimingWheel {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    // A scheduled task. Cancelling it is O(1) and safe from any thread.
+    public static final class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadline; // Nanoseconds since the wheel started
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // Bucket links and remaining turns; only touched by the wheel thread
+        private long remainingRounds;
+        private Timeout previous;
+        private Timeout next;
+        private Bucket bucket;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Cancels the timeout. Returns false if it already ran or was cancelled.
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.cancelled.add(this); // Unlinked from its bucket on the next tick
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    // Doubly linked list of the timeouts in one slot of the wheel.
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        // Runs the timeouts that are due on this turn of the wheel; the rest wait another turn.
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+                        timeout.wheel.pending.decrementAndGet();
+                        run(timeout.task);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private static void run(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Keep the wheel turning for everyone else
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final String name;
+    // Timeouts scheduled or cancelled since the last tick, handed to the wheel thread
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger started = new AtomicInteger();
+    private final long startTime = System.nanoTime();
+    private long tick = 0; // Only touched by the wheel thread
+
+    // Creates a wheel of wheelSize buckets (rounded up to a power of two) of tickMs each.
+    // Its thread starts with the first timeout scheduled.
+    public TimingWheel(long tickMs, int wheelSize, String name) {
+        if (tickMs < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.name = name;
+    }
+
+    // Creates a wheel with a 100 ms tick that turns once every 51.2 seconds.
+    public TimingWheel(String name) {
+        this(100, 512, name);
+    }
+
+    // Runs task once, about delayMs from now. Never blocks.
+    public Timeout schedule(Runnable task, long delayMs) {
+        if (started.get() == 0 && started.compareAndSet(0, 1)) {
+            Thread thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    // Returns the number of timeouts scheduled that have neither run nor been cancelled.
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    private void run() {
+        while (true) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep;
+            while ((sleep = deadline - (System.nanoTime() - startTime)) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            unlinkCancelled();
+            transferScheduled();
+            buckets[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    // Places newly scheduled timeouts in the bucket of their deadline's tick. A deadline that
+    // has already passed goes into the current bucket, so it runs on this tick.
+    private void transferScheduled() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = scheduled.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() != PENDING) {
+                continue; // Cancelled before it reached the wheel
+            }
+            long dueTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (dueTick - tick) / buckets.length;
+            buckets[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    private void unlinkCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            pending.decrementAndGet();
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+// Plays bot-vs-bot games in memory as fast as the CPU allows, to regression-test the game rules,
+// the protocols and the bots. Every game is a real GameSession on a real Board between two
+// PlayerHandlers on LoopbackConnections; the players at the other end decode the server's
+// messages (binary or text) and answer with moves like a networked client would, but nothing
+// touches a socket. Games run on a fork-join pool in batches, and each batch tallies its own
+// results, so the workers share nothing but a progress counter.
+//
+// Options are system properties, e.g. java -Dtournament.games=5000000 -Dtournament.b=random Tournament
+//   tournament.games       number of games (1000000)
+//   tournament.threads     worker threads (CPU cores)
+//   tournament.a, .b       the two players: hard, medium or easy (the built-in bot's levels, classic
+//                          board only) or random (hard and medium)
+//   tournament.board       board size, e.g. 7x6x4 (classic 3x3)
+//   tournament.protocol    binary or text (binary)
+//   tournament.reportSec   interval between progress reports (5)
+//
+// The players swap sides every game. Besides games per second and the results, the report counts
+// what should never happen: moves the server rejected, games whose players were told results
+// that do not fit together, and a perfect (hard) player losing on the classic board. The exit
+// status is 1 if any of them occurred.
+public class Tournament {
+    private static final long GAMES = Long.getLong("tournament.games", 1_000_000);
+    private static final int THREADS = Integer.getInteger("tournament.threads", Runtime.getRuntime().availableProcessors());
+    private static final String PLAYER_A = System.getProperty("tournament.a", "hard");
+    private static final String PLAYER_B = System.getProperty("tournament.b", "medium");
+    private static final String BOARD_SIZE = System.getProperty("tournament.board", BoardSize.CLASSIC.toString());
+    private static final boolean BINARY = !"text".equals(System.getProperty("tournament.protocol", "binary"));
+    private static final int REPORT_SEC = Integer.getInteger("tournament.reportSec", 5);
+    private static final int BATCH_SIZE = 1000;
+
+    // Where GameSession sends players after a game; every game here is between fresh players
+    private static final PlayerQueue DISCARD = new PlayerQueue() {
+        @Override
+        public void enqueue(PlayerHandler player) {
+        }
+
+        @Override
+        public void enqueueFront(PlayerHandler player) {
+        }
+
+        @Override
+        public void sendQueuePosition(PlayerHandler player) {
+        }
+    };
+
+    private enum Result { WIN, LOSS, TIE }
+
+    // How a player picks its moves.
+    private static final class Strategy {
+        final String name;
+        final BotPlayer bot; // Null for random play
+
+        Strategy(String name, BotPlayer bot) {
+            this.name = name;
+            this.bot = bot;
+        }
+    }
+
+    // Totals of a batch of games, or of several batches combined.
+    private static final class Totals {
+        long games;
+        long moves;
+        long xWins;
+        long oWins;
+        long ties;
+        final long[] playerA = new long[Result.values().length]; // Results of player a
+        long invalidMoves;
+        long protocolErrors;
+        long mismatchedResults;
+        long perfectPlayLosses;
+
+        Totals add(Totals other) {
+            games += other.games;
+            moves += other.moves;
+            xWins += other.xWins;
+            oWins += other.oWins;
+            ties += other.ties;
+            for (int i = 0; i < playerA.length; i++) {
+                playerA[i] += other.playerA[i];
+            }
+            invalidMoves += other.invalidMoves;
+            protocolErrors += other.protocolErrors;
+            mismatchedResults += other.mismatchedResults;
+            perfectPlayLosses += other.perfectPlayLosses;
+            return this;
+        }
+
+        long failures() {
+            return invalidMoves + protocolErrors + mismatchedResults + perfectPlayLosses;
+        }
+    }
+
+    private final BoardSize size;
+    private final Strategy a;
+    private final Strategy b;
+    private final LongAdder gamesPlayed = new LongAdder();
+
+    private Tournament(BoardSize size, Strategy a, Strategy b) {
+        this.size = size;
+        this.a = a;
+        this.b = b;
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        BoardSize size = BoardSize.parse(BOARD_SIZE);
+        if (size == null) {
+            System.out.println("Unknown board size: " + BOARD_SIZE);
+            System.exit(2);
+        }
+        PerfectPlayTable table = size.isClassic() ? PerfectPlayTable.build() : null;
+        Strategy a = strategy(PLAYER_A, table);
+        Strategy b = strategy(PLAYER_B, table);
+        if (a == null || b == null) {
+            System.out.println("Players are hard, medium, easy (classic board only) or random");
+            System.exit(2);
+        }
+        System.exit(new Tournament(size, a, b).run() > 0 ? 1 : 0);
+    }
+
+    private static Strategy strategy(String name, PerfectPlayTable table) {
+        if (name.equals("random")) {
+            return new Strategy(name, null);
+        }
+        for (BotPlayer.Difficulty difficulty : BotPlayer.Difficulty.values()) {
+            if (difficulty.name().equalsIgnoreCase(name)) {
+                return table != null ? new Strategy(name, new BotPlayer(table, difficulty, false)) : null;
+            }
+        }
+        return null;
+    }
+
+    // Plays every game and prints the report. Returns the number of failures.
+    private long run() throws InterruptedException, ExecutionException {
+        PrintStream out = System.out;
+        out.printf("Tournament: %d games of %s, %s vs %s, %s protocol, %d threads%n", GAMES, size, a.name, b.name,
+                BINARY ? "binary" : "text", THREADS);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Silences the sessions' logging
+
+        long startedAt = System.nanoTime();
+        long batches = (GAMES + BATCH_SIZE - 1) / BATCH_SIZE;
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        ForkJoinTask<Totals> tournament = pool.submit(() -> LongStream.range(0, batches).parallel()
+                .mapToObj(this::playBatch)
+                .reduce(Totals::add)
+                .orElseGet(Totals::new));
+        long lastGames = 0;
+        long lastReportAt = startedAt;
+        while (true) {
+            try {
+                tournament.get(REPORT_SEC, TimeUnit.SECONDS);
+                break;
+            } catch (TimeoutException e) {
+                long now = System.nanoTime();
+                long games = gamesPlayed.sum();
+                out.printf(Locale.ROOT, "[%.0fs] %d games (%.0f games/s)%n", (now - startedAt) / 1e9, games,
+                        (games - lastGames) / ((now - lastReportAt) / 1e9));
+                lastGames = games;
+                lastReportAt = now;
+            }
+        }
+        Totals totals = tournament.get();
+        double elapsed = (System.nanoTime() - startedAt) / 1e9;
+        pool.shutdown();
+        System.setOut(out);
+
+        out.printf(Locale.ROOT, "Final: %d games in %.1fs (%.0f games/s), %.2f moves per game%n", totals.games, elapsed,
+                totals.games / elapsed, (double) totals.moves / Math.max(1, totals.games));
+        out.printf(Locale.ROOT, "  X won %s, O won %s, tied %s%n", percent(totals.xWins, totals.games),
+                percent(totals.oWins, totals.games), percent(totals.ties, totals.games));
+        long[] playerA = totals.playerA;
+        out.printf("  %s W/L/T=%d/%d/%d, %s W/L/T=%d/%d/%d%n",
+                a.name, playerA[0], playerA[1], playerA[2], b.name, playerA[1], playerA[0], playerA[2]);
+        out.printf("  server counted: won=%d tied=%d forfeited=%d%n", ServerMetrics.GAMES_WON.get(),
+                ServerMetrics.GAMES_DRAWN.get(), ServerMetrics.GAMES_FORFEITED.get());
+        out.printf("  errors: invalidMoves=%d protocol=%d mismatchedResults=%d perfectPlayLosses=%d%n",
+                totals.invalidMoves, totals.protocolErrors, totals.mismatchedResults, totals.perfectPlayLosses);
+        return totals.failures();
+    }
+
+    private static String percent(long count, long total) {
+        return String.format(Locale.ROOT, "%.2f%%", 100.0 * count / Math.max(1, total));
+    }
+
+    private Totals playBatch(long batch) {
+        Totals totals = new Totals();
+        long end = Math.min(GAMES, (batch + 1) * BATCH_SIZE);
+        for (long game = batch * BATCH_SIZE; game < end; game++) {
+            play((game & 1) == 0, totals);
+        }
+        gamesPlayed.add(totals.games);
+        return totals;
+    }
+
+    // Plays one game on the calling thread and adds it to the totals.
+    private void play(boolean aPlaysX, Totals totals) {
+        Player x = new Player(aPlaysX ? a : b);
+        Player o = new Player(aPlaysX ? b : a);
+        Protocol protocol = BINARY ? BinaryProtocol.INSTANCE : TextProtocol.INSTANCE;
+        PlayerHandler playerX = new PlayerHandler(x.connection, protocol);
+        PlayerHandler playerO = new PlayerHandler(o.connection, protocol);
+        playerX.setBoardSize(size);
+        playerO.setBoardSize(size);
+        new GameSession(playerX, playerO, DISCARD).run(); // Each player's move is queued before it is read
+        x.connection.close();
+        o.connection.close();
+
+        totals.games++;
+        totals.moves += x.moves + o.moves;
+        totals.invalidMoves += x.invalidMoves + o.invalidMoves;
+        totals.protocolErrors += x.protocolErrors + o.protocolErrors;
+        if (x.result == Result.WIN && o.result == Result.LOSS) {
+            totals.xWins++;
+        } else if (x.result == Result.LOSS && o.result == Result.WIN) {
+            totals.oWins++;
+        } else if (x.result == Result.TIE && o.result == Result.TIE) {
+            totals.ties++;
+        } else {
+            totals.mismatchedResults++;
+            return;
+        }
+        totals.playerA[(aPlaysX ? x : o).result.ordinal()]++;
+        for (Player player : new Player[] {x, o}) {
+            if (player.result == Result.LOSS && player.strategy.name.equals("hard")) {
+                totals.perfectPlayLosses++;
+            }
+        }
+    }
+
+    // The client end of one player's loopback connection: keeps its own copy of the board from
+    // the server's messages and answers with a move whenever it is told it is its turn.
+    private final class Player implements LoopbackConnection.Peer {
+        final Strategy strategy;
+        final LoopbackConnection connection = new LoopbackConnection(this);
+        final char[] board = new char[size.getCellCount()];
+        Result result;
+        int moves;
+        int invalidMoves;
+        int protocolErrors;
+
+        Player(Strategy strategy) {
+            this.strategy = strategy;
+            Arrays.fill(board, ' ');
+        }
+
+        @Override
+        public void onLine(String line) {
+            if (BINARY) {
+                return; // Only the protocol hello comes as a line
+            }
+            if (line.startsWith("square 1")) {
+                if (parseTextBoard(line)) {
+                    onBoard(line.endsWith(" 1"));
+                } else {
+                    protocolErrors++;
+                }
+            } else if (line.startsWith("W")) {
+                result = Result.WIN;
+            } else if (line.equals("L")) {
+                result = Result.LOSS;
+            } else if (line.equals("T")) {
+                result = Result.TIE;
+            } else if (line.equals("I")) {
+                onInvalidMove();
+            } else if (line.startsWith("Do you want to play again")) {
+                connection.send("N");
+            }
+        }
+
+        @Override
+        public void onBytes(byte[] data) {
+            try {
+                int[] offset = {0};
+                BinaryProtocol.readVarint(data, offset);
+                switch (data[offset[0]++]) {
+                    case BinaryProtocol.BOARD: {
+                        int flags = data[offset[0]++];
+                        int width = BinaryProtocol.readVarint(data, offset);
+                        int height = BinaryProtocol.readVarint(data, offset);
+                        if (width * height != board.length) {
+                            protocolErrors++;
+                            return;
+                        }
+                        byte[] packed = Arrays.copyOfRange(data, offset[0], data.length);
+                        for (int i = 0; i < board.length; i++) {
+                            int cell = BinaryProtocol.cellAt(packed, i);
+                            board[i] = cell == BinaryProtocol.CELL_X ? 'X' : cell == BinaryProtocol.CELL_O ? 'O' : ' ';
+                        }
+                        onBoard((flags & BinaryProtocol.FLAG_YOUR_TURN) != 0);
+                        break;
+                    }
+                    case BinaryProtocol.MOVE: {
+                        int index = BinaryProtocol.readVarint(data, offset);
+                        int flags = data[offset[0]];
+                        board[index] = (flags & BinaryProtocol.FLAG_SYMBOL_O) != 0 ? 'O' : 'X';
+                        onBoard((flags & BinaryProtocol.FLAG_YOUR_TURN) != 0);
+                        break;
+                    }
+                    case BinaryProtocol.WIN:
+                        result = Result.WIN;
+                        break;
+                    case BinaryProtocol.LOSS:
+                        result = Result.LOSS;
+                        break;
+                    case BinaryProtocol.TIE:
+                        result = Result.TIE;
+                        break;
+                    case BinaryProtocol.INVALID_MOVE:
+                        onInvalidMove();
+                        break;
+                    case BinaryProtocol.REPLAY_PROMPT:
+                        connection.send("N");
+                        break;
+                    default:
+                        break; // Symbol and forfeit notices need no action
+                }
+            } catch (IOException | ArrayIndexOutOfBoundsException e) {
+                protocolErrors++;
+            }
+        }
+
+        // Parses "square 1: X square 2:   ... 1" into the board. Returns false if malformed.
+        // Every cell's symbol is the character after its ": "; for an empty last cell that is the
+        // turn indicator, which is not a symbol either.
+        private boolean parseTextBoard(String message) {
+            int at = 0;
+            for (int i = 0; i < board.length; i++) {
+                at = message.indexOf(": ", at);
+                if (at < 0 || at + 2 >= message.length()) {
+                    return false;
+                }
+                char symbol = message.charAt(at + 2);
+                board[i] = symbol == 'X' || symbol == 'O' ? symbol : ' ';
+                at += 2;
+            }
+            return message.indexOf(": ", at) < 0;
+        }
+
+        private void onBoard(boolean yourTurn) {
+            if (!yourTurn) {
+                return;
+            }
+            int move = strategy.bot != null ? strategy.bot.chooseMove(mask('X'), mask('O')) : randomEmptySquare();
+            if (move == 0) {
+                protocolErrors++; // Told to move on a full board; quit rather than stall the session
+                connection.send("Q");
+                return;
+            }
+            moves++;
+            connection.send(Integer.toString(move));
+        }
+
+        // Returns a random empty square (1-based), or 0 if the board is full.
+        private int randomEmptySquare() {
+            int empty = 0;
+            for (char cell : board) {
+                if (cell == ' ') {
+                    empty++;
+                }
+            }
+            if (empty == 0) {
+                return 0;
+            }
+            int pick = ThreadLocalRandom.current().nextInt(empty);
+            for (int i = 0; ; i++) {
+                if (board[i] == ' ' && pick-- == 0) {
+                    return i + 1;
+                }
+            }
+        }
+
+        private int mask(char symbol) {
+            int mask = 0;
+            for (int i = 0; i < board.length; i++) {
+                if (board[i] == symbol) {
+                    mask |= 1 << i;
+                }
+            }
+            return mask;
+        }
+
+        // A rejected move is a bug in the player or the server; give up the game rather than loop
+        private void onInvalidMove() {
+            invalidMoves++;
+            connection.send("Q");
+        }
+    }
+}
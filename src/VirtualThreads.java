@@ -0,0 +1,40 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Creates executors that start one virtual thread per task.
+// Virtual threads need Java 21; the lookup is reflective so the server still builds and runs
+// on older JVMs, where it falls back to an unbounded pool of platform threads.
+public final class VirtualThreads {
+    private static final Method NEW_PER_TASK_EXECUTOR = findFactory();
+
+    private VirtualThreads() {
+    }
+
+    // Checks if the running JVM supports virtual threads.
+    public static boolean isSupported() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    // Returns an executor running every task on a new virtual thread, or on a cached
+    // platform thread if virtual threads are not available.
+    public static ExecutorService newPerTaskExecutor() {
+        if (NEW_PER_TASK_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Unable to create virtual threads: " + e.getMessage());
+            }
+        }
+        System.out.println("Virtual threads are not supported by this JVM; using platform threads.");
+        return Executors.newCachedThreadPool();
+    }
+
+    private static Method findFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}